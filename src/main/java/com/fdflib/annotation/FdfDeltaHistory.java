@@ -0,0 +1,25 @@
+package com.fdflib.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stores the history of a model class as deltas.  The current state is always stored in full, when it is superseded
+ * the closed state keeps only the fields that differ from the state that replaced it, the unchanged fields are set
+ * to null in the database and filled back in from the newer versions when history is read.  Every keyframeInterval
+ * closed versions one is stored in full, which bounds how many versions are needed to rebuild a state.
+ *
+ * Meant for wide models where few fields change per save.  As the stored history of the non CommonState fields is
+ * incomplete, statements that can read history (without a cf = true clause) may only filter, group, order or
+ * aggregate by CommonState fields, others are rejected with an IllegalArgumentException.  Only supported on
+ * PostgreSQL, the other databases store every version in full.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface FdfDeltaHistory {
+
+    int keyframeInterval() default 10;
+
+}
@@ -21,6 +21,7 @@ import com.fdflib.model.state.CommonState;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Created by brian.gormanly on 6/12/15.
@@ -30,6 +31,11 @@ public class FdfEntity<S extends CommonState> {
     public List<S> history;
     public long entityId = -1;
 
+    private FdfVersionIndex<S> versionIndex;
+    private S indexedCurrent;
+    private List<S> indexedHistory;
+    private int indexedHistorySize;
+
     public FdfEntity() {
         current = null;
         history = new ArrayList<>();
@@ -41,23 +47,39 @@ public class FdfEntity<S extends CommonState> {
         history = historyStates;
     }
 
-    public S getStateByRid(long rid) {
-        S thisState = null;
+    /**
+     * Creates an entity whose history is only queried the first time it is accessed.  Useful when most callers only
+     * read the current state.
+     *
+     * @param currentState the current state of the entity
+     * @param historyLoader query for the historical states, run at most once
+     */
+    public FdfEntity(S currentState, Supplier<List<S>> historyLoader) {
+        entityId = currentState.id;
+        current = currentState;
+        history = new LazyHistory<>(historyLoader);
+    }
 
-        if(this.current != null) {
-            if (this.current.rid == rid) {
-                thisState = this.current;
-            }
-        }
-        if(this.history != null && this.history.size() > 0) {
-            for(S historyState : this.history) {
-                if (historyState.rid == rid) {
-                    thisState = historyState;
-                }
-            }
-        }
+    /**
+     * Returns false while the history of a lazily loaded entity has not been queried yet.
+     *
+     * @return true if the history states are in memory
+     */
+    public boolean isHistoryLoaded() {
+        return !(history instanceof LazyHistory) || ((LazyHistory<S>) history).isLoaded();
+    }
 
-        return thisState;
+    /**
+     * Returns the state with the rid passed, or null if it is not part of this entity.
+     *
+     * @param rid row id of the state
+     * @return the state with the rid passed
+     */
+    public S getStateByRid(long rid) {
+        if(this.current != null && this.current.rid == rid) {
+            return this.current;
+        }
+        return getVersionIndex().getByRid(rid);
     }
 
     /**
@@ -67,50 +89,35 @@ public class FdfEntity<S extends CommonState> {
      * @return the most recent state for the entity
      */
     public S getMostRecentState() {
-
         if(this.current != null) {
             return this.current;
         }
-        else {
-            // there was no current state, see if we can get a state from history
-            if(this.history != null && this.history.size() > 0) {
-                // find the historical entry with the most recent endDate
-                S lastState = null;
-                for(S historicalState: this.history) {
-                    if(lastState == null) {
-                        lastState = historicalState;
-                    }
-                    else {
-                        // if the state ared we are looking at is greater then then the last one make it the last
-                        if(historicalState.ared.getTime() > lastState.ared.getTime()) {
-                            // the state being looked at is more recent
-                            lastState = historicalState;
-
-                        }
-                    }
-                }
-                return lastState;
-            }
-        }
-        return null;
+        return getVersionIndex().getMostRecent();
     }
 
+    /**
+     * Returns the state that was active at the date passed, or null if the entity had no state at that time.
+     *
+     * @param date point in time to look up
+     * @return the state active at the date passed
+     */
     public S getStateOfEntityAt(Date date) {
-        S thisState = null;
+        return getVersionIndex().getAt(date);
+    }
 
-        if(this.current != null) {
-            if (this.current.arsd.before(date) && this.current.ared.after(date)) {
-                thisState = this.current;
-            }
-        }
-        if(this.history != null && this.history.size() > 0) {
-            for(S historyState : this.history) {
-                if (historyState.arsd.before(date) && historyState.ared.after(date)) {
-                    thisState = historyState;
-                }
-            }
+    /**
+     * The index is rebuilt when current or history is replaced or the history changes size, changing a state
+     * already in the history in place is not picked up.
+     */
+    private synchronized FdfVersionIndex<S> getVersionIndex() {
+        List<S> states = (this.history != null ? this.history : new ArrayList<>());
+        if(versionIndex == null || indexedCurrent != this.current || indexedHistory != this.history
+                || indexedHistorySize != states.size()) {
+            versionIndex = new FdfVersionIndex<>(this.current, states);
+            indexedCurrent = this.current;
+            indexedHistory = this.history;
+            indexedHistorySize = states.size();
         }
-
-        return thisState;
+        return versionIndex;
     }
 }
@@ -0,0 +1,119 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.model.entity;
+
+import com.fdflib.model.state.CommonState;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read only index over all the versions of one entity.  Versions are sorted by arsd and their start and end times
+ * are kept in primitive arrays so a point in time lookup is a binary search, rids are looked up through a hash
+ * index.  A missing ared (the current state) is treated as open ended.
+ *
+ * @param <S> type of the states in the entity
+ */
+class FdfVersionIndex<S extends CommonState> {
+    private final List<S> versions;
+    private final long[] starts;
+    private final long[] ends;
+    // largest end time of any version at or before each position, lets a lookup stop early when it is in a gap
+    private final long[] maxEnds;
+    private final Map<Long, S> byRid;
+    private final S mostRecent;
+
+    FdfVersionIndex(S current, List<S> history) {
+        versions = new ArrayList<>(history.size() + 1);
+        // history first so the current state wins if a rid or time range is duplicated
+        versions.addAll(history);
+        if(current != null) {
+            versions.add(current);
+        }
+
+        byRid = new HashMap<>(versions.size() * 4 / 3 + 1);
+        for(S version : versions) {
+            byRid.put(version.rid, version);
+        }
+
+        versions.sort(Comparator.comparingLong(version -> startOf(version)));
+        starts = new long[versions.size()];
+        ends = new long[versions.size()];
+        maxEnds = new long[versions.size()];
+        S latest = null;
+        for(int i = 0; i < versions.size(); i++) {
+            S version = versions.get(i);
+            starts[i] = startOf(version);
+            ends[i] = endOf(version);
+            maxEnds[i] = (i > 0 ? Math.max(maxEnds[i - 1], ends[i]) : ends[i]);
+            if(latest == null || ends[i] > endOf(latest)) {
+                latest = version;
+            }
+        }
+        mostRecent = (current != null ? current : latest);
+    }
+
+    S getByRid(long rid) {
+        return byRid.get(rid);
+    }
+
+    S getMostRecent() {
+        return mostRecent;
+    }
+
+    /**
+     * Finds the version that was active at the date passed, start and end are both exclusive.
+     */
+    S getAt(Date date) {
+        long time = date.getTime();
+
+        // last version that started strictly before the date
+        int low = 0;
+        int high = starts.length - 1;
+        int found = -1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(starts[mid] < time) {
+                found = mid;
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        // versions do not normally overlap so this is one step, walking back only happens for overlapping data
+        for(int i = found; i >= 0 && maxEnds[i] > time; i--) {
+            if(ends[i] > time) {
+                return versions.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static long startOf(CommonState state) {
+        return (state.arsd != null ? state.arsd.getTime() : Long.MIN_VALUE);
+    }
+
+    private static long endOf(CommonState state) {
+        return (state.ared != null ? state.ared.getTime() : Long.MAX_VALUE);
+    }
+}
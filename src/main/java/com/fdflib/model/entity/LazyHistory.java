@@ -0,0 +1,78 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.model.entity;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * History list that runs its query the first time it is accessed.  Once loaded it behaves like an ordinary
+ * ArrayList, so code that adds to or walks entity.history does not need to know it was lazy.
+ *
+ * @param <S> type of the states in the history
+ */
+class LazyHistory<S> extends AbstractList<S> {
+    private Supplier<List<S>> loader;
+    private List<S> states;
+
+    LazyHistory(Supplier<List<S>> loader) {
+        this.loader = loader;
+    }
+
+    synchronized boolean isLoaded() {
+        return states != null;
+    }
+
+    private synchronized List<S> states() {
+        if(states == null) {
+            List<S> loaded = loader.get();
+            states = (loaded != null ? new ArrayList<>(loaded) : new ArrayList<>());
+            // the query is not needed again, let go of whatever it captured
+            loader = null;
+        }
+        return states;
+    }
+
+    @Override
+    public S get(int index) {
+        return states().get(index);
+    }
+
+    @Override
+    public int size() {
+        return states().size();
+    }
+
+    @Override
+    public S set(int index, S state) {
+        return states().set(index, state);
+    }
+
+    @Override
+    public void add(int index, S state) {
+        states().add(index, state);
+        modCount++;
+    }
+
+    @Override
+    public S remove(int index) {
+        modCount++;
+        return states().remove(index);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.model.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Differences between the entities of a type at two points in time.  added holds the state at the later time of
+ * entities that did not exist (or were deleted) at the earlier time, removed the state at the earlier time of entities
+ * that no longer exist (or were deleted) at the later time, and changed the states at both times of entities whose
+ * data changed in between.
+ *
+ * @param <T> type of the entity states
+ */
+public class FdfDiff<T> {
+    public List<T> added;
+    public List<T> removed;
+    public List<Change<T>> changed;
+
+    public static class Change<T> {
+        public T before;
+        public T after;
+
+        public Change(T before, T after) {
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    public FdfDiff() {
+        added = new ArrayList<>();
+        removed = new ArrayList<>();
+        changed = new ArrayList<>();
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+}
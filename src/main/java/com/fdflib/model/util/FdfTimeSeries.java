@@ -0,0 +1,79 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.model.util;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * An aggregate per time bucket, see SqlStatement.runTimeSeries.  bucketStarts holds the start of each bucket (epoch
+ * milliseconds) and values the aggregate over the states valid during it, every bucket of the range is present and a
+ * bucket without states has the value 0 (NaN for min, max and avg).
+ */
+public class FdfTimeSeries {
+
+    /**
+     * Size of the buckets, the interval is rendered into the sql as is.
+     */
+    public enum Bucket {
+        HOUR("1 hour", Calendar.HOUR_OF_DAY),
+        DAY("1 day", Calendar.DAY_OF_MONTH),
+        WEEK("1 week", Calendar.WEEK_OF_YEAR),
+        MONTH("1 month", Calendar.MONTH),
+        YEAR("1 year", Calendar.YEAR);
+
+        private final String interval;
+        private final int calendarField;
+
+        Bucket(String interval, int calendarField) {
+            this.interval = interval;
+            this.calendarField = calendarField;
+        }
+
+        public String getInterval() {
+            return interval;
+        }
+
+        /**
+         * Start of the bucket following the one starting at the passed date, for the databases that cannot generate
+         * the buckets themselves.
+         */
+        public Date next(Date bucketStart) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(bucketStart);
+            calendar.add(calendarField, 1);
+            return calendar.getTime();
+        }
+    }
+
+    public long[] bucketStarts;
+    public double[] values;
+
+    public FdfTimeSeries() {
+        bucketStarts = new long[0];
+        values = new double[0];
+    }
+
+    public FdfTimeSeries(long[] bucketStarts, double[] values) {
+        this.bucketStarts = bucketStarts;
+        this.values = values;
+    }
+
+    public int size() {
+        return bucketStarts.length;
+    }
+}
@@ -2,20 +2,85 @@ package com.fdflib.model.util;
 
 import com.fdflib.model.state.CommonState;
 import com.fdflib.persistence.FdfPersistence;
+import com.fdflib.persistence.FdfQueryLanes;
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.util.FdfSettings;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
  * Created by Corley.Herman1 on 8/16/2016.
  */
 public class SqlStatement {
+
+    /**
+     * Aggregate functions that can be computed by the database instead of returning rows.
+     */
+    public enum Aggregate {
+        COUNT, COUNT_DISTINCT, MIN, MAX, SUM, AVG
+    }
+
+    /**
+     * Keys available for keyset (seek) pagination, all are backed by an index so every page costs the same.
+     * RID pages through rows in insert order, ID_ARSD pages through entities with their versions in time order (rid
+     * breaks ties between versions saved at the same time) and ARSD_RID pages through states in the order they were
+     * saved (used with a euid or esid clause, which lead the index).
+     */
+    public enum Keyset {
+        RID, ID_ARSD, ARSD_RID
+    }
+
+    /**
+     * Which states a statement can match, deduced from its cf (current flag) clauses.  Used by the persistence layer
+     * to route the statement when current and history states are stored in separate tables.
+     */
+    public enum Scope {
+        CURRENT, HISTORY, ALL
+    }
+
+    /**
+     * Execution lane of a statement.  POINT statements are short lookups, SCAN statements read through many rows (for
+     * reports and audits).  Each lane has its own fetch size, timeout and executor, see FdfQueryLanes.
+     */
+    public enum Lane {
+        POINT, SCAN
+    }
+
+    /**
+     * Column alias the aggregate value is returned under.
+     */
+    public static final String AGGREGATE_ALIAS = "fdfaggregate";
+
     private List<String> select;
     private List<WhereClause> where;
     private List<String> groupBy;
     private List<String> orderBy;
     private int limit, offset;
+    private Aggregate aggregate;
+    private String aggregateField;
+    private Keyset keyset;
+    private int pageSize;
+    private long seekId;
+    private Timestamp seekArsd;
+    private long seekRid;
+    private Lane lane;
+    private Date asOf;
 
     private SqlStatement() {
         select = new ArrayList<>();
@@ -82,13 +147,392 @@ public class SqlStatement {
         return this;
     }
 
+    /**
+     * Counts the rows matched by the statement (count(*)).
+     * @return this statement
+     */
+    public SqlStatement count() {
+        return aggregate(Aggregate.COUNT, "*");
+    }
+
+    /**
+     * Counts the distinct values of the passed field matched by the statement (count(distinct field)).
+     * @param field field to count distinct values of
+     * @return this statement
+     */
+    public SqlStatement countDistinct(String field) {
+        return aggregate(Aggregate.COUNT_DISTINCT, field);
+    }
+
+    public SqlStatement min(String field) {
+        return aggregate(Aggregate.MIN, field);
+    }
+
+    public SqlStatement max(String field) {
+        return aggregate(Aggregate.MAX, field);
+    }
+
+    public SqlStatement sum(String field) {
+        return aggregate(Aggregate.SUM, field);
+    }
+
+    public SqlStatement avg(String field) {
+        return aggregate(Aggregate.AVG, field);
+    }
+
+    public SqlStatement aggregate(Aggregate function, String field) {
+        if(field != null && !field.isEmpty()) {
+            aggregate = function;
+            aggregateField = field;
+        }
+        return this;
+    }
+
+    /**
+     * Keyset (seek) pagination, an alternative to limit that does not slow down as you page deeper.  Instead of
+     * skipping rows with an offset the statement continues after the last row of the previous page, which is
+     * carried in the continuationToken.  Results are ordered by the keyset, use runPage to get the page along with
+     * the token for the next one.
+     *
+     * @param keyset key to order and seek by
+     * @param resultsPerPage maximum number of rows in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @return this statement
+     */
+    public SqlStatement seek(Keyset keyset, int resultsPerPage, String continuationToken) {
+        this.keyset = keyset;
+        this.pageSize = resultsPerPage;
+        this.seekArsd = null;
+        this.seekId = -1;
+        this.seekRid = -1;
+        if(continuationToken != null && !continuationToken.isEmpty()) {
+            decodeToken(continuationToken);
+        }
+        return this;
+    }
+
+    /**
+     * Keyset (seek) pagination by rid starting after a known rid, for consumers that keep their own position (a rid
+     * high-water mark) instead of a continuationToken.
+     *
+     * @param lastSeenRid rid to continue after, 0 to start from the beginning
+     * @param resultsPerPage maximum number of rows in the page
+     * @return this statement
+     */
+    public SqlStatement seekAfterRid(long lastSeenRid, int resultsPerPage) {
+        seek(Keyset.RID, resultsPerPage, null);
+        this.seekId = lastSeenRid;
+        return this;
+    }
+
+    /**
+     * Runs the statement in the lane passed instead of the one deduced from its shape, see getLane.
+     *
+     * @param lane lane to run the statement in
+     * @return this statement
+     */
+    public SqlStatement lane(Lane lane) {
+        this.lane = lane;
+        return this;
+    }
+
+    /**
+     * Marks the statement as selecting the states as they were at the date passed (the where clauses are not
+     * changed).  When the date is in the past and every state returned is closed the result can not change anymore,
+     * FdfResultCache keeps it until history is rewritten.
+     *
+     * @param date date the statement selects the states at
+     * @return this statement
+     */
+    public SqlStatement asOf(Date date) {
+        this.asOf = date;
+        return this;
+    }
+
+    public Date getAsOf() {
+        return asOf;
+    }
+
     public <S extends CommonState> List<S> run(Class<S> entityState) {
         return FdfPersistence.getInstance().selectQuery(entityState, this);
     }
 
+    /**
+     * Runs the statement on the executor of its lane, a report running in the SCAN lane does not hold up point
+     * lookups.
+     *
+     * @param entityState Class of entity to select
+     * @param <S> Type extending CommonState
+     * @return future completed with the results
+     */
+    public <S extends CommonState> CompletableFuture<List<S>> runAsync(Class<S> entityState) {
+        return CompletableFuture.supplyAsync(() -> run(entityState), FdfQueryLanes.getInstance().getExecutor(getLane()));
+    }
+
+    /**
+     * Streams the selected rows to the output stream in the export format without building a state for each row, for
+     * exporting whole tables.  Filters, ordering and limit are applied by the database.
+     *
+     * @param entityState Class of entity to export
+     * @param format CSV (with a header row) or BINARY
+     * @param out stream to write to, it is not closed
+     * @param <S> Type extending CommonState
+     * @return number of rows exported
+     * @throws SQLException if the export failed, part of the rows may have been written
+     * @throws IOException if writing to the stream failed
+     */
+    public <S extends CommonState> long export(Class<S> entityState, DatabaseUtil.ExportFormat format,
+                                               OutputStream out) throws SQLException, IOException {
+        return FdfPersistence.getInstance().export(entityState, this, format, out);
+    }
+
+    public <S extends CommonState> long export(Class<S> entityState, DatabaseUtil.ExportFormat format,
+                                               WritableByteChannel channel) throws SQLException, IOException {
+        return export(entityState, format, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Computes the aggregate of the statement for every bucket between the start and end date over the states valid
+     * (arsd to ared) at some point in the bucket, in the database.  Without an aggregate the states are counted, use
+     * countDistinct("id") to count entities.  The where clauses of the statement filter the states, groupings,
+     * ordering and limits are not used.
+     *
+     * @param entityState Class of entity to aggregate over
+     * @param bucket size of the buckets
+     * @param startDate start of the first bucket
+     * @param endDate end of the range, the last bucket is the one starting before it
+     * @param <S> Type extending CommonState
+     * @return aggregate per bucket
+     */
+    public <S extends CommonState> FdfTimeSeries runTimeSeries(Class<S> entityState, FdfTimeSeries.Bucket bucket,
+                                                               Date startDate, Date endDate) {
+        return FdfPersistence.getInstance().timeSeriesQuery(entityState, this, bucket, startDate, endDate);
+    }
+
+    /**
+     * Runs a statement paginated with seek and returns the page of results with the token for the next page.
+     *
+     * @param entityState Class of entity to select
+     * @param <S> Type extending CommonState
+     * @return page of results
+     */
+    public <S extends CommonState> FdfPage<S> runPage(Class<S> entityState) {
+        List<S> results = run(entityState);
+        String nextToken = null;
+        if(keyset != null && results.size() > pageSize) {
+            // one row more then the page is selected to know if there is another page
+            results = new ArrayList<>(results.subList(0, pageSize));
+            nextToken = encodeToken(results.get(results.size() - 1));
+        }
+        return new FdfPage<>(results, nextToken);
+    }
+
+    private String encodeToken(CommonState last) {
+        String key;
+        if(keyset == Keyset.RID) {
+            key = keyset + ":" + last.rid;
+        }
+        else if(keyset == Keyset.ARSD_RID) {
+            key = keyset + ":" + last.rid + ":" + (last.arsd != null ? last.arsd.getTime() : 0);
+        }
+        else {
+            key = keyset + ":" + last.id + ":" + (last.arsd != null ? last.arsd.getTime() : 0) + ":" + last.rid;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void decodeToken(String continuationToken) {
+        try {
+            String[] key = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8)
+                    .split(":");
+            if(!Keyset.valueOf(key[0]).equals(keyset)) {
+                throw new IllegalArgumentException("Continuation token was issued for keyset " + key[0]);
+            }
+            seekId = Long.parseLong(key[1]);
+            if(keyset == Keyset.ID_ARSD || keyset == Keyset.ARSD_RID) {
+                seekArsd = new Timestamp(Long.parseLong(key[2]));
+            }
+            // tokens issued before the rid tiebreaker have no rid
+            if(keyset == Keyset.ID_ARSD && key.length > 3) {
+                seekRid = Long.parseLong(key[3]);
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + continuationToken, e);
+        }
+    }
+
+    /**
+     * Runs an aggregate statement (see count, countDistinct, min, max and sum) and returns the single value computed
+     * by the database.  Returns 0 when there were no rows to aggregate.  Timestamps (min/max of arsd or ared) are
+     * returned as milliseconds since the epoch.
+     *
+     * @param entityState Class of entity to aggregate over
+     * @param <S> Type extending CommonState
+     * @return aggregate value
+     */
+    public <S extends CommonState> long runForLong(Class<S> entityState) {
+        Number value = FdfPersistence.getInstance().aggregateQuery(entityState, this).values().stream()
+                .findFirst().orElse(null);
+        return (value != null ? value.longValue() : 0);
+    }
+
+    public <S extends CommonState> double runForDouble(Class<S> entityState) {
+        Number value = FdfPersistence.getInstance().aggregateQuery(entityState, this).values().stream()
+                .findFirst().orElse(null);
+        return (value != null ? value.doubleValue() : 0);
+    }
+
+    /**
+     * Runs an aggregate statement with groupings and returns one value per group.  The key is the value of the
+     * group by fields (comma separated when grouping by more then one field).
+     *
+     * @param entityState Class of entity to aggregate over
+     * @param <S> Type extending CommonState
+     * @return aggregate value per group, in the order returned by the database
+     */
+    public <S extends CommonState> Map<String, Long> runGroupedForLong(Class<S> entityState) {
+        Map<String, Long> grouped = new LinkedHashMap<>();
+        FdfPersistence.getInstance().aggregateQuery(entityState, this)
+                .forEach((group, value) -> grouped.put(group, value.longValue()));
+        return grouped;
+    }
+
+    public <S extends CommonState> Map<String, Double> runGroupedForDouble(Class<S> entityState) {
+        Map<String, Double> grouped = new LinkedHashMap<>();
+        FdfPersistence.getInstance().aggregateQuery(entityState, this)
+                .forEach((group, value) -> grouped.put(group, value.doubleValue()));
+        return grouped;
+    }
+
+    /**
+     * Deduces the scope of the statement from its top level cf clauses.  A clause only narrows the scope when every
+     * top level clause is joined by AND, a top level OR (or NOT) can match states on either side so the scope is ALL.
+     *
+     * @return scope of states the statement can match
+     */
+    public Scope getScope() {
+        Scope scope = Scope.ALL;
+        for(WhereClause clause : getRequiredClauses()) {
+            if("cf".equals(clause.name)) {
+                boolean isTrue = "true".equalsIgnoreCase(clause.value);
+                if(clause.operator == WhereClause.Operators.EQUAL) {
+                    scope = isTrue ? Scope.CURRENT : Scope.HISTORY;
+                }
+                else if(clause.operator == WhereClause.Operators.NOT_EQUAL) {
+                    scope = isTrue ? Scope.HISTORY : Scope.CURRENT;
+                }
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * Deduces the tenant the statement is limited to from a top level tid equals clause, used by the persistence layer
+     * to pick the shard the tenant is stored in.
+     *
+     * @return tenant id, or -1 if the statement can match more than one tenant
+     */
+    public long getTenantId() {
+        for(WhereClause clause : getRequiredClauses()) {
+            if("tid".equals(clause.name) && clause.operator == WhereClause.Operators.EQUAL && clause.value != null) {
+                try {
+                    return Long.parseLong(clause.value.trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Top level clauses outside of parentheses that every matched row has to satisfy.  Empty when a top level clause
+     * is not joined by AND, an OR (or NOT) can match rows on either side.
+     */
+    private List<WhereClause> getRequiredClauses() {
+        List<WhereClause> required = new ArrayList<>();
+        int depth = 0;
+        for(int w = 0; w < where.size(); w++) {
+            WhereClause clause = where.get(w);
+            if(w > 0 && depth == 0 && clause.conditional != WhereClause.CONDITIONALS.AND) {
+                return new ArrayList<>();
+            }
+            long opens = clause.groupings.stream()
+                    .filter(grouping -> grouping.equals(WhereClause.GROUPINGS.OPEN_PARENTHESIS)).count();
+            long closes = clause.groupings.stream()
+                    .filter(grouping -> grouping.equals(WhereClause.GROUPINGS.CLOSE_PARENTHESIS)).count();
+            if(depth == 0 && opens == 0) {
+                required.add(clause);
+            }
+            depth += opens - closes;
+        }
+        return required;
+    }
+
+    /**
+     * Lane the statement runs in.  Unless a lane was set with lane(), a statement is a POINT lookup when it selects
+     * rows by id or rid, or returns at most FdfSettings.POINT_MAX_ROWS rows, everything else (including aggregates)
+     * is a SCAN.
+     *
+     * @return lane of the statement
+     */
+    public Lane getLane() {
+        if(lane != null) {
+            return lane;
+        }
+        if(aggregate != null) {
+            return Lane.SCAN;
+        }
+        for(WhereClause clause : getRequiredClauses()) {
+            if(("id".equals(clause.name) || "rid".equals(clause.name))
+                    && clause.operator == WhereClause.Operators.EQUAL) {
+                return Lane.POINT;
+            }
+        }
+        int rows = (keyset != null ? pageSize + 1 : limit);
+        return (rows > 0 && rows <= FdfSettings.POINT_MAX_ROWS ? Lane.POINT : Lane.SCAN);
+    }
+
+    public boolean isAggregate() {
+        return aggregate != null;
+    }
+
+    public List<String> getGroupByFields() {
+        return new ArrayList<>(groupBy);
+    }
+
+    /**
+     * Fields the statement filters, groups, orders or aggregates by (not the selected ones).  Used by the persistence
+     * layer to reject statements a storage layout cannot answer, see FdfDeltaHistory.
+     */
+    public Set<String> getReferencedFields() {
+        Set<String> fields = new LinkedHashSet<>();
+        for(WhereClause clause : where) {
+            if(clause.operator != WhereClause.Operators.UNARY && clause.name != null && !clause.name.isEmpty()) {
+                fields.add(clause.name);
+            }
+        }
+        fields.addAll(groupBy);
+        for(String order : orderBy) {
+            // drop the direction
+            fields.add(order.trim().split("\\s+")[0]);
+        }
+        if(aggregate != null && !"*".equals(aggregateField)) {
+            fields.add(aggregateField);
+        }
+        return fields;
+    }
+
     public String getSelect() {
         StringBuilder sql = new StringBuilder("SELECT ");
-        if(!select.isEmpty()) {
+        if(aggregate != null) {
+            // the group by fields lead so the persistence layer can key the aggregate by them
+            for(String group : groupBy) {
+                sql.append(group).append(", ");
+            }
+            sql.append(getAggregateExpression()).append(" AS ").append(AGGREGATE_ALIAS);
+        } else if(!select.isEmpty()) {
             for(int s=0; s<select.size(); s++) {
                 if(s > 0) {
                     sql.append(", ");
@@ -100,7 +544,72 @@ public class SqlStatement {
         }
         return sql.toString();
     }
+    private String getAggregateExpression() {
+        switch (aggregate) {
+            case COUNT:
+                return "count(" + aggregateField + ")";
+            case COUNT_DISTINCT:
+                return "count(distinct " + aggregateField + ")";
+            case MIN:
+                return "min(" + aggregateField + ")";
+            case MAX:
+                return "max(" + aggregateField + ")";
+            case SUM:
+                return "sum(" + aggregateField + ")";
+            case AVG:
+                return "avg(" + aggregateField + ")";
+            default:
+                return null;
+        }
+    }
+    /**
+     * Aggregate expression for a time series, joined to a bucket that may have no states: count(*) counts rows (rid)
+     * so an empty bucket counts 0, a sum of no rows is 0 and without an aggregate the states are counted.
+     *
+     * @return aggregate expression
+     */
+    public String getTimeSeriesAggregate() {
+        if(aggregate == null || (aggregate == Aggregate.COUNT && "*".equals(aggregateField))) {
+            return "count(rid)";
+        }
+        if(aggregate == Aggregate.SUM) {
+            return "coalesce(" + getAggregateExpression() + ", 0)";
+        }
+        return getAggregateExpression();
+    }
+
     public String getWhere() {
+        StringBuilder sql = new StringBuilder();
+        String seekPredicate = getSeekPredicate();
+        if(seekPredicate != null && !where.isEmpty()) {
+            // keep any OR in the passed clauses from escaping the seek predicate
+            sql.append(" WHERE (").append(getClauses().substring(" WHERE ".length())).append(") AND ")
+                    .append(seekPredicate);
+        }
+        else if(seekPredicate != null) {
+            sql.append(" WHERE ").append(seekPredicate);
+        }
+        else {
+            sql.append(getClauses());
+        }
+        return sql.toString();
+    }
+    private String getSeekPredicate() {
+        if(keyset == Keyset.RID && seekId > -1) {
+            return "rid > " + seekId;
+        }
+        if(keyset == Keyset.ID_ARSD && seekArsd != null && seekRid > -1) {
+            return "(id, arsd, rid) > (" + seekId + ", '" + seekArsd + "', " + seekRid + ")";
+        }
+        if(keyset == Keyset.ID_ARSD && seekArsd != null) {
+            return "(id, arsd) > (" + seekId + ", '" + seekArsd + "')";
+        }
+        if(keyset == Keyset.ARSD_RID && seekArsd != null) {
+            return "(arsd, rid) > ('" + seekArsd + "', " + seekId + ")";
+        }
+        return null;
+    }
+    private String getClauses() {
         StringBuilder sql = new StringBuilder();
         for(WhereClause clause : where) {
             sql.append(" ");
@@ -145,6 +654,19 @@ public class SqlStatement {
     }
     public String getOrderBy() {
         StringBuilder sql = new StringBuilder();
+        List<String> orderBy = new ArrayList<>(this.orderBy);
+        if(keyset == Keyset.RID) {
+            orderBy.add(0, "rid");
+        }
+        else if(keyset == Keyset.ID_ARSD) {
+            orderBy.add(0, "id");
+            orderBy.add(1, "arsd");
+            orderBy.add(2, "rid");
+        }
+        else if(keyset == Keyset.ARSD_RID) {
+            orderBy.add(0, "arsd");
+            orderBy.add(1, "rid");
+        }
         orderBy.forEach(order -> {
             if(orderBy.indexOf(order) == 0) {
                 sql.append(" ORDER BY");
@@ -158,7 +680,10 @@ public class SqlStatement {
     }
     public String getLimit() {
         StringBuilder sql = new StringBuilder();
-        if(limit > 0 && offset > -1) {
+        if(keyset != null && pageSize > 0) {
+            sql.append(" LIMIT ").append(pageSize + 1);
+        }
+        else if(limit > 0 && offset > -1) {
             sql.append(" LIMIT ").append(limit);
             if(offset > 0) {
                 sql.append(" OFFSET ").append(offset);
@@ -0,0 +1,230 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence;
+
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.util.FdfSettings;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tenant aware admission control in front of persistence, turned on by FdfSettings.DB_MAX_CONCURRENT_QUERIES.  Every
+ * query and write takes a lease for its tenant before it gets a connection:
+ *
+ *  - at most DB_MAX_CONCURRENT_QUERIES leases are out at once, and at most TENANT_MAX_CONCURRENT_QUERIES per tenant,
+ *    so one tenant running large audit queries can not hold every connection
+ *  - when leases free up they go to the waiting tenants in weighted fair order (stride scheduling on
+ *    TENANT_WEIGHTS), not in arrival order, so a tenant with a long queue does not delay a tenant with one query
+ *  - what happens to a query that can not run right away is set by ADMISSION_OVERFLOW, it either waits up to
+ *    ADMISSION_WAIT_MS or is rejected, both end in FdfOverloadedException when it can not run
+ *
+ * Queries that are not limited to one tenant share the lease budget of tenant -1.
+ */
+public class FdfAdmissionControl {
+    private static final FdfAdmissionControl INSTANCE = new FdfAdmissionControl();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, TenantQueue> tenants = new HashMap<>();
+    private int running = 0;
+    // pass of the last lease handed out, a tenant that was idle starts from here instead of with saved up credit
+    private double virtualTime = 0;
+
+    private static class TenantQueue {
+        int running = 0;
+        double pass = 0;
+        final ArrayDeque<Waiter> waiting = new ArrayDeque<>();
+    }
+
+    private static class Waiter {
+        final Condition turn;
+        boolean admitted = false;
+
+        Waiter(Condition turn) {
+            this.turn = turn;
+        }
+    }
+
+    FdfAdmissionControl() {
+    }
+
+    public static FdfAdmissionControl getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return FdfSettings.DB_MAX_CONCURRENT_QUERIES != null && FdfSettings.DB_MAX_CONCURRENT_QUERIES > 0;
+    }
+
+    /**
+     * Waits for a turn to run a query or write for the tenant passed.  Close the lease when the statement is done:
+     *
+     *     try(FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(tenantId)) { ... }
+     *
+     * @param tenantId tenant the statement is for, -1 when not limited to one tenant
+     * @return lease to close when the statement is done
+     * @throws FdfOverloadedException if the statement can not run
+     */
+    public Lease acquire(long tenantId) {
+        if(!isEnabled()) {
+            return new Lease(this, tenantId, false);
+        }
+
+        lock.lock();
+        try {
+            TenantQueue tenant = tenants.computeIfAbsent(tenantId, id -> new TenantQueue());
+            if(tenant.running == 0 && tenant.waiting.isEmpty()) {
+                tenant.pass = Math.max(tenant.pass, virtualTime);
+            }
+            if(tenant.waiting.isEmpty() && canRun(tenant)) {
+                admit(tenantId, tenant);
+                return new Lease(this, tenantId, true);
+            }
+
+            if(FdfSettings.ADMISSION_OVERFLOW == DatabaseUtil.AdmissionOverflow.REJECT) {
+                forgetIfIdle(tenantId, tenant);
+                throw new FdfOverloadedException(tenantId, "is at its concurrent query limit");
+            }
+            if(tenant.waiting.size() >= FdfSettings.TENANT_MAX_QUEUED_QUERIES) {
+                throw new FdfOverloadedException(tenantId, "has " + tenant.waiting.size() + " queries waiting");
+            }
+
+            Waiter waiter = new Waiter(lock.newCondition());
+            tenant.waiting.add(waiter);
+            long remaining = TimeUnit.MILLISECONDS.toNanos(FdfSettings.ADMISSION_WAIT_MS);
+            try {
+                while(!waiter.admitted) {
+                    if(remaining <= 0) {
+                        tenant.waiting.remove(waiter);
+                        forgetIfIdle(tenantId, tenant);
+                        throw new FdfOverloadedException(tenantId, "waited more then " + FdfSettings.ADMISSION_WAIT_MS
+                                + "ms for a turn");
+                    }
+                    remaining = waiter.turn.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if(!waiter.admitted) {
+                    tenant.waiting.remove(waiter);
+                    forgetIfIdle(tenantId, tenant);
+                    throw new FdfOverloadedException(tenantId, "was interrupted waiting for a turn");
+                }
+            }
+            return new Lease(this, tenantId, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long tenantId) {
+        lock.lock();
+        try {
+            TenantQueue tenant = tenants.get(tenantId);
+            running--;
+            if(tenant != null) {
+                tenant.running--;
+            }
+            dispatch();
+            if(tenant != null) {
+                forgetIfIdle(tenantId, tenant);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands free leases to the waiting tenant with the lowest pass that is under its own limit.
+     */
+    private void dispatch() {
+        while(running < FdfSettings.DB_MAX_CONCURRENT_QUERIES) {
+            Long nextId = null;
+            TenantQueue next = null;
+            for(Map.Entry<Long, TenantQueue> entry : tenants.entrySet()) {
+                TenantQueue tenant = entry.getValue();
+                if(!tenant.waiting.isEmpty() && tenant.running < FdfSettings.TENANT_MAX_CONCURRENT_QUERIES
+                        && (next == null || tenant.pass < next.pass)) {
+                    nextId = entry.getKey();
+                    next = tenant;
+                }
+            }
+            if(next == null) {
+                return;
+            }
+            Waiter waiter = next.waiting.poll();
+            waiter.admitted = true;
+            admit(nextId, next);
+            waiter.turn.signal();
+        }
+    }
+
+    private boolean canRun(TenantQueue tenant) {
+        return running < FdfSettings.DB_MAX_CONCURRENT_QUERIES
+                && tenant.running < FdfSettings.TENANT_MAX_CONCURRENT_QUERIES;
+    }
+
+    private void admit(long tenantId, TenantQueue tenant) {
+        running++;
+        tenant.running++;
+        virtualTime = tenant.pass;
+        Integer weight = FdfSettings.TENANT_WEIGHTS.get(tenantId);
+        tenant.pass += 1.0 / (weight != null && weight > 0 ? weight : 1);
+    }
+
+    private void forgetIfIdle(long tenantId, TenantQueue tenant) {
+        if(tenant.running <= 0 && tenant.waiting.isEmpty()) {
+            tenants.remove(tenantId);
+        }
+    }
+
+    int getWaiting(long tenantId) {
+        lock.lock();
+        try {
+            TenantQueue tenant = tenants.get(tenantId);
+            return tenant != null ? tenant.waiting.size() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A turn to run one statement, give it back by closing it.
+     */
+    public static class Lease implements AutoCloseable {
+        private final FdfAdmissionControl admission;
+        private final long tenantId;
+        private boolean held;
+
+        private Lease(FdfAdmissionControl admission, long tenantId, boolean held) {
+            this.admission = admission;
+            this.tenantId = tenantId;
+            this.held = held;
+        }
+
+        @Override
+        public void close() {
+            if(held) {
+                held = false;
+                admission.release(tenantId);
+            }
+        }
+    }
+}
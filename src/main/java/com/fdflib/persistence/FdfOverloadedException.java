@@ -0,0 +1,37 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence;
+
+/**
+ * Thrown when admission control turns a query or write away because the tenant already has too much running or
+ * waiting, or it waited longer then FdfSettings.ADMISSION_WAIT_MS for a turn.  Nothing was read or written.
+ */
+public class FdfOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long tenantId;
+
+    public FdfOverloadedException(long tenantId, String reason) {
+        super("Tenant " + tenantId + " " + reason);
+        this.tenantId = tenantId;
+    }
+
+    public long getTenantId() {
+        return tenantId;
+    }
+}
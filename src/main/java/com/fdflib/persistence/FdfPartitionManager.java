@@ -0,0 +1,81 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence;
+
+import com.fdflib.util.FdfSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps future history partitions created ahead of time when FdfSettings.HISTORY_STORAGE is PARTITIONED.  Runs
+ * checkPartitions on a daemon thread every HISTORY_PARTITION_CHECK_HOURS so closed states always find a history
+ * partition, the default (current) partition only accepts current states.
+ */
+public class FdfPartitionManager {
+
+    private static final Logger fdfLog = LoggerFactory.getLogger(FdfPartitionManager.class);
+    private static final FdfPartitionManager INSTANCE = new FdfPartitionManager();
+
+    private ScheduledExecutorService scheduler = null;
+
+    private FdfPartitionManager() { }
+
+    public static FdfPartitionManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the periodic partition check, the first check runs immediately.  Calling start again while running
+     * does nothing.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fdf-partition-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, 0, FdfSettings.HISTORY_PARTITION_CHECK_HOURS, TimeUnit.HOURS);
+        fdfLog.info("History partition manager started, checking every {} hours",
+                FdfSettings.HISTORY_PARTITION_CHECK_HOURS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void check() {
+        try {
+            FdfPersistence.getInstance().checkPartitions();
+        } catch (SQLException e) {
+            fdfLog.warn("History partition check failed: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            // never let an exception cancel the scheduled check
+            fdfLog.warn("History partition check failed", e);
+        }
+    }
+}
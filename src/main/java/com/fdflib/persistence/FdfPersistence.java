@@ -17,12 +17,19 @@
 package com.fdflib.persistence;
 
 import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.FdfTimeSeries;
 import com.fdflib.model.util.SqlStatement;
 import com.fdflib.persistence.connection.DbConnectionManager;
+import com.fdflib.persistence.connection.FdfReadRouter;
+import com.fdflib.persistence.database.DatabaseUtil;
 import com.fdflib.persistence.impl.CorePersistenceImpl;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.SQLException;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by brian.gormanly on 6/10/15.
@@ -52,24 +59,163 @@ public class FdfPersistence extends DbConnectionManager implements CorePersisten
         persistence.checkFields();
     }
 
+    @Override
+    public void checkSchema() throws SQLException {
+        persistence.checkSchema();
+    }
+
+    @Override
+    public String getSchemaFingerprint() {
+        return persistence.getSchemaFingerprint();
+    }
+
+    @Override
+    public void setSchemaFingerprint(String fingerprint) {
+        persistence.setSchemaFingerprint(fingerprint);
+    }
+
+    @Override
+    public String getTenantShard(long tenantId) {
+        return persistence.getTenantShard(tenantId);
+    }
+
+    @Override
+    public void moveTenant(long tenantId, String shard) throws SQLException {
+        try {
+            persistence.moveTenant(tenantId, shard);
+        } finally {
+            FdfResultCache.getInstance().clear();
+        }
+    }
+
     @Override
     public void checkDefaultEntries() throws SQLException {
         persistence.checkDefaultEntries();
     }
 
     @Override
-    public <S> void update(Class<S> entityState, S state) {
+    public void checkPartitions() throws SQLException {
+        persistence.checkPartitions();
+    }
+
+    // queries and writes take a lease from admission control for their tenant before they reach the database
 
-        persistence.update(entityState, state);
+    @Override
+    @SuppressWarnings("try")
+    public <S> void update(Class<S> entityState, S state) {
+        try (FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(getTenantId(state))) {
+            persistence.update(entityState, state);
+        } finally {
+            FdfResultCache.getInstance().invalidate(entityState);
+        }
     }
 
     @Override
+    @SuppressWarnings("try")
     public <S> Long insert(Class<S> entityState, S state) {
-        return persistence.insert(entityState, state);
+        try (FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(getTenantId(state))) {
+            return persistence.insert(entityState, state);
+        } finally {
+            FdfResultCache.getInstance().invalidate(entityState);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public <S> Long insertAndClose(Class<S> entityState, S closingState, S newState) {
+        try (FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(getTenantId(newState))) {
+            return persistence.insertAndClose(entityState, closingState, newState);
+        } finally {
+            FdfResultCache.getInstance().invalidate(entityState);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public <S> List<Long> insertAndCloseBatch(Class<S> entityState, List<S> closingStates, List<S> newStates) {
+        long tenantId = newStates.isEmpty() ? -1 : getTenantId(newStates.get(0));
+        try (FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(tenantId)) {
+            return persistence.insertAndCloseBatch(entityState, closingStates, newStates);
+        } finally {
+            FdfResultCache.getInstance().invalidate(entityState);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public <S> long bulkLoad(Class<S> entityState, List<S> states) throws SQLException {
+        long tenantId = states.isEmpty() ? -1 : getTenantId(states.get(0));
+        try (FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(tenantId)) {
+            return persistence.bulkLoad(entityState, states);
+        } finally {
+            FdfResultCache.getInstance().invalidateHistory(entityState);
+        }
     }
 
     @Override
     public <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement) {
-        return persistence.selectQuery(c, sqlStatement);
+        FdfResultCache cache = FdfResultCache.getInstance();
+        if (!cache.isEnabled()) {
+            return select(c, sqlStatement);
+        }
+        List<S> cached = cache.get(c, sqlStatement);
+        if (cached != null) {
+            return cached;
+        }
+        if (!FdfReadRouter.getInstance().readsFromPrimary()) {
+            // a lagging replica could return states older than the version read below, only primary reads are cached
+            return select(c, sqlStatement);
+        }
+        // the version is read first, a write that lands while the statement runs keeps its result out of the cache
+        long version = cache.getVersion(c);
+        List<S> results = select(c, sqlStatement);
+        cache.put(c, sqlStatement, version, results);
+        return results;
+    }
+
+    @SuppressWarnings("try")
+    private <S extends CommonState> List<S> select(Class c, SqlStatement sqlStatement) {
+        // a scan waits for its lane before it takes a tenant lease, so it never holds a lease while it waits
+        long tenantId = sqlStatement.getTenantId();
+        try (FdfQueryLanes.Permit permit = FdfQueryLanes.getInstance().enter(sqlStatement.getLane(), tenantId);
+             FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(tenantId)) {
+            return persistence.selectQuery(c, sqlStatement);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public Map<String, Number> aggregateQuery(Class c, SqlStatement sqlStatement) {
+        long tenantId = sqlStatement.getTenantId();
+        try (FdfQueryLanes.Permit permit = FdfQueryLanes.getInstance().enter(sqlStatement.getLane(), tenantId);
+             FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(tenantId)) {
+            return persistence.aggregateQuery(c, sqlStatement);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public FdfTimeSeries timeSeriesQuery(Class c, SqlStatement sqlStatement, FdfTimeSeries.Bucket bucket,
+                                         Date startDate, Date endDate) {
+        long tenantId = sqlStatement.getTenantId();
+        try (FdfQueryLanes.Permit permit = FdfQueryLanes.getInstance().enter(SqlStatement.Lane.SCAN, tenantId);
+             FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(tenantId)) {
+            return persistence.timeSeriesQuery(c, sqlStatement, bucket, startDate, endDate);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public long export(Class c, SqlStatement sqlStatement, DatabaseUtil.ExportFormat format, OutputStream out)
+            throws SQLException, IOException {
+        long tenantId = sqlStatement.getTenantId();
+        try (FdfQueryLanes.Permit permit = FdfQueryLanes.getInstance().enter(sqlStatement.getLane(), tenantId);
+             FdfAdmissionControl.Lease lease = FdfAdmissionControl.getInstance().acquire(tenantId)) {
+            return persistence.export(c, sqlStatement, format, out);
+        }
+    }
+
+    private static long getTenantId(Object state) {
+        return state instanceof CommonState ? ((CommonState) state).tid : -1;
     }
 }
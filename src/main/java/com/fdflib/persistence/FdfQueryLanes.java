@@ -0,0 +1,143 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence;
+
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.util.FdfSettings;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps point lookups and scans (see SqlStatement.Lane) out of each others way.  Each lane has its own fetch size
+ * and statement timeout, applied by the persistence layer, and its own executor for SqlStatement.runAsync.  Scans
+ * are limited to SCAN_MAX_CONCURRENT_QUERIES at once so reports can not take every connection, point lookups are not
+ * limited.
+ *
+ * The scan limit and thread counts are read when they are first needed.
+ */
+public class FdfQueryLanes {
+    private static final FdfQueryLanes INSTANCE = new FdfQueryLanes();
+
+    private volatile Semaphore scanPermits;
+    private volatile ExecutorService pointExecutor;
+    private volatile ExecutorService scanExecutor;
+
+    private FdfQueryLanes() {
+    }
+
+    public static FdfQueryLanes getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits for a turn to run a statement in the lane passed, close the permit when the statement is done.
+     *
+     * @param lane lane of the statement
+     * @param tenantId tenant the statement is for, reported if it can not run
+     * @return permit to close when the statement is done
+     * @throws FdfOverloadedException if a scan waited more then ADMISSION_WAIT_MS
+     */
+    public Permit enter(SqlStatement.Lane lane, long tenantId) {
+        if(lane != SqlStatement.Lane.SCAN || FdfSettings.SCAN_MAX_CONCURRENT_QUERIES <= 0) {
+            return new Permit(null);
+        }
+        Semaphore permits = getScanPermits();
+        try {
+            if(!permits.tryAcquire(FdfSettings.ADMISSION_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                throw new FdfOverloadedException(tenantId, "waited more then " + FdfSettings.ADMISSION_WAIT_MS
+                        + "ms for a scan to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FdfOverloadedException(tenantId, "was interrupted waiting for a scan to finish");
+        }
+        return new Permit(permits);
+    }
+
+    public int getFetchSize(SqlStatement.Lane lane) {
+        return lane == SqlStatement.Lane.SCAN ? FdfSettings.SCAN_FETCH_SIZE : FdfSettings.POINT_FETCH_SIZE;
+    }
+
+    public int getQueryTimeoutSeconds(SqlStatement.Lane lane) {
+        return lane == SqlStatement.Lane.SCAN ? FdfSettings.SCAN_QUERY_TIMEOUT_SECONDS
+                : FdfSettings.POINT_QUERY_TIMEOUT_SECONDS;
+    }
+
+    public ExecutorService getExecutor(SqlStatement.Lane lane) {
+        if(lane == SqlStatement.Lane.SCAN) {
+            if(scanExecutor == null) {
+                synchronized(this) {
+                    if(scanExecutor == null) {
+                        scanExecutor = newExecutor("fdf-scan-lane", FdfSettings.SCAN_LANE_THREADS);
+                    }
+                }
+            }
+            return scanExecutor;
+        }
+        if(pointExecutor == null) {
+            synchronized(this) {
+                if(pointExecutor == null) {
+                    pointExecutor = newExecutor("fdf-point-lane", FdfSettings.POINT_LANE_THREADS);
+                }
+            }
+        }
+        return pointExecutor;
+    }
+
+    private Semaphore getScanPermits() {
+        if(scanPermits == null) {
+            synchronized(this) {
+                if(scanPermits == null) {
+                    scanPermits = new Semaphore(FdfSettings.SCAN_MAX_CONCURRENT_QUERIES, true);
+                }
+            }
+        }
+        return scanPermits;
+    }
+
+    private static ExecutorService newExecutor(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(threads, 1), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A turn to run one statement, give it back by closing it.
+     */
+    public static class Permit implements AutoCloseable {
+        private Semaphore permits;
+
+        private Permit(Semaphore permits) {
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() {
+            if(permits != null) {
+                permits.release();
+                permits = null;
+            }
+        }
+    }
+}
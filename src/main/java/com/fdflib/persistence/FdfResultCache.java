@@ -0,0 +1,198 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.util.FdfSettings;
+import com.fdflib.util.FdfUtil;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of select results in front of persistence, turned on by FdfSettings.RESULT_CACHE_MAX_ENTRIES.  Results are
+ * keyed by model class and the sql the statement renders (values are rendered into the sql, so it covers them too),
+ * the least recently used result is evicted when the cache is full.
+ *
+ * Every model class has a version that is bumped by each write to its table through FdfPersistence, a result is only
+ * returned while the version it was read at is still current and it is younger than RESULT_CACHE_TTL_SECONDS.
+ * Results of statements marked with SqlStatement.asOf for a date in the past that only hold closed states are kept
+ * whatever the version, closed history does not change.  Only a bulk load, which can add history, or a tenant move
+ * drops them.
+ *
+ * Only results read from the primary are cached.  When FdfSettings.DB_READ_REPLICA_HOSTS is set, results read from a
+ * replica are not (they can lag behind the version they would be cached at), only those of threads holding a
+ * FdfReadRouter.PrimaryPin or inside their read-your-writes window are.
+ *
+ * Cached states are copied in and out, callers can change the states they get back.
+ */
+public class FdfResultCache {
+    private static final FdfResultCache INSTANCE = new FdfResultCache();
+
+    private final Map<Class, AtomicLong> versions = new ConcurrentHashMap<>();
+    // in access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<CacheKey, CachedResult> results =
+            new LinkedHashMap<CacheKey, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedResult> eldest) {
+            return size() > FdfSettings.RESULT_CACHE_MAX_ENTRIES;
+        }
+    };
+
+    private static class CacheKey {
+        final Class c;
+        final String sql;
+
+        CacheKey(Class c, String sql) {
+            this.c = c;
+            this.sql = sql;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return c == other.c && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(c, sql);
+        }
+    }
+
+    private static class CachedResult {
+        final List<?> states;
+        final long version;
+        final boolean closed;
+        final long cached;
+
+        CachedResult(List<?> states, long version, boolean closed) {
+            this.states = states;
+            this.version = version;
+            this.closed = closed;
+            this.cached = System.currentTimeMillis();
+        }
+    }
+
+    FdfResultCache() {
+    }
+
+    public static FdfResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return FdfSettings.RESULT_CACHE_MAX_ENTRIES != null && FdfSettings.RESULT_CACHE_MAX_ENTRIES > 0;
+    }
+
+    /**
+     * Version of the table of the model class, read it before running a statement and pass it to put.
+     */
+    public long getVersion(Class c) {
+        return versions.computeIfAbsent(c, v -> new AtomicLong()).get();
+    }
+
+    /**
+     * Returns a copy of the cached result of the statement, null if there is none that is still valid.
+     */
+    public <S extends CommonState> List<S> get(Class c, SqlStatement sqlStatement) {
+        CacheKey key = new CacheKey(c, getSql(sqlStatement));
+        CachedResult cached;
+        synchronized (results) {
+            cached = results.get(key);
+            if (cached != null && !cached.closed && (cached.version != getVersion(c)
+                    || System.currentTimeMillis() - cached.cached > FdfSettings.RESULT_CACHE_TTL_SECONDS * 1000L)) {
+                results.remove(key);
+                cached = null;
+            }
+        }
+        return cached == null ? null : copy(c, cached.states);
+    }
+
+    /**
+     * Caches a copy of the result of the statement, read while the table was at the version passed.
+     */
+    public <S extends CommonState> void put(Class c, SqlStatement sqlStatement, long version, List<S> states) {
+        boolean closed = sqlStatement.getAsOf() != null
+                && sqlStatement.getAsOf().getTime() < System.currentTimeMillis()
+                && states.stream().allMatch(state -> state.ared != null && !state.cf);
+        if (version != getVersion(c)) {
+            // written while the statement ran
+            return;
+        }
+        CachedResult cached = new CachedResult(copy(c, states), version, closed);
+        synchronized (results) {
+            results.put(new CacheKey(c, getSql(sqlStatement)), cached);
+        }
+    }
+
+    /**
+     * The table of the model class was written, its cached results are no longer returned (except closed as-of
+     * results).
+     */
+    public void invalidate(Class c) {
+        versions.computeIfAbsent(c, v -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * History of the model class was rewritten, drops every cached result of the class.
+     */
+    public void invalidateHistory(Class c) {
+        invalidate(c);
+        synchronized (results) {
+            Iterator<CacheKey> keys = results.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().c == c) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (AtomicLong version : versions.values()) {
+            version.incrementAndGet();
+        }
+        synchronized (results) {
+            results.clear();
+        }
+    }
+
+    private static String getSql(SqlStatement sqlStatement) {
+        return sqlStatement.getSelect() + " " + sqlStatement.getScope() + sqlStatement.getWhere()
+                + sqlStatement.getGroupBy() + sqlStatement.getOrderBy() + sqlStatement.getLimit();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S> List<S> copy(Class c, List<?> states) {
+        List<S> copies = new ArrayList<>(states.size());
+        for (Object state : states) {
+            copies.add((S) FdfUtil.copyState(c, state));
+        }
+        return copies;
+    }
+}
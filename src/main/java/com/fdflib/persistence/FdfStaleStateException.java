@@ -0,0 +1,48 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.persistence;
+
+/**
+ * Thrown when a save expected a different current state then the one in persistence, another writer saved the
+ * entity first.  Reload the entity and apply the change again.
+ */
+public class FdfStaleStateException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Class entityState;
+    private final long id;
+    private final long expectedRid;
+
+    public FdfStaleStateException(Class entityState, long id, long expectedRid) {
+        super(entityState.getSimpleName() + " id " + id + " no longer has current state rid " + expectedRid);
+        this.entityState = entityState;
+        this.id = id;
+        this.expectedRid = expectedRid;
+    }
+
+    public Class getEntityState() {
+        return entityState;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getExpectedRid() {
+        return expectedRid;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.connection;
+
+import com.fdflib.util.FdfSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides where reads go when FdfSettings.DB_READ_REPLICA_HOSTS is set.  Writes always use the primary (DB_HOST),
+ * reads are spread round robin over the replicas.  Reads stay on the primary:
+ *
+ *  - while the thread holds a PrimaryPin, used by saves that read the current state before replacing it
+ *  - for READ_YOUR_WRITES_MS after the thread's last write, so a thread reads back what it just saved even if the
+ *    replicas lag behind
+ *  - when no replica can be reached, a replica that failed is skipped for DB_REPLICA_RETRY_SECONDS
+ *
+ * Only PostgreSQL reads are routed (PostgreSqlConnection.getReadSession), MySQL and HSQL always read from DB_HOST.
+ */
+public class FdfReadRouter {
+    private static final FdfReadRouter INSTANCE = new FdfReadRouter();
+    static Logger fdfLog = LoggerFactory.getLogger(FdfReadRouter.class);
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>();
+    private final ThreadLocal<Long> lastWrite = new ThreadLocal<>();
+    private final ThreadLocal<int[]> pins = ThreadLocal.withInitial(() -> new int[1]);
+
+    private FdfReadRouter() {
+    }
+
+    public static FdfReadRouter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Keeps reads of the calling thread on the primary until the pin is closed, pins can be nested.
+     *
+     *     try(FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) { ... }
+     *
+     * @return pin to close when the primary is no longer needed
+     */
+    public PrimaryPin pinToPrimary() {
+        pins.get()[0]++;
+        return new PrimaryPin();
+    }
+
+    /**
+     * Records that the calling thread has written to the primary, starts the read-your-writes window.
+     */
+    public void recordWrite() {
+        if(FdfSettings.READ_YOUR_WRITES_MS > 0 && hasReplicas()) {
+            lastWrite.set(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Whether reads of the calling thread go to the primary right now: no replica is configured, the thread holds a
+     * PrimaryPin or it is inside its read-your-writes window.  Replicas that are down are not taken into account.
+     *
+     * @return true if the thread reads from the primary
+     */
+    public boolean readsFromPrimary() {
+        if(!hasReplicas() || pins.get()[0] > 0) {
+            return true;
+        }
+        Long written = lastWrite.get();
+        if(written != null) {
+            if(System.currentTimeMillis() - written < FdfSettings.READ_YOUR_WRITES_MS) {
+                return true;
+            }
+            lastWrite.remove();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the replica host the next read should use, or null when it should go to the primary.
+     *
+     * @return replica host or null for the primary
+     */
+    public String getReadHost() {
+        if(!hasReplicas() || pins.get()[0] > 0) {
+            return null;
+        }
+        Long written = lastWrite.get();
+        if(written != null) {
+            if(System.currentTimeMillis() - written < FdfSettings.READ_YOUR_WRITES_MS) {
+                return null;
+            }
+            lastWrite.remove();
+        }
+
+        List<String> replicas = FdfSettings.DB_READ_REPLICA_HOSTS;
+        long now = System.currentTimeMillis();
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+        for(int i = 0; i < replicas.size(); i++) {
+            String host = replicas.get((start + i) % replicas.size());
+            Long until = downUntil.get(host);
+            if(until == null || until <= now) {
+                return host;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes a replica out of rotation for DB_REPLICA_RETRY_SECONDS after a failed connection.
+     *
+     * @param host replica that could not be reached
+     */
+    public void markDown(String host) {
+        fdfLog.warn("Read replica {} is unavailable, reading from the primary", host);
+        downUntil.put(host, System.currentTimeMillis() + FdfSettings.DB_REPLICA_RETRY_SECONDS * 1000L);
+    }
+
+    private boolean hasReplicas() {
+        return FdfSettings.DB_READ_REPLICA_HOSTS != null && !FdfSettings.DB_READ_REPLICA_HOSTS.isEmpty();
+    }
+
+    public class PrimaryPin implements AutoCloseable {
+        private boolean closed = false;
+
+        private PrimaryPin() {
+        }
+
+        @Override
+        public void close() {
+            if(!closed) {
+                closed = true;
+                pins.get()[0]--;
+            }
+        }
+    }
+}
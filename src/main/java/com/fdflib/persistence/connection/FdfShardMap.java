@@ -0,0 +1,131 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.connection;
+
+import com.fdflib.persistence.FdfPersistence;
+import com.fdflib.util.FdfSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps tenants to the shard (database) they are stored in when FdfSettings.DB_SHARDS is set.  Tenants without an
+ * assignment, and the default tenant that holds the tenant and system records, are on the default shard (DB_HOST).
+ * Assignments are read from the shard map table on the default shard and cached for SHARD_MAP_CACHE_SECONDS.
+ *
+ * The persistence layer routes a query by the tenant in its tid clause and a write by the tid of the state.  Queries
+ * that are not limited to one tenant only see the default shard, callers that need every tenant read them one at a
+ * time (see FdfCommonServices.auditAllModelsByUser and getRowCount) or refuse to run (auditByUser without a tenant,
+ * ChangeStream without forTenant).
+ */
+public class FdfShardMap {
+    private static final FdfShardMap INSTANCE = new FdfShardMap();
+
+    public static final String DEFAULT_SHARD = "default";
+    // Number of rids in the range of each shard
+    public static final long RID_RANGE = 1L << 48;
+
+    private final Map<Long, CachedShard> cache = new ConcurrentHashMap<>();
+
+    private static class CachedShard {
+        final String shard;
+        final long loaded;
+
+        CachedShard(String shard) {
+            this.shard = shard;
+            this.loaded = System.currentTimeMillis();
+        }
+    }
+
+    private FdfShardMap() {
+    }
+
+    public static FdfShardMap getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isSharded() {
+        return FdfSettings.DB_SHARDS != null && !FdfSettings.DB_SHARDS.isEmpty();
+    }
+
+    /**
+     * Returns the shard the tenant is stored in.
+     *
+     * @param tenantId id of the tenant, -1 when unknown
+     * @return shard name, DEFAULT_SHARD for DB_HOST
+     */
+    public String getShard(long tenantId) {
+        if(!isSharded() || tenantId <= 1) {
+            return DEFAULT_SHARD;
+        }
+        CachedShard cached = cache.get(tenantId);
+        if(cached == null || System.currentTimeMillis() - cached.loaded > FdfSettings.SHARD_MAP_CACHE_SECONDS * 1000L) {
+            String shard = FdfPersistence.getInstance().getTenantShard(tenantId);
+            cached = new CachedShard(shard != null && FdfSettings.DB_SHARDS.containsKey(shard) ? shard : DEFAULT_SHARD);
+            cache.put(tenantId, cached);
+        }
+        return cached.shard;
+    }
+
+    /**
+     * Returns the host of the shard passed.
+     *
+     * @param shard shard name
+     * @return host of the shard, DB_HOST for the default shard
+     */
+    public String getHost(String shard) {
+        if(DEFAULT_SHARD.equals(shard) || !isSharded() || !FdfSettings.DB_SHARDS.containsKey(shard)) {
+            return FdfSettings.DB_HOST;
+        }
+        return FdfSettings.DB_SHARDS.get(shard);
+    }
+
+    /**
+     * @return every shard, starting with the default shard
+     */
+    public List<String> getShards() {
+        List<String> shards = new ArrayList<>();
+        shards.add(DEFAULT_SHARD);
+        if(isSharded()) {
+            shards.addAll(FdfSettings.DB_SHARDS.keySet());
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the rid before the first one of the shard's range.  A model table created on a shard draws its rids
+     * from that shard's range, so states keep their rid when their tenant moves to another shard.  The range follows
+     * the position of the shard in getShards, add new shards at the end of DB_SHARDS and do not reorder them.
+     *
+     * @param shard shard name
+     * @return start of the range, 0 for the default shard
+     */
+    public long getRidRangeStart(String shard) {
+        return Math.max(0, getShards().indexOf(shard)) * RID_RANGE;
+    }
+
+    /**
+     * Drops the cached shard of a tenant, the next lookup reads the shard map again.
+     *
+     * @param tenantId id of the tenant
+     */
+    public void invalidate(long tenantId) {
+        cache.remove(tenantId);
+    }
+}
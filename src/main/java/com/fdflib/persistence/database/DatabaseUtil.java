@@ -31,4 +31,29 @@ public class DatabaseUtil {
     public enum DatabaseEncoding {
         UTF8
     }
+
+    /**
+     * How the states of a model class are laid out in the database.  SINGLE_TABLE keeps every state in one table,
+     * PARTITIONED (PostgreSQL only) keeps current states in a small partition and closed history in partitions by
+     * end date (ared), SPLIT_TABLES keeps current states in a <table>_current table and moves superseded states to a
+     * <table>_history table, with a <table> view over both.
+     */
+    public enum HistoryStorage {
+        SINGLE_TABLE, PARTITIONED, SPLIT_TABLES
+    }
+
+    public enum PartitionInterval {
+        MONTHLY, YEARLY
+    }
+
+    public enum AdmissionOverflow {
+        WAIT, REJECT
+    }
+
+    /**
+     * Format of a table export, CSV with a header row or the PostgreSQL binary COPY format.
+     */
+    public enum ExportFormat {
+        CSV, BINARY
+    }
 }
@@ -16,6 +16,8 @@
 
 package com.fdflib.persistence.database;
 
+import com.fdflib.persistence.connection.FdfReadRouter;
+import com.fdflib.persistence.connection.FdfShardMap;
 import com.fdflib.util.FdfSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,6 +69,79 @@ public class PostgreSqlConnection {
         return null;
     }
 
+    /**
+     * Connection to the primary of the shard the tenant is stored in (see FdfShardMap), the same as getSession when
+     * shards are not used.
+     *
+     * @param tenantId id of the tenant the statement is for, -1 when not limited to one tenant
+     * @return connection to run a write on
+     * @throws SQLException if no connection could be made
+     */
+    public Connection getTenantSession(long tenantId) throws SQLException  {
+        return getShardSession(FdfShardMap.getInstance().getShard(tenantId));
+    }
+
+    /**
+     * Connection to the database of the shard passed.
+     *
+     * @param shard shard name, FdfShardMap.DEFAULT_SHARD for DB_HOST
+     * @return connection to the shard
+     * @throws SQLException if no connection could be made
+     */
+    public Connection getShardSession(String shard) throws SQLException  {
+        if(FdfShardMap.DEFAULT_SHARD.equals(shard)) {
+            return getSession();
+        }
+        fdfLog.debug("Establishing postgresql connection to shard {}", shard);
+        return connect(FdfShardMap.getInstance().getHost(shard));
+    }
+
+    /**
+     * Connection for a read of the tenant passed.  On the default shard reads go to one of the read replicas when
+     * they are configured (see FdfReadRouter), tenants on other shards are read from their shard.  Read replicas are
+     * PostgreSQL only, the MySQL and HSQL query classes read through their getSession, always from DB_HOST.
+     *
+     * @param tenantId id of the tenant the statement is for, -1 when not limited to one tenant
+     * @return connection to run a read on
+     * @throws SQLException if no connection could be made
+     */
+    public Connection getReadSession(long tenantId) throws SQLException  {
+        String shard = FdfShardMap.getInstance().getShard(tenantId);
+        if(!FdfShardMap.DEFAULT_SHARD.equals(shard)) {
+            return getShardSession(shard);
+        }
+
+        String replica = FdfReadRouter.getInstance().getReadHost();
+        if(replica == null) {
+            return getSession();
+        }
+
+        fdfLog.debug("Establishing postgresql connection to read replica {}", replica);
+        Connection connection = connect(replica);
+        if(connection == null) {
+            FdfReadRouter.getInstance().markDown(replica);
+            return getSession();
+        }
+        return connection;
+    }
+
+    private Connection connect(String host) {
+        try {
+            Class.forName("org.postgresql.Driver");
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            return DriverManager.getConnection(FdfSettings.returnDBConnectionString(host), FdfSettings.DB_USER
+                    , FdfSettings.DB_PASSWORD);
+
+        } catch (SQLException e) {
+            fdfLog.warn("SQL Error on {}: {}\nDescription: {}", host, e.getErrorCode(), e.getMessage());
+        }
+        return null;
+    }
+
     public Connection getNoDBSession() throws SQLException  {
         fdfLog.debug("Establishing postgresql connection with root credentials");
         try {
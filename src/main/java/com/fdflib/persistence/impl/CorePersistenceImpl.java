@@ -17,10 +17,16 @@
 package com.fdflib.persistence.impl;
 
 import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.FdfTimeSeries;
 import com.fdflib.model.util.SqlStatement;
+import com.fdflib.persistence.database.DatabaseUtil;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.SQLException;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by brian.gormanly on 5/29/15.
@@ -31,9 +37,23 @@ public interface CorePersistenceImpl {
     void checkDatabase() throws SQLException;
     void checkTables() throws SQLException;
     void checkFields() throws SQLException;
+    void checkSchema() throws SQLException;
+    String getSchemaFingerprint();
+    void setSchemaFingerprint(String fingerprint);
     void checkDefaultEntries() throws SQLException;
+    void checkPartitions() throws SQLException;
+    String getTenantShard(long tenantId);
+    void moveTenant(long tenantId, String shard) throws SQLException;
 
     <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement);
+    Map<String, Number> aggregateQuery(Class c, SqlStatement sqlStatement);
+    FdfTimeSeries timeSeriesQuery(Class c, SqlStatement sqlStatement, FdfTimeSeries.Bucket bucket, Date startDate,
+                                  Date endDate);
+    long export(Class c, SqlStatement sqlStatement, DatabaseUtil.ExportFormat format, OutputStream out)
+            throws SQLException, IOException;
     <S> Long insert(Class<S> entityState, S state);
+    <S> Long insertAndClose(Class<S> entityState, S closingState, S newState);
+    <S> List<Long> insertAndCloseBatch(Class<S> entityState, List<S> closingStates, List<S> newStates);
     <S> void update(Class<S> c, S state);
+    <S> long bulkLoad(Class<S> entityState, List<S> states) throws SQLException;
 }
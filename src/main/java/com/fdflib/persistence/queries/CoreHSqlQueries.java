@@ -1 +1 @@
-/** * 4DFLib * Copyright (c) 2015-2016 Brian Gormanly * 4dflib.com * * 4DFLib is free software; you can redistribute it and/or modify it under * the terms of the GNU Lesser General Public License as published by the Free * Software Foundation; either version 3 of the License, or (at your option) * any later version. * * This library is distributed in the hope that it will be useful, but WITHOUT * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more * details. */package com.fdflib.persistence.queries;import com.fdflib.annotation.FdfIgnore;import com.fdflib.model.state.CommonState;import com.fdflib.model.state.FdfSystem;import com.fdflib.model.state.FdfTenant;import com.fdflib.model.util.SqlStatement;import com.fdflib.model.util.WhereClause;import com.fdflib.persistence.database.HSqlConnection;import com.fdflib.persistence.impl.CorePersistenceImpl;import com.fdflib.service.FdfSystemServices;import com.fdflib.service.FdfTenantServices;import com.fdflib.service.impl.FdfCommonServices;import com.fdflib.util.FdfSettings;import com.fdflib.util.FdfUtil;import org.slf4j.LoggerFactory;import java.io.*;import java.lang.reflect.Field;import java.lang.reflect.ParameterizedType;import java.math.BigDecimal;import java.sql.*;import java.util.*;import java.util.Date;/** * Created by brian.gormanly on 5/19/15. */public class CoreHSqlQueries implements CorePersistenceImpl {    private static final CoreHSqlQueries INSTANCE = new CoreHSqlQueries();    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CoreHSqlQueries.class);    private CoreHSqlQueries() {}    public static CoreHSqlQueries getInstance() {        return INSTANCE;    }    public void checkDatabase() throws SQLException {        // create database    }    public void checkTables() throws SQLException {        // get the 4df data model        List<Class> classList = FdfSettings.getInstance().modelClasses;        // create the tables for the model objects        for(Class c: classList) {            // check to see if the class has an @fdfIgonre            if(!c.isAnnotationPresent(FdfIgnore.class)) {                // determine the number of fields                int numberOfFields = 0;                for (Field field : c.getFields()) {                    // check to see if the class has an @fdfIgonre                    if (!field.isAnnotationPresent(FdfIgnore.class)) {                        numberOfFields++;                    }                }                // check to see if the table already exists                String tableTest = "Select COUNT(*) as \"Count\" From INFORMATION_SCHEMA.SYSTEM_TABLES "                        + "Where TABLE_NAME = '" + c.getSimpleName() + "';";                Connection conn = null;                Statement stmt = null;                ResultSet rs = null;                try {                    conn = HSqlConnection.getInstance().getSession();                    stmt = conn.createStatement();                    if (stmt != null) {                        fdfLog.debug("Executing SQL: {}", tableTest);                        rs = stmt.executeQuery(tableTest);                    }                    if (rs != null) {                            // Table does not exist, create                            fdfLog.info("creating table: {}", c.getSimpleName());                            // check there there is at lease one field                            if (c.getFields().length > 0) {                                String sql = "CREATE TABLE IF NOT EXISTS " + c.getSimpleName() + " ( ";                                int fieldCounter = 0;                                for (Field field : c.getFields()) {                                    // check to see if the class has an @fdfIgonre                                    if(!field.isAnnotationPresent(FdfIgnore.class)) {                                        sql += getFieldNameAndDataType(field);                                        fieldCounter++;                                        if (numberOfFields > fieldCounter) sql += ", ";                                    }                                }                                sql += ");";                                fdfLog.debug("Table sql {} : {}", c.getSimpleName(), sql);                                if (stmt != null) {                                    stmt.executeUpdate(sql);                                }                            } else {                                fdfLog.info("No table created for model object {} class had no valid data members", c.getSimpleName());                            }                    }                } catch (SQLException sqlException) {                    // some other error                    fdfLog.warn("Error occurred checking or creating a table:::");                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),                            sqlException.getMessage());                } catch (Exception ex) {                    ex.printStackTrace();                } finally {                    if (rs != null) {                        rs.close();                    }                    if (stmt != null) {                        stmt.close();                    }                    if (conn != null) {                        HSqlConnection.getInstance().close(conn);                    }                }            }        }    }    public void checkFields() throws SQLException {        // get the 4df data model        List<Class> classList = FdfSettings.getInstance().modelClasses;        // create the tables for the model objects        for(Class c : classList) {            // determine the number of fields            int numberOfFields = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if (!field.isAnnotationPresent(FdfIgnore.class)) {                    numberOfFields++;                }            }            if(numberOfFields > 0) {                // check to see if the class has an @fdfIgonre                if(!c.isAnnotationPresent(FdfIgnore.class)) {                    Connection conn = null;                    Statement stmt = null;                    ResultSet rs = null;                    try {                        conn = HSqlConnection.getInstance().getSession();                        stmt = conn.createStatement();                        for (Field field : c.getFields()) {                            // check to see if the class has an @fdfIgonre                            if(!field.isAnnotationPresent(FdfIgnore.class)) {                                // query for the field in the database                                // check to see if the table already exists                                String fieldTest = "Select COUNT(*) as \"Count\" From INFORMATION_SCHEMA.SYSTEM_COLUMNS"                                        + " Where TABLE_NAME = '" + c.getSimpleName() + "' and COLUMN_NAME = '"                                        + field.getName() + "';";                                if(stmt != null) {                                    rs = stmt.executeQuery(fieldTest);                                    if (rs != null && !rs.next()) {                                        // the field did not exist,                                        fdfLog.info("creating field: {} in table: {}", field.getName(), c.getSimpleName());                                        String alterSql = "alter table " + c.getSimpleName() + " add column "                                                + getFieldNameAndDataType(field) + ";";                                        fdfLog.debug("Add field sql {} : {}", c.getSimpleName(), alterSql);                                        stmt.executeUpdate(alterSql);                                    }                                }                            }                        }                    } catch (SQLException sqlException) {                        // some other error                        fdfLog.warn("Error occurred checking or creating a field:::");                        fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +                                        ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),                                sqlException.getMessage());                    } catch (Exception ex) {                        ex.printStackTrace();                    } finally {                        if (rs != null) {                            rs.close();                        }                        if (stmt != null) {                            stmt.close();                        }                        if (conn != null) {                            HSqlConnection.getInstance().close(conn);                        }                    }                }            }        }    }    public void checkDefaultEntries() throws SQLException {        // check to see if the default entry exists for FdfSystem        FdfSystemServices ss = new FdfSystemServices();        FdfSystem defaultSystem = ss.getDefaultSystem();        if(defaultSystem == null) {            // create the default FdfSystem entry            FdfSystem newDefaultSystem = new FdfSystem();            newDefaultSystem.name = FdfSettings.DEFAULT_SYSTEM_NAME;            newDefaultSystem.description = FdfSettings.DEFAULT_SYSTEM_DESCRIPTION;            newDefaultSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.DEFAULT_SYSTEM_PASSWORD);            newDefaultSystem.euid = 0;            newDefaultSystem.esid = 0;            FdfCommonServices.save(FdfSystem.class, newDefaultSystem);            fdfLog.info("Created default system.");        }        // check to see if the test system entry exists        FdfSystem testSystem = ss.getTestSystem();        if(testSystem == null) {            // create the default FdfSystem entry            FdfSystem newTestSystem = new FdfSystem();            newTestSystem.name = FdfSettings.TEST_SYSTEM_NAME;            newTestSystem.description = FdfSettings.TEST_SYSTEM_DESCRIPTION;            newTestSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.TEST_SYSTEM_PASSWORD);            newTestSystem.euid = 0;            newTestSystem.esid = 0;            FdfCommonServices.save(FdfSystem.class, newTestSystem);            fdfLog.info("Created test system.");        }        // check to see if the default Tenant entry exists        FdfTenantServices ts = new FdfTenantServices();        FdfTenant defaultTenant = ts.getDefaultTenant();        if(defaultTenant == null) {            // create the default FdfTenant            FdfTenant defaultTenantState = new FdfTenant();            defaultSystem = ss.getDefaultSystem();            defaultTenantState.name = FdfSettings.DEFAULT_TENANT_NAME;            defaultTenantState.description = FdfSettings.DEFAULT_TENANT_DESRIPTION;            defaultTenantState.isPrimary = FdfSettings.DEFAULT_TENANT_IS_PRIMARY;            defaultTenantState.webURL = FdfSettings.DEFAULT_TENANT_WEBSITE;            defaultTenantState.euid = 1;            defaultTenantState.esid = defaultSystem.id;            ts.saveTenant(defaultTenantState);            fdfLog.info("Created default tenant.");        }    }    public <S> void update(Class<S> c, S state) {        // check to see if the class has an @fdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            // determine the number of fields            int numberOfFields = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if (!field.isAnnotationPresent(FdfIgnore.class)) {                    numberOfFields++;                }            }            // Start the sql statement            String sql = "update " + c.getSimpleName() + " set";            int fieldCounter = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if(!field.isAnnotationPresent(FdfIgnore.class)) {                    fieldCounter++;                    if (!field.getName().equals("rid")) {                        sql += " " + field.getName() + " = ?";                        if (numberOfFields > fieldCounter) sql += ",";                    }                }            }            Connection conn = null;            PreparedStatement preparedStmt = null;            ResultSet rs = null;            try {                sql += " where rid = " + c.getField("rid").get(state) + " ;";                conn = HSqlConnection.getInstance().getSession();                preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);                int fieldCounter3 = 1;                for (Field field : c.getFields()) {                    // check to see if the class has an @fdfIgonre                    if(!field.isAnnotationPresent(FdfIgnore.class)) {                        try {                            if (field.getType() == String.class) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() == int.class || field.getType() == Integer.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setInt(fieldCounter3, (int) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.INTEGER);                                    }                                }                            } else if (field.getType() == Long.class || field.getType() == long.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setLong(fieldCounter3, (long) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.BIGINT);                                    }                                }                            } else if (field.getType() == Double.class || field.getType() == double.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setDouble(fieldCounter3, (double) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.DOUBLE);                                    }                                }                            } else if (field.getType() == Float.class || field.getType() == float.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setFloat(fieldCounter3, (float) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.FLOAT);                                    }                                }                            }                            else if (field.getType() == BigDecimal.class) {                                if (!field.getName().toLowerCase().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.NUMERIC);                                    }                                }                            }                            else if (field.getType() == boolean.class || field.getType() == Boolean.class) {                                if (field.get(state) != null) {                                    preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BOOLEAN);                                }                            } else if (field.getType() == char.class || field.getType() == Character.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString().substring(0, 1));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.CHAR);                                }                            } else if (field.getType() == Date.class) {                                if (field.get(state) != null) {                                Date insertDate = (Date) field.get(state);                                    if (insertDate == null) {                                        preparedStmt.setTimestamp(fieldCounter3, null);                                    } else {                                        preparedStmt.setTimestamp(fieldCounter3, new Timestamp(insertDate.getTime()));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.TIMESTAMP);                                }                            } else if (field.getType() == UUID.class) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (Class.class.isAssignableFrom(field.getType())) {                                if(field.get(state) != null) {                                    String className = field.get(state).toString();                                    preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));                                }                                else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {                                ParameterizedType pt = (ParameterizedType) field.getGenericType();                                if (pt.getActualTypeArguments().length == 1                                        && (pt.getActualTypeArguments()[0].toString().contains("Long")                                        || pt.getActualTypeArguments()[0].toString().contains("long")                                        || pt.getActualTypeArguments()[0].toString().contains("Integer")                                        || pt.getActualTypeArguments()[0].toString().contains("int")                                        || pt.getActualTypeArguments()[0].toString().contains("Double")                                        || pt.getActualTypeArguments()[0].toString().contains("double")                                        || pt.getActualTypeArguments()[0].toString().contains("Float")                                        || pt.getActualTypeArguments()[0].toString().contains("float")                                        || pt.getActualTypeArguments()[0].toString().contains("boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("Boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("String"))) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    // try to serialize the object                                    if (field.get(state) != null) {                                        ByteArrayOutputStream baos = new ByteArrayOutputStream();                                        ObjectOutputStream oos = null;                                        try {                                            oos = new ObjectOutputStream(baos);                                            oos.writeObject(field.get(state));                                            oos.close();                                            preparedStmt.setString(fieldCounter3,                                                    Base64.getEncoder().encodeToString(baos.toByteArray()));                                        } catch (IOException e) {                                            e.printStackTrace();                                        }                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.BLOB);                                    }                                }                            } else {                                // try to serialize the object                                if (field.get(state) != null) {                                    ByteArrayOutputStream baos = new ByteArrayOutputStream();                                    ObjectOutputStream oos = null;                                    try {                                        oos = new ObjectOutputStream(baos);                                        oos.writeObject(field.get(state));                                        oos.close();                                        preparedStmt.setString(fieldCounter3,                                                Base64.getEncoder().encodeToString(baos.toByteArray()));                                    } catch (IOException e) {                                        e.printStackTrace();                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BLOB);                                }                            }                            if (!field.getName().equals("rid")) fieldCounter3++;                        } catch (IllegalAccessException e) {                            e.printStackTrace();                        }                    }                }                fdfLog.debug("update sql : {}", preparedStmt);                preparedStmt.execute();            } catch (SQLException e) {                e.printStackTrace();            } catch (IllegalAccessException e) {                e.printStackTrace();            } catch (NoSuchFieldException e) {                e.printStackTrace();            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (preparedStmt != null) {                    try {                        preparedStmt.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }    }    public <S> Long insert(Class<S> c, S state) {        // spot to hold returned id for new record        long newId = -1L;        // determine the number of fields        int numberOfFields = 0;        for (Field field : c.getFields()) {            // check to see if the class has an @fdfIgonre            if (!field.isAnnotationPresent(FdfIgnore.class)) {                numberOfFields++;            }        }        // check to see if the class has an @fdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            // Start the sql statement            String sql = "insert into " + c.getSimpleName() + " (";            int fieldCounter = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if(!field.isAnnotationPresent(FdfIgnore.class)) {                    fieldCounter++;                    if (!field.getName().equals("rid")) {                        sql += " " + field.getName();                        if (numberOfFields > fieldCounter) sql += ",";                    }                }            }            sql += " ) values (";            //insert the correct number of question marks for the prepared statement            int fieldCounter2 = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if(!field.isAnnotationPresent(FdfIgnore.class)) {                    fieldCounter2++;                    if (!field.getName().equals("rid")) {                        sql += " ?";                        if (numberOfFields > fieldCounter2) sql += ",";                    }                }            }            sql += ");";            Connection conn = null;            PreparedStatement preparedStmt = null;            ResultSet rs = null;            try {                conn = HSqlConnection.getInstance().getSession();                preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);                int fieldCounter3 = 1;                for (Field field : c.getFields()) {                    // check to see if the class has an @fdfIgonre                    if(!field.isAnnotationPresent(FdfIgnore.class)) {                        try {                            if (field.getType() == String.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() == int.class || field.getType() == Integer.class) {                                if (field.get(state) != null) {                                    if (!field.getName().equals("rid")) {                                        preparedStmt.setInt(fieldCounter3, (int) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.INTEGER);                                }                            } else if (field.getType() == Long.class || field.getType() == long.class) {                                if (field.get(state) != null) {                                    if (!field.getName().equals("rid")) {                                        preparedStmt.setLong(fieldCounter3, (long) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BIGINT);                                }                            } else if (field.getType() == Double.class || field.getType() == double.class) {                                if (field.get(state) != null) {                                    if (!field.getName().equals("rid")) {                                        preparedStmt.setDouble(fieldCounter3, (double) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.DOUBLE);                                }                            } else if (field.getType() == Float.class || field.getType() == float.class) {                                if (field.get(state) != null) {                                    if (!field.getName().equals("rid")) {                                        preparedStmt.setFloat(fieldCounter3, (float) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.FLOAT);                                }                            }                            else if (field.getType() == BigDecimal.class) {                                if (field.get(state) != null) {                                    if (!field.getName().toLowerCase().equals("rid")) {                                        preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.NUMERIC);                                }                            }                            else if (field.getType() == boolean.class || field.getType() == Boolean.class) {                                if (field.get(state) != null) {                                    preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BOOLEAN);                                }                            } else if (field.getType() == char.class || field.getType() == Character.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString().substring(0, 1));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.CHAR);                                }                            } else if (field.getType() == UUID.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() == Date.class) {                                Date insertDate = (Date) field.get(state);                                if (insertDate == null) {                                    preparedStmt.setTimestamp(fieldCounter3, null);                                } else {                                    preparedStmt.setTimestamp(fieldCounter3, new Timestamp(insertDate.getTime()));                                }                            } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (Class.class.isAssignableFrom(field.getType())) {                                if (field.get(state) != null) {                                    String className = field.get(state).toString();                                    preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {                                ParameterizedType pt = (ParameterizedType) field.getGenericType();                                if (pt.getActualTypeArguments().length == 1                                        && (pt.getActualTypeArguments()[0].toString().contains("Long")                                        || pt.getActualTypeArguments()[0].toString().contains("long")                                        || pt.getActualTypeArguments()[0].toString().contains("Integer")                                        || pt.getActualTypeArguments()[0].toString().contains("int")                                        || pt.getActualTypeArguments()[0].toString().contains("Double")                                        || pt.getActualTypeArguments()[0].toString().contains("double")                                        || pt.getActualTypeArguments()[0].toString().contains("Float")                                        || pt.getActualTypeArguments()[0].toString().contains("float")                                        || pt.getActualTypeArguments()[0].toString().contains("boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("Boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("String"))) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    // try to serialize the object                                    if (field.get(state) != null) {                                        ByteArrayOutputStream baos = new ByteArrayOutputStream();                                        ObjectOutputStream oos = null;                                        try {                                            oos = new ObjectOutputStream(baos);                                            oos.writeObject(field.get(state));                                            oos.close();                                            preparedStmt.setString(fieldCounter3,                                                    Base64.getEncoder().encodeToString(baos.toByteArray()));                                        } catch (IOException e) {                                            e.printStackTrace();                                        }                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.BLOB);                                    }                                }                            } else {                                // try to serialize the object                                if (field.get(state) != null) {                                    ByteArrayOutputStream baos = new ByteArrayOutputStream();                                    ObjectOutputStream oos = null;                                    try {                                        oos = new ObjectOutputStream(baos);                                        oos.writeObject(field.get(state));                                        oos.close();                                        preparedStmt.setString(fieldCounter3,                                                Base64.getEncoder().encodeToString(baos.toByteArray()));                                    } catch (IOException e) {                                        e.printStackTrace();                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BLOB);                                }                            }                            if (!field.getName().equals("rid")) fieldCounter3++;                        } catch (IllegalAccessException e) {                            e.printStackTrace();                        }                    }                }                fdfLog.debug("insert sql : {}", preparedStmt);                preparedStmt.execute();                rs = preparedStmt.getGeneratedKeys();                rs.next();                newId = rs.getLong(1);            } catch (SQLException e) {                e.printStackTrace();            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (preparedStmt != null) {                    try {                        preparedStmt.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }        return newId;    }    /**     * General select Query to retrieve all information for passed entity, can be used to return specified     * data from any table.  It looks to the class for datatype information and matches each table field returned     * to the EntityState object by name.  If specific select statements are made they only the corresponding object     * members will return with data.  If the select parameter is null, all memebers will be returned.     *     * Table to query is determined by passing in the corresponding model class. (ex. MyObjectModel.class)     * Where clauses are passed as an List of Where objects which contain the key (or name), the value to check     * against, and the type of Conditional (applied between clauses if there is more then one, AND is the default).     *     * Example sql statement that would be generated for the following class: User.class     * and where: {[firstName, Larry], [lastName, Smith, AND]} would be:     *      SELECT * FROM User where firstName = 'Larry' AND lastName = 'Smith';     *     * @param c Class of entity to select from     * @param sqlStatement Class that contains all the necessary fields to build the sql statement     * @param <S> Type extending CommonState to query and return     * @return data queried     */    public <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement) {        List<S> everything = new ArrayList<>();        //Check if class is @FdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            //Start the sql statement            String sql = sqlStatement.getSelect() + " FROM " + FdfSettings.DB_NAME + "." + c.getSimpleName()                    + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()                    + sqlStatement.getLimit() + ";";            fdfLog.debug("select sql: {}", sql);            Connection conn = null;            PreparedStatement ps = null;            ResultSet rs = null;            try {                conn = HSqlConnection.getInstance().getSession();                ps = conn.prepareStatement(sql);                if (ps != null) {                    rs = ps.executeQuery();                    while (rs.next()) {                        // create a new object of type passed                        Object thisObject = c.newInstance();                        for (Field field : c.getFields()) {                            // check the datatype of the field to apply the correct method to                            // retrieve the data on the resultset                            // check to see if the class has an @fdfIgonre                            if(!field.isAnnotationPresent(FdfIgnore.class)) {                                try {                                    if (field.getType() == String.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getString(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getInt(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == long.class || field.getType() == Long.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getLong(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == double.class || field.getType() == Double.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getDouble(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == float.class || field.getType() == Float.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getFloat(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getInt(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                    else if (field.getType() == BigDecimal.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBigDecimal(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                    else if (field.getType() == char.class || field.getType() == Character.class) {                                        try {                                            field.setAccessible(true);                                            if (field.getName() != null && rs.getString(field.getName()) != null && rs.getString(field.getName()).length() > 0) {                                                field.set(thisObject, rs.getString(field.getName()).charAt(0));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == Date.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getTimestamp(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        } catch (NullPointerException npe) {                                            // Nullpointer in timestap                                            fdfLog.debug("NullPointer on timestamp column {}, This is usually because select"                                                    + "statement did not include column", field.getName(), npe.getMessage());                                        }                                    } else if (field.getType() == UUID.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, UUID.fromString(rs.getString(field.getName())));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == boolean.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBoolean(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == Boolean.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBoolean(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        try {                                            field.setAccessible(true);                                            field.set(thisObject, Enum.valueOf((Class<Enum>) field.getType(),                                                    rs.getString(field.getName())));                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (Class.class.isAssignableFrom(field.getType())                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        try {                                            field.setAccessible(true);                                            field.set(thisObject,                                                    FdfUtil.getClassByFullyQualifiedName(rs.getString(field.getName())));                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getGenericType() instanceof ParameterizedType                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        ParameterizedType pt = (ParameterizedType) field.getGenericType();                                        if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Long")                                                        || pt.getActualTypeArguments()[0].toString().contains("long"))) {                                            List<Long> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Long.parseLong(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Integer")                                                        || pt.getActualTypeArguments()[0].toString().contains("int"))) {                                            List<Integer> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Integer.parseInt(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Float")                                                        || pt.getActualTypeArguments()[0].toString().contains("float"))) {                                            List<Float> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Float.parseFloat(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Double")                                                        || pt.getActualTypeArguments()[0].toString().contains("double"))) {                                            List<Double> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        }                                        else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("BigDecimal"))) {                                            List<Double> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        }                                        else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Boolean")                                                        || pt.getActualTypeArguments()[0].toString().contains("boolean"))) {                                            List<Boolean> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Boolean.parseBoolean(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                pt.getActualTypeArguments()[0].toString().contains("String")) {                                            List<String> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(str.replaceAll("\\s", ""));                                            }                                            field.set(thisObject, list);                                        } else {                                            // serialized object, deserialize                                            try {                                                field.setAccessible(true);                                                byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));                                                ObjectInputStream ois = new ObjectInputStream(                                                        new ByteArrayInputStream(data));                                                Object o = ois.readObject();                                                ois.close();                                                field.set(thisObject, o);                                            } catch (SQLException e) {                                                if (e.getSQLState().equals("S1000")) {                                                    // Invalid column name, thrown if select statement does not include column                                                    fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                            + "{}, This is usually because select statement did not include column and "                                                            + "can be ignored. Message is {}", field.getName(), e.getMessage());                                                } else {                                                    fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                            ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                                }                                            }                                        }                                    } else if (field.getName() != null && rs.getString(field.getName()) != null) {                                        // serialized object, deserialize                                        try {                                            field.setAccessible(true);                                            byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));                                            ObjectInputStream ois = new ObjectInputStream(                                                    new ByteArrayInputStream(data));                                            Object o = ois.readObject();                                            ois.close();                                            field.set(thisObject, o);                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                } catch (SQLException e) {                                    if (e.getSQLState().equals("S1000")) {                                        // Invalid column name, thrown if select statement does not include column                                        fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                + "{}, This is usually because select statement did not include column and "                                                + "can be ignored. Message is {}", field.getName(), e.getMessage());                                    } else {                                        fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                    }                                }                            }                        }                        S thisUserStateTest = (S) thisObject;                        everything.add(thisUserStateTest);                    }                }            } catch (SQLException e) {                e.printStackTrace();            } catch (Exception ex) {                ex.printStackTrace();            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (ps != null) {                    try {                        ps.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }        return everything;    }    static String getFieldNameAndDataType(Field field) {        String sql = "";        fdfLog.debug("checking field: {} of type: {} ", field.getName(), field.getType());        if (field.getType() == String.class) {            sql += field.getName() + " TEXT";        } else if (field.getType() == int.class || field.getType() == Integer.class) {            sql += field.getName() + " INT";        } else if (field.getType() == Long.class || field.getType() == long.class) {            sql += field.getName() + " BIGINT";            if (field.getName().equals("rid")) {                sql += " IDENTITY PRIMARY KEY";            }        } else if (field.getType() == Double.class || field.getType() == double.class) {            sql += field.getName() + " DOUBLE";        } else if (field.getType() == Float.class || field.getType() == float.class) {            sql += field.getName() + " FLOAT";        }        else if (field.getType() == BigDecimal.class) {            sql += field.getName() + " NUMERIC(10,4)";        } else if (field.getType() == boolean.class || field.getType() == Boolean.class) {            sql += field.getName() + " BOOLEAN";        } else if (field.getType() == Date.class) {            sql += field.getName() + " TIMESTAMP";            if (field.getName().equals("arsd")) {                sql += " DEFAULT CURRENT_TIMESTAMP";            } else {                sql += " NULL";            }        } else if (field.getType() == UUID.class) {            sql += field.getName() + " VARCHAR(132)";        } else if (field.getType() == Character.class || field.getType() == char.class) {            sql += field.getName() + " CHAR";        } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {            sql += field.getName() + " VARCHAR(200)";        } else if (Class.class.isAssignableFrom(field.getType())) {            sql += field.getName() + " VARCHAR(200)";        }        else if (field.getGenericType() instanceof ParameterizedType) {            ParameterizedType pt = (ParameterizedType) field.getGenericType();            if(pt.getActualTypeArguments().length == 1                    && (pt.getActualTypeArguments()[0].toString().contains("Long")                    || pt.getActualTypeArguments()[0].toString().contains("long")                    || pt.getActualTypeArguments()[0].toString().contains("Integer")                    || pt.getActualTypeArguments()[0].toString().contains("int")                    || pt.getActualTypeArguments()[0].toString().contains("Double")                    || pt.getActualTypeArguments()[0].toString().contains("double")                    || pt.getActualTypeArguments()[0].toString().contains("Float")                    || pt.getActualTypeArguments()[0].toString().contains("float")                    || pt.getActualTypeArguments()[0].toString().contains("boolean")                    || pt.getActualTypeArguments()[0].toString().contains("Boolean")                    || pt.getActualTypeArguments()[0].toString().contains("String"))) {                sql += field.getName() + " TEXT";            }            else {                // unknown create text fields to serialize                fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());                sql += field.getName() + " BLOB";            }        }        else {            // unknown create text fields to serialize            fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());            sql += field.getName() + " BLOB";        }        return sql;    }    static String parseWhere(List<WhereClause> where) {        // If where clauses were passed, add them to the sql statement        String sql = "";        if(where != null && where.size() > 0) {            sql += " where";            for(WhereClause clause : where) {                // if there is more then one clause, check the conditional type.                if(where.indexOf(clause) != 0 && (where.indexOf(clause) +1) <= where.size()) {                    if(clause.conditional == WhereClause.CONDITIONALS.AND) {                        sql += " AND";                    }                    else if (clause.conditional == WhereClause.CONDITIONALS.OR) {                        sql += " OR";                    }                    else if (clause.conditional == WhereClause.CONDITIONALS.NOT) {                        sql += " NOT";                    }                }                // check to see if there are any open parenthesis to apply                if(clause.groupings != null && clause.groupings.size() > 0) {                    for(WhereClause.GROUPINGS grouping: clause.groupings) {                        if(grouping == WhereClause.GROUPINGS.OPEN_PARENTHESIS) {                            sql += " (";                        }                    }                }                // add the clause formatting the sql for the correct datatype                if(clause.operator != WhereClause.Operators.UNARY) {                    if (clause.value == WhereClause.NULL) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " " + clause.value + "";                    } else if (clause.valueDataType == String.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else if (clause.valueDataType == int.class || clause.valueDataType == Integer.class ||                            clause.valueDataType == long.class || clause.valueDataType == Long.class ||                            clause.valueDataType == double.class || clause.valueDataType == Double.class ||                            clause.valueDataType == float.class || clause.valueDataType == Float.class ||                            clause.valueDataType == BigDecimal.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " " + clause.value;                    } else if (clause.valueDataType == boolean.class || clause.valueDataType == Boolean.class) {                        if (clause.value.toLowerCase().equals("true")) {                            sql += " " + clause.name + " " + clause.getOperatorString() + " true";                        } else if (clause.value.toLowerCase().equals("false")) {                            sql += " " + clause.name + " " + clause.getOperatorString() + " false";                        }                    } else if (clause.valueDataType == Date.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else if (clause.valueDataType == UUID.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    }                }                // check to see if there are any closing parenthesis to apply                if(clause.groupings != null && clause.groupings.size() > 0) {                    for(WhereClause.GROUPINGS grouping: clause.groupings) {                        if(grouping == WhereClause.GROUPINGS.CLOSE_PARENTHESIS) {                            sql += " )";                        }                    }                }            }        }        return sql;    }}
\ No newline at end of file
+/** * 4DFLib * Copyright (c) 2015-2016 Brian Gormanly * 4dflib.com * * 4DFLib is free software; you can redistribute it and/or modify it under * the terms of the GNU Lesser General Public License as published by the Free * Software Foundation; either version 3 of the License, or (at your option) * any later version. * * This library is distributed in the hope that it will be useful, but WITHOUT * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more * details. */package com.fdflib.persistence.queries;import com.fdflib.annotation.FdfIgnore;import com.fdflib.model.state.CommonState;import com.fdflib.model.state.FdfSystem;import com.fdflib.model.state.FdfTenant;import com.fdflib.model.util.FdfTimeSeries;import com.fdflib.model.util.SqlStatement;import com.fdflib.model.util.WhereClause;import com.fdflib.persistence.database.DatabaseUtil;import com.fdflib.persistence.database.HSqlConnection;import com.fdflib.persistence.FdfStaleStateException;import com.fdflib.persistence.connection.FdfShardMap;import com.fdflib.persistence.impl.CorePersistenceImpl;import com.fdflib.service.FdfSystemServices;import com.fdflib.service.FdfTenantServices;import com.fdflib.service.impl.FdfCommonServices;import com.fdflib.util.FdfSettings;import com.fdflib.util.FdfUtil;import org.slf4j.LoggerFactory;import java.io.*;import java.lang.reflect.Field;import java.lang.reflect.ParameterizedType;import java.math.BigDecimal;import java.sql.*;import java.util.*;import java.util.Date;/** * Created by brian.gormanly on 5/19/15. */public class CoreHSqlQueries implements CorePersistenceImpl {    private static final CoreHSqlQueries INSTANCE = new CoreHSqlQueries();    static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CoreHSqlQueries.class);    private CoreHSqlQueries() {}    public static CoreHSqlQueries getInstance() {        return INSTANCE;    }    public void checkDatabase() throws SQLException {        // create database    }    public void checkTables() throws SQLException {        checkSchema();    }    public void checkFields() throws SQLException {        checkSchema();    }    /**     * Verifies the database schema against the 4df data model.  The table and column metadata of the database is     * read with a single query and compared in memory with the model classes, then every missing table and column is     * created on one connection.  HSQL commits every DDL statement on its own, so unlike PostgreSQL the     * changes made before a failing statement stay in place; they are found and skipped by the next verification.     *     * @throws SQLException     */    public void checkSchema() throws SQLException {        // the tables are always created as a single table with current and history together        if(FdfSettings.HISTORY_STORAGE != DatabaseUtil.HistoryStorage.SINGLE_TABLE) {            throw new UnsupportedOperationException("HISTORY_STORAGE " + FdfSettings.HISTORY_STORAGE                    + " is only supported on PostgreSQL, not on HSQL");        }        // every query and write goes to DB_HOST, tenants on other shards would silently be missed        if(FdfShardMap.getInstance().isSharded()) {            throw new UnsupportedOperationException("DB_SHARDS is only supported on PostgreSQL, not on HSQL");        }        // get the 4df data model        List<Class> classList = FdfSettings.getInstance().modelClasses;        Connection conn = null;        Statement stmt = null;        ResultSet rs = null;        try {            conn = HSqlConnection.getInstance().getSession();            stmt = conn.createStatement();            // every table of the database with its columns            Map<String, Set<String>> schema = new HashMap<>();            rs = stmt.executeQuery("select TABLE_NAME, COLUMN_NAME from INFORMATION_SCHEMA.COLUMNS "                    + "where TABLE_SCHEMA = CURRENT_SCHEMA;");            while (rs.next()) {                schema.computeIfAbsent(rs.getString(1).toLowerCase(), table -> new HashSet<>())                        .add(rs.getString(2).toLowerCase());            }            rs.close();            rs = null;            List<String> ddl = new ArrayList<>();            for (Class c : classList) {                // check to see if the class has an @fdfIgonre                if (c.isAnnotationPresent(FdfIgnore.class)) {                    continue;                }                List<Field> fields = new ArrayList<>();                for (Field field : c.getFields()) {                    if (!field.isAnnotationPresent(FdfIgnore.class)) {                        fields.add(field);                    }                }                if (fields.isEmpty()) {                    fdfLog.info("No table created for model object {} class had no valid data members", c.getSimpleName());                    continue;                }                Set<String> columns = schema.get(c.getSimpleName().toLowerCase());                if (columns == null) {                    // Table does not exist, create                    fdfLog.info("creating table: {}", c.getSimpleName());                    List<String> fieldSql = new ArrayList<>();                    for (Field field : fields) {                        fieldSql.add(getFieldNameAndDataType(field));                    }                    ddl.add("CREATE TABLE IF NOT EXISTS " + c.getSimpleName() + " ( "                            + String.join(", ", fieldSql) + ");");                } else {                    for (Field field : fields) {                        if (!columns.contains(field.getName().toLowerCase())) {                            // the field did not exist,                            fdfLog.info("creating field: {} in table: {}", field.getName(), c.getSimpleName());                            ddl.add("alter table " + c.getSimpleName() + " add column "                                    + getFieldNameAndDataType(field) + ";");                        }                    }                }            }            for (String sql : ddl) {                fdfLog.debug("Schema sql: {}", sql);                stmt.executeUpdate(sql);            }        } catch (SQLException sqlException) {            // some other error            fdfLog.warn("Error occurred checking or updating the schema:::");            fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +                            ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),                    sqlException.getMessage());            // the schema was not verified, let the caller know (no fingerprint is stored)            throw sqlException;        } finally {            if (rs != null) {                rs.close();            }            if (stmt != null) {                stmt.close();            }            if (conn != null) {                HSqlConnection.getInstance().close(conn);            }        }    }    /**     * Fingerprint of the data model the schema was last verified for, see FdfUtil.getModelFingerprint.     *     * @return stored fingerprint, null if there is none (or the metadata table does not exist yet)     */    public String getSchemaFingerprint() {        String fingerprint = null;        Connection conn = null;        Statement stmt = null;        ResultSet rs = null;        try {            conn = HSqlConnection.getInstance().getSession();            stmt = conn.createStatement();            rs = stmt.executeQuery("SELECT fingerprint FROM " + CorePostgreSqlQueries.SCHEMA_TABLE + " WHERE id = 1;");            if (rs.next()) {                fingerprint = rs.getString(1);            }        } catch (SQLException e) {            // first start against this database, or it does not exist yet            fdfLog.debug("No schema fingerprint available: {}", e.getMessage());        } finally {            closeQuietly(rs, stmt, conn);        }        return fingerprint;    }    /**     * Stores the fingerprint of the data model the schema was just verified for.     *     * @param fingerprint model fingerprint     */    public void setSchemaFingerprint(String fingerprint) {        Connection conn = null;        PreparedStatement ps = null;        try {            conn = HSqlConnection.getInstance().getSession();            try (Statement stmt = conn.createStatement()) {                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + CorePostgreSqlQueries.SCHEMA_TABLE                        + " (id INT PRIMARY KEY, fingerprint VARCHAR(64), verified TIMESTAMP);");            }            ps = conn.prepareStatement("MERGE INTO " + CorePostgreSqlQueries.SCHEMA_TABLE + " USING (VALUES (1, "                    + "CAST(? AS VARCHAR(64)))) AS vals (id, fingerprint) ON " + CorePostgreSqlQueries.SCHEMA_TABLE                    + ".id = vals.id WHEN MATCHED THEN UPDATE SET fingerprint = vals.fingerprint, verified = "                    + "CURRENT_TIMESTAMP WHEN NOT MATCHED THEN INSERT VALUES (vals.id, vals.fingerprint, "                    + "CURRENT_TIMESTAMP);");            ps.setString(1, fingerprint);            ps.executeUpdate();        } catch (SQLException e) {            fdfLog.warn("Could not store schema fingerprint: {}", e.getMessage());        } finally {            closeQuietly(null, ps, conn);        }    }    private static void closeQuietly(ResultSet rs, Statement stmt, Connection conn) {        if (rs != null) {            try {                rs.close();            } catch (SQLException e) {                e.printStackTrace();            }        }        if (stmt != null) {            try {                stmt.close();            } catch (SQLException e) {                e.printStackTrace();            }        }        if (conn != null) {            try {                HSqlConnection.getInstance().close(conn);            } catch (SQLException e) {                e.printStackTrace();            }        }    }    /**     * Tenant shards are only implemented for PostgreSQL, every tenant is stored on DB_HOST.     *     * @param tenantId id of the tenant     * @return null, no tenant has a shard assignment     */    public String getTenantShard(long tenantId) {        return null;    }    /**     * Tenant shards are only implemented for PostgreSQL.     *     * @throws UnsupportedOperationException always     */    public void moveTenant(long tenantId, String shard) throws SQLException {        throw new UnsupportedOperationException("Tenant shards are only supported on PostgreSQL, not on HSQL");    }    /**     * History partitioning is only implemented for PostgreSQL, the tables are always created as a single table.     *     * @throws UnsupportedOperationException when HISTORY_STORAGE is PARTITIONED     */    public void checkPartitions() throws SQLException {        if(FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.PARTITIONED) {            throw new UnsupportedOperationException("HISTORY_STORAGE PARTITIONED is only supported on PostgreSQL, not "                    + "on HSQL");        }    }    public void checkDefaultEntries() throws SQLException {        // check to see if the default entry exists for FdfSystem        FdfSystemServices ss = new FdfSystemServices();        FdfSystem defaultSystem = ss.getDefaultSystem();        if(defaultSystem == null) {            // create the default FdfSystem entry            FdfSystem newDefaultSystem = new FdfSystem();            newDefaultSystem.name = FdfSettings.DEFAULT_SYSTEM_NAME;            newDefaultSystem.description = FdfSettings.DEFAULT_SYSTEM_DESCRIPTION;            newDefaultSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.DEFAULT_SYSTEM_PASSWORD);            newDefaultSystem.euid = 0;            newDefaultSystem.esid = 0;            FdfCommonServices.save(FdfSystem.class, newDefaultSystem);            fdfLog.info("Created default system.");        }        // check to see if the test system entry exists        FdfSystem testSystem = ss.getTestSystem();        if(testSystem == null) {            // create the default FdfSystem entry            FdfSystem newTestSystem = new FdfSystem();            newTestSystem.name = FdfSettings.TEST_SYSTEM_NAME;            newTestSystem.description = FdfSettings.TEST_SYSTEM_DESCRIPTION;            newTestSystem.sha256EncodedPassword = ss.hashPassword(FdfSettings.TEST_SYSTEM_PASSWORD);            newTestSystem.euid = 0;            newTestSystem.esid = 0;            FdfCommonServices.save(FdfSystem.class, newTestSystem);            fdfLog.info("Created test system.");        }        // check to see if the default Tenant entry exists        FdfTenantServices ts = new FdfTenantServices();        FdfTenant defaultTenant = ts.getDefaultTenant();        if(defaultTenant == null) {            // create the default FdfTenant            FdfTenant defaultTenantState = new FdfTenant();            defaultSystem = ss.getDefaultSystem();            defaultTenantState.name = FdfSettings.DEFAULT_TENANT_NAME;            defaultTenantState.description = FdfSettings.DEFAULT_TENANT_DESRIPTION;            defaultTenantState.isPrimary = FdfSettings.DEFAULT_TENANT_IS_PRIMARY;            defaultTenantState.webURL = FdfSettings.DEFAULT_TENANT_WEBSITE;            defaultTenantState.euid = 1;            defaultTenantState.esid = defaultSystem.id;            ts.saveTenant(defaultTenantState);            fdfLog.info("Created default tenant.");        }    }    public <S> void update(Class<S> c, S state) {        // check to see if the class has an @fdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            // determine the number of fields            int numberOfFields = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if (!field.isAnnotationPresent(FdfIgnore.class)) {                    numberOfFields++;                }            }            // Start the sql statement            String sql = "update " + c.getSimpleName() + " set";            int fieldCounter = 0;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if(!field.isAnnotationPresent(FdfIgnore.class)) {                    fieldCounter++;                    if (!field.getName().equals("rid")) {                        sql += " " + field.getName() + " = ?";                        if (numberOfFields > fieldCounter) sql += ",";                    }                }            }            Connection conn = null;            PreparedStatement preparedStmt = null;            ResultSet rs = null;            try {                sql += " where rid = " + c.getField("rid").get(state) + " ;";                conn = HSqlConnection.getInstance().getSession();                preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);                int fieldCounter3 = 1;                for (Field field : c.getFields()) {                    // check to see if the class has an @fdfIgonre                    if(!field.isAnnotationPresent(FdfIgnore.class)) {                        try {                            if (field.getType() == String.class) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() == int.class || field.getType() == Integer.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setInt(fieldCounter3, (int) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.INTEGER);                                    }                                }                            } else if (field.getType() == Long.class || field.getType() == long.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setLong(fieldCounter3, (long) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.BIGINT);                                    }                                }                            } else if (field.getType() == Double.class || field.getType() == double.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setDouble(fieldCounter3, (double) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.DOUBLE);                                    }                                }                            } else if (field.getType() == Float.class || field.getType() == float.class) {                                if (!field.getName().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setFloat(fieldCounter3, (float) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.FLOAT);                                    }                                }                            }                            else if (field.getType() == BigDecimal.class) {                                if (!field.getName().toLowerCase().equals("rid")) {                                    if (field.get(state) != null) {                                        preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.NUMERIC);                                    }                                }                            }                            else if (field.getType() == boolean.class || field.getType() == Boolean.class) {                                if (field.get(state) != null) {                                    preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BOOLEAN);                                }                            } else if (field.getType() == char.class || field.getType() == Character.class) {                                if (field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString().substring(0, 1));                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.CHAR);                                }                            } else if (field.getType() == Date.class) {                                if (field.get(state) != null) {                                Date insertDate = (Date) field.get(state);                                    if (insertDate == null) {                                        preparedStmt.setTimestamp(fieldCounter3, null);                                    } else {                                        preparedStmt.setTimestamp(fieldCounter3, new Timestamp(insertDate.getTime()));                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.TIMESTAMP);                                }                            } else if (field.getType() == UUID.class) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {                                if(field.get(state) != null) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (Class.class.isAssignableFrom(field.getType())) {                                if(field.get(state) != null) {                                    String className = field.get(state).toString();                                    preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));                                }                                else {                                    preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                                }                            } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {                                ParameterizedType pt = (ParameterizedType) field.getGenericType();                                if (pt.getActualTypeArguments().length == 1                                        && (pt.getActualTypeArguments()[0].toString().contains("Long")                                        || pt.getActualTypeArguments()[0].toString().contains("long")                                        || pt.getActualTypeArguments()[0].toString().contains("Integer")                                        || pt.getActualTypeArguments()[0].toString().contains("int")                                        || pt.getActualTypeArguments()[0].toString().contains("Double")                                        || pt.getActualTypeArguments()[0].toString().contains("double")                                        || pt.getActualTypeArguments()[0].toString().contains("Float")                                        || pt.getActualTypeArguments()[0].toString().contains("float")                                        || pt.getActualTypeArguments()[0].toString().contains("boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("Boolean")                                        || pt.getActualTypeArguments()[0].toString().contains("String"))) {                                    preparedStmt.setString(fieldCounter3, field.get(state).toString());                                } else {                                    // try to serialize the object                                    if (field.get(state) != null) {                                        ByteArrayOutputStream baos = new ByteArrayOutputStream();                                        ObjectOutputStream oos = null;                                        try {                                            oos = new ObjectOutputStream(baos);                                            oos.writeObject(field.get(state));                                            oos.close();                                            preparedStmt.setString(fieldCounter3,                                                    Base64.getEncoder().encodeToString(baos.toByteArray()));                                        } catch (IOException e) {                                            e.printStackTrace();                                        }                                    } else {                                        preparedStmt.setNull(fieldCounter3, Types.BLOB);                                    }                                }                            } else {                                // try to serialize the object                                if (field.get(state) != null) {                                    ByteArrayOutputStream baos = new ByteArrayOutputStream();                                    ObjectOutputStream oos = null;                                    try {                                        oos = new ObjectOutputStream(baos);                                        oos.writeObject(field.get(state));                                        oos.close();                                        preparedStmt.setString(fieldCounter3,                                                Base64.getEncoder().encodeToString(baos.toByteArray()));                                    } catch (IOException e) {                                        e.printStackTrace();                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BLOB);                                }                            }                            if (!field.getName().equals("rid")) fieldCounter3++;                        } catch (IllegalAccessException e) {                            e.printStackTrace();                        }                    }                }                fdfLog.debug("update sql : {}", preparedStmt);                preparedStmt.execute();            } catch (SQLException e) {                e.printStackTrace();            } catch (IllegalAccessException e) {                e.printStackTrace();            } catch (NoSuchFieldException e) {                e.printStackTrace();            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (preparedStmt != null) {                    try {                        preparedStmt.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }    }    /**     * Closes the previous current state of an entity and inserts its new current state in a single transaction, so     * the entity is never seen without a current state or with two of them.  Only HISTORY_STORAGE SINGLE_TABLE is     * supported, FdfDeltaHistory classes are closed in full.     *     * The previous state is only closed if it is still current, if another writer closed it first the transaction is     * rolled back and FdfStaleStateException is thrown.     *     * @param c Class of the entity     * @param closingState previous current state, already marked closed (cf false and ared set), null for a new entity     * @param newState new current state     * @param <S> Type of the entity state     * @return rid of the inserted state, -1 if the transaction was rolled back     * @throws FdfStaleStateException if the closing state was no longer current     */    public <S> Long insertAndClose(Class<S> c, S closingState, S newState) {        List<Long> newIds = insertAndCloseBatch(c, Collections.singletonList(closingState),                Collections.singletonList(newState));        return newIds.isEmpty() ? -1L : newIds.get(0);    }    /**     * Batch version of insertAndClose, every pair of closing and new state is written in one transaction (group     * commit).  The lists are matched by index, a null closing state is a new entity.     *     * @param c Class of the entities     * @param closingStates previous current states, already marked closed, null entries for new entities     * @param newStates new current states     * @param <S> Type of the entity state     * @return rids of the inserted states in the order passed, empty if the transaction was rolled back     * @throws FdfStaleStateException if one of the closing states was no longer current, nothing is written     */    public <S> List<Long> insertAndCloseBatch(Class<S> c, List<S> closingStates, List<S> newStates) {        List<Long> newIds = new ArrayList<>();        // check to see if the class has an @fdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            Connection conn = null;            try {                conn = HSqlConnection.getInstance().getSession();                conn.setAutoCommit(false);                for (int s = 0; s < newStates.size(); s++) {                    newIds.add(closeAndInsert(conn, c, closingStates.get(s), newStates.get(s)));                }                conn.commit();            } catch (FdfStaleStateException e) {                fdfLog.debug("Save of {} {} rolled back: {}", newStates.size(), c.getSimpleName(), e.getMessage());                try {                    conn.rollback();                } catch (SQLException rollbackException) {                    rollbackException.printStackTrace();                }                throw e;            } catch (SQLException | IllegalAccessException | NoSuchFieldException e) {                fdfLog.warn("Save of {} {} rolled back: {}", newStates.size(), c.getSimpleName(), e.getMessage());                newIds.clear();                if (conn != null) {                    try {                        conn.rollback();                    } catch (SQLException rollbackException) {                        rollbackException.printStackTrace();                    }                }            } finally {                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }        return newIds;    }    /**     * Closes the closing state if it is still current and inserts the new state on the passed connection.     *     * @return rid of the inserted state     * @throws FdfStaleStateException if the closing state was no longer current     */    private <S> long closeAndInsert(Connection conn, Class<S> c, S closingState, S newState)            throws SQLException, IllegalAccessException, NoSuchFieldException {        if (closingState != null) {            long rid = (long) c.getField("rid").get(closingState);            Date ared = (Date) c.getField("ared").get(closingState);            String sql = "update " + c.getSimpleName() + " set cf = ?, ared = ? where rid = ? and cf = ?;";            PreparedStatement preparedStmt = null;            try {                preparedStmt = conn.prepareStatement(sql);                preparedStmt.setBoolean(1, false);                preparedStmt.setTimestamp(2, new Timestamp(ared != null ? ared.getTime() : System.currentTimeMillis()));                preparedStmt.setLong(3, rid);                preparedStmt.setBoolean(4, true);                fdfLog.debug("close sql : {}", preparedStmt);                if (preparedStmt.executeUpdate() == 0) {                    // another writer closed the state first, do not end up with two current states                    throw new FdfStaleStateException(c, (long) c.getField("id").get(closingState), rid);                }            } finally {                if (preparedStmt != null) {                    preparedStmt.close();                }            }        }        return insert(conn, c, newState);    }    public <S> Long insert(Class<S> c, S state) {        // spot to hold returned id for new record        long newId = -1L;        // check to see if the class has an @fdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            Connection conn = null;            try {                conn = HSqlConnection.getInstance().getSession();                newId = insert(conn, c, state);            } catch (SQLException e) {                e.printStackTrace();            } finally {                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }        return newId;    }    /**     * Inserts the state on the passed connection and returns its rid, the connection is left open so the insert can     * be part of a transaction.     */    private <S> long insert(Connection conn, Class<S> c, S state) throws SQLException {        // spot to hold returned id for new record        long newId = -1L;        // determine the number of fields        int numberOfFields = 0;        for (Field field : c.getFields()) {            // check to see if the class has an @fdfIgonre            if (!field.isAnnotationPresent(FdfIgnore.class)) {                numberOfFields++;            }        }        // Start the sql statement        String sql = "insert into " + c.getSimpleName() + " (";        int fieldCounter = 0;        for (Field field : c.getFields()) {            // check to see if the class has an @fdfIgonre            if(!field.isAnnotationPresent(FdfIgnore.class)) {                fieldCounter++;                if (!field.getName().equals("rid")) {                    sql += " " + field.getName();                    if (numberOfFields > fieldCounter) sql += ",";                }            }        }        sql += " ) values (";        //insert the correct number of question marks for the prepared statement        int fieldCounter2 = 0;        for (Field field : c.getFields()) {            // check to see if the class has an @fdfIgonre            if(!field.isAnnotationPresent(FdfIgnore.class)) {                fieldCounter2++;                if (!field.getName().equals("rid")) {                    sql += " ?";                    if (numberOfFields > fieldCounter2) sql += ",";                }            }        }        sql += ");";        PreparedStatement preparedStmt = null;        ResultSet rs = null;        try {            preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);            int fieldCounter3 = 1;            for (Field field : c.getFields()) {                // check to see if the class has an @fdfIgonre                if(!field.isAnnotationPresent(FdfIgnore.class)) {                    try {                        if (field.getType() == String.class) {                            if (field.get(state) != null) {                                preparedStmt.setString(fieldCounter3, field.get(state).toString());                            } else {                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                            }                        } else if (field.getType() == int.class || field.getType() == Integer.class) {                            if (field.get(state) != null) {                                if (!field.getName().equals("rid")) {                                    preparedStmt.setInt(fieldCounter3, (int) field.get(state));                                }                            } else {                                preparedStmt.setNull(fieldCounter3, Types.INTEGER);                            }                        } else if (field.getType() == Long.class || field.getType() == long.class) {                            if (field.get(state) != null) {                                if (!field.getName().equals("rid")) {                                    preparedStmt.setLong(fieldCounter3, (long) field.get(state));                                }                            } else {                                preparedStmt.setNull(fieldCounter3, Types.BIGINT);                            }                        } else if (field.getType() == Double.class || field.getType() == double.class) {                            if (field.get(state) != null) {                                if (!field.getName().equals("rid")) {                                    preparedStmt.setDouble(fieldCounter3, (double) field.get(state));                                }                            } else {                                preparedStmt.setNull(fieldCounter3, Types.DOUBLE);                            }                        } else if (field.getType() == Float.class || field.getType() == float.class) {                            if (field.get(state) != null) {                                if (!field.getName().equals("rid")) {                                    preparedStmt.setFloat(fieldCounter3, (float) field.get(state));                                }                            } else {                                preparedStmt.setNull(fieldCounter3, Types.FLOAT);                            }                        }                        else if (field.getType() == BigDecimal.class) {                            if (field.get(state) != null) {                                if (!field.getName().toLowerCase().equals("rid")) {                                    preparedStmt.setBigDecimal(fieldCounter3, (BigDecimal) field.get(state));                                }                            } else {                                preparedStmt.setNull(fieldCounter3, Types.NUMERIC);                            }                        }                        else if (field.getType() == boolean.class || field.getType() == Boolean.class) {                            if (field.get(state) != null) {                                preparedStmt.setBoolean(fieldCounter3, (boolean) field.get(state));                            } else {                                preparedStmt.setNull(fieldCounter3, Types.BOOLEAN);                            }                        } else if (field.getType() == char.class || field.getType() == Character.class) {                            if (field.get(state) != null) {                                preparedStmt.setString(fieldCounter3, field.get(state).toString().substring(0, 1));                            } else {                                preparedStmt.setNull(fieldCounter3, Types.CHAR);                            }                        } else if (field.getType() == UUID.class) {                            if (field.get(state) != null) {                                preparedStmt.setString(fieldCounter3, field.get(state).toString());                            } else {                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                            }                        } else if (field.getType() == Date.class) {                            Date insertDate = (Date) field.get(state);                            if (insertDate == null) {                                preparedStmt.setTimestamp(fieldCounter3, null);                            } else {                                preparedStmt.setTimestamp(fieldCounter3, new Timestamp(insertDate.getTime()));                            }                        } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {                            if (field.get(state) != null) {                                preparedStmt.setString(fieldCounter3, field.get(state).toString());                            } else {                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                            }                        } else if (Class.class.isAssignableFrom(field.getType())) {                            if (field.get(state) != null) {                                String className = field.get(state).toString();                                preparedStmt.setString(fieldCounter3, FdfUtil.getClassName(className));                            } else {                                preparedStmt.setNull(fieldCounter3, Types.VARCHAR);                            }                        } else if (field.getGenericType() instanceof ParameterizedType && field.get(state) != null) {                            ParameterizedType pt = (ParameterizedType) field.getGenericType();                            if (pt.getActualTypeArguments().length == 1                                    && (pt.getActualTypeArguments()[0].toString().contains("Long")                                    || pt.getActualTypeArguments()[0].toString().contains("long")                                    || pt.getActualTypeArguments()[0].toString().contains("Integer")                                    || pt.getActualTypeArguments()[0].toString().contains("int")                                    || pt.getActualTypeArguments()[0].toString().contains("Double")                                    || pt.getActualTypeArguments()[0].toString().contains("double")                                    || pt.getActualTypeArguments()[0].toString().contains("Float")                                    || pt.getActualTypeArguments()[0].toString().contains("float")                                    || pt.getActualTypeArguments()[0].toString().contains("boolean")                                    || pt.getActualTypeArguments()[0].toString().contains("Boolean")                                    || pt.getActualTypeArguments()[0].toString().contains("String"))) {                                preparedStmt.setString(fieldCounter3, field.get(state).toString());                            } else {                                // try to serialize the object                                if (field.get(state) != null) {                                    ByteArrayOutputStream baos = new ByteArrayOutputStream();                                    ObjectOutputStream oos = null;                                    try {                                        oos = new ObjectOutputStream(baos);                                        oos.writeObject(field.get(state));                                        oos.close();                                        preparedStmt.setString(fieldCounter3,                                                Base64.getEncoder().encodeToString(baos.toByteArray()));                                    } catch (IOException e) {                                        e.printStackTrace();                                    }                                } else {                                    preparedStmt.setNull(fieldCounter3, Types.BLOB);                                }                            }                        } else {                            // try to serialize the object                            if (field.get(state) != null) {                                ByteArrayOutputStream baos = new ByteArrayOutputStream();                                ObjectOutputStream oos = null;                                try {                                    oos = new ObjectOutputStream(baos);                                    oos.writeObject(field.get(state));                                    oos.close();                                    preparedStmt.setString(fieldCounter3,                                            Base64.getEncoder().encodeToString(baos.toByteArray()));                                } catch (IOException e) {                                    e.printStackTrace();                                }                            } else {                                preparedStmt.setNull(fieldCounter3, Types.BLOB);                            }                        }                        if (!field.getName().equals("rid")) fieldCounter3++;                    } catch (IllegalAccessException e) {                        e.printStackTrace();                    }                }            }            fdfLog.debug("insert sql : {}", preparedStmt);            preparedStmt.execute();            rs = preparedStmt.getGeneratedKeys();            rs.next();            newId = rs.getLong(1);        } finally {            if (rs != null) {                rs.close();            }            if (preparedStmt != null) {                preparedStmt.close();            }        }        return newId;    }    /**     * General select Query to retrieve all information for passed entity, can be used to return specified     * data from any table.  It looks to the class for datatype information and matches each table field returned     * to the EntityState object by name.  If specific select statements are made they only the corresponding object     * members will return with data.  If the select parameter is null, all memebers will be returned.     *     * Table to query is determined by passing in the corresponding model class. (ex. MyObjectModel.class)     * Where clauses are passed as an List of Where objects which contain the key (or name), the value to check     * against, and the type of Conditional (applied between clauses if there is more then one, AND is the default).     *     * Example sql statement that would be generated for the following class: User.class     * and where: {[firstName, Larry], [lastName, Smith, AND]} would be:     *      SELECT * FROM User where firstName = 'Larry' AND lastName = 'Smith';     *     * @param c Class of entity to select from     * @param sqlStatement Class that contains all the necessary fields to build the sql statement     * @param <S> Type extending CommonState to query and return     * @return data queried     */    public <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement) {        List<S> everything = new ArrayList<>();        //Check if class is @FdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class)) {            //Start the sql statement            String sql = sqlStatement.getSelect() + " FROM " + FdfSettings.DB_NAME + "." + c.getSimpleName()                    + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()                    + sqlStatement.getLimit() + ";";            fdfLog.debug("select sql: {}", sql);            Connection conn = null;            PreparedStatement ps = null;            ResultSet rs = null;            try {                conn = HSqlConnection.getInstance().getSession();                ps = conn.prepareStatement(sql);                if (ps != null) {                    rs = ps.executeQuery();                    while (rs.next()) {                        // create a new object of type passed                        Object thisObject = c.newInstance();                        for (Field field : c.getFields()) {                            // check the datatype of the field to apply the correct method to                            // retrieve the data on the resultset                            // check to see if the class has an @fdfIgonre                            if(!field.isAnnotationPresent(FdfIgnore.class)) {                                try {                                    if (field.getType() == String.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getString(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getInt(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == long.class || field.getType() == Long.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getLong(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == double.class || field.getType() == Double.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getDouble(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == float.class || field.getType() == Float.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getFloat(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == int.class || field.getType() == Integer.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getInt(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                    else if (field.getType() == BigDecimal.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBigDecimal(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                    else if (field.getType() == char.class || field.getType() == Character.class) {                                        try {                                            field.setAccessible(true);                                            if (field.getName() != null && rs.getString(field.getName()) != null && rs.getString(field.getName()).length() > 0) {                                                field.set(thisObject, rs.getString(field.getName()).charAt(0));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == Date.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getTimestamp(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        } catch (NullPointerException npe) {                                            // Nullpointer in timestap                                            fdfLog.debug("NullPointer on timestamp column {}, This is usually because select"                                                    + "statement did not include column", field.getName(), npe.getMessage());                                        }                                    } else if (field.getType() == UUID.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, UUID.fromString(rs.getString(field.getName())));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == boolean.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBoolean(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() == Boolean.class) {                                        try {                                            if(field.getName() != null && rs.getString(field.getName()) != null) {                                                field.setAccessible(true);                                                field.set(thisObject, rs.getBoolean(field.getName()));                                            }                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        try {                                            field.setAccessible(true);                                            field.set(thisObject, Enum.valueOf((Class<Enum>) field.getType(),                                                    rs.getString(field.getName())));                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (Class.class.isAssignableFrom(field.getType())                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        try {                                            field.setAccessible(true);                                            field.set(thisObject,                                                    FdfUtil.getClassByFullyQualifiedName(rs.getString(field.getName())));                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    } else if (field.getGenericType() instanceof ParameterizedType                                            && field.getName() != null && rs.getString(field.getName()) != null) {                                        ParameterizedType pt = (ParameterizedType) field.getGenericType();                                        if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Long")                                                        || pt.getActualTypeArguments()[0].toString().contains("long"))) {                                            List<Long> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Long.parseLong(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Integer")                                                        || pt.getActualTypeArguments()[0].toString().contains("int"))) {                                            List<Integer> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Integer.parseInt(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Float")                                                        || pt.getActualTypeArguments()[0].toString().contains("float"))) {                                            List<Float> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Float.parseFloat(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Double")                                                        || pt.getActualTypeArguments()[0].toString().contains("double"))) {                                            List<Double> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        }                                        else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("BigDecimal"))) {                                            List<Double> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Double.parseDouble(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        }                                        else if (pt.getActualTypeArguments().length == 1 &&                                                (pt.getActualTypeArguments()[0].toString().contains("Boolean")                                                        || pt.getActualTypeArguments()[0].toString().contains("boolean"))) {                                            List<Boolean> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(Boolean.parseBoolean(str.replaceAll("\\s", "")));                                            }                                            field.set(thisObject, list);                                        } else if (pt.getActualTypeArguments().length == 1 &&                                                pt.getActualTypeArguments()[0].toString().contains("String")) {                                            List<String> list = new ArrayList<>();                                            String[] strArr = rs.getString(field.getName()).substring(1,                                                    rs.getString(field.getName()).length() - 1).split(",");                                            for (String str : strArr) {                                                list.add(str.replaceAll("\\s", ""));                                            }                                            field.set(thisObject, list);                                        } else {                                            // serialized object, deserialize                                            try {                                                field.setAccessible(true);                                                byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));                                                ObjectInputStream ois = new ObjectInputStream(                                                        new ByteArrayInputStream(data));                                                Object o = ois.readObject();                                                ois.close();                                                field.set(thisObject, o);                                            } catch (SQLException e) {                                                if (e.getSQLState().equals("S1000")) {                                                    // Invalid column name, thrown if select statement does not include column                                                    fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                            + "{}, This is usually because select statement did not include column and "                                                            + "can be ignored. Message is {}", field.getName(), e.getMessage());                                                } else {                                                    fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                            ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                                }                                            }                                        }                                    } else if (field.getName() != null && rs.getString(field.getName()) != null) {                                        // serialized object, deserialize                                        try {                                            field.setAccessible(true);                                            byte[] data = Base64.getDecoder().decode(rs.getString(field.getName()));                                            ObjectInputStream ois = new ObjectInputStream(                                                    new ByteArrayInputStream(data));                                            Object o = ois.readObject();                                            ois.close();                                            field.set(thisObject, o);                                        } catch (SQLException e) {                                            if (e.getSQLState().equals("S1000")) {                                                // Invalid column name, thrown if select statement does not include column                                                fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                        + "{}, This is usually because select statement did not include column and "                                                        + "can be ignored. Message is {}", field.getName(), e.getMessage());                                            } else {                                                fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                            }                                        }                                    }                                } catch (SQLException e) {                                    if (e.getSQLState().equals("S1000")) {                                        // Invalid column name, thrown if select statement does not include column                                        fdfLog.debug("Select statement had sql state S1000 (Invalid column name) on column"                                                + "{}, This is usually because select statement did not include column and "                                                + "can be ignored. Message is {}", field.getName(), e.getMessage());                                    } else {                                        fdfLog.warn("SQL error in Select\nCode: {},\nState: {}\nMessage" +                                                ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());                                    }                                }                            }                        }                        S thisUserStateTest = (S) thisObject;                        everything.add(thisUserStateTest);                    }                }            } catch (SQLException e) {                e.printStackTrace();            } catch (Exception ex) {                ex.printStackTrace();            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (ps != null) {                    try {                        ps.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }        return everything;    }    /**     * Aggregate Query, runs the aggregate (count, count distinct, min, max, sum or avg) described by the passed     * SqlStatement on the server and returns only the computed values, no rows are transferred or reflected into     * state objects.     *     * When the statement has groupings the returned map holds one value per group keyed by the grouped values     * (comma separated if there is more then one grouping), otherwise it holds a single value keyed by an empty     * String.  Timestamp values (ex. max(arsd)) are returned as milliseconds since the epoch.     *     * @param c Class of entity to aggregate over     * @param sqlStatement statement with an aggregate set     * @return aggregate values by group     */    public Map<String, Number> aggregateQuery(Class c, SqlStatement sqlStatement) {        Map<String, Number> aggregates = new LinkedHashMap<>();        // check to see if the class has an @fdfIgonre        if(!c.isAnnotationPresent(FdfIgnore.class) && sqlStatement.isAggregate()) {            String sql = sqlStatement.getSelect() + " FROM " + FdfSettings.DB_NAME + "." + c.getSimpleName()                    + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()                    + sqlStatement.getLimit() + ";";            fdfLog.debug("aggregate sql: {}", sql);            int groupCount = sqlStatement.getGroupByFields().size();            Connection conn = null;            PreparedStatement ps = null;            ResultSet rs = null;            try {                conn = HSqlConnection.getInstance().getSession();                ps = conn.prepareStatement(sql);                if (ps != null) {                    rs = ps.executeQuery();                    while (rs.next()) {                        // the group by values are selected first, the aggregate last                        StringBuilder group = new StringBuilder();                        for(int column = 1; column <= groupCount; column++) {                            if(column > 1) {                                group.append(",");                            }                            group.append(rs.getString(column));                        }                        Object value = rs.getObject(groupCount + 1);                        if(value instanceof Number) {                            aggregates.put(group.toString(), (Number) value);                        }                        else if(value instanceof Date) {                            aggregates.put(group.toString(), ((Date) value).getTime());                        }                        else if(value != null) {                            fdfLog.warn("Aggregate returned non numeric value {} for group {}", value, group);                        }                    }                }            } catch (SQLException e) {                fdfLog.warn("SQL error in Aggregate\nCode: {},\nState: {}\nMessage" +                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());            } finally {                if (rs != null) {                    try {                        rs.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (ps != null) {                    try {                        ps.close();                    } catch (SQLException e) {                        e.printStackTrace();                    }                }                if (conn != null) {                    try {                        HSqlConnection.getInstance().close(conn);                    } catch (SQLException e) {                        e.printStackTrace();                    }                }            }        }        return aggregates;    }    /**     * Loads states as they are.  HSQL has no bulk load statement, the states are inserted one after the other in a     * single transaction on one connection, which for an embedded database is most of the gain.  Meant for     * backfilling history, arsd, ared, cf and every other field are stored exactly as passed and no earlier state is     * closed, so the caller is responsible for the timelines being consistent (one current state per entity).     *     * @param c Class of the states     * @param states states to load     * @param <S> Type of the entity state     * @return number of rows loaded     * @throws SQLException if an insert failed, nothing is loaded     */    public <S> long bulkLoad(Class<S> c, List<S> states) throws SQLException {        if (c.isAnnotationPresent(FdfIgnore.class) || states.isEmpty()) {            return 0;        }        Connection conn = null;        try {            conn = HSqlConnection.getInstance().getSession();            conn.setAutoCommit(false);            for (S state : states) {                insert(conn, c, state);            }            conn.commit();            fdfLog.info("Bulk loaded {} states of {}", states.size(), c.getSimpleName());            return states.size();        } catch (SQLException e) {            if (conn != null) {                try {                    conn.rollback();                } catch (SQLException rollbackException) {                    rollbackException.printStackTrace();                }            }            throw e;        } finally {            closeQuietly(null, null, conn);        }    }    /**     * Streams the rows selected by the statement to the output stream as CSV with a header row.  HSQL has no COPY TO,     * the rows are read with a forward only result set and written as they arrive, without building a state for each     * one.  Filters, ordering and limit of the statement are applied by the database.     *     * @param c Class of the entity to export     * @param sqlStatement statement selecting the rows and columns to export     * @param format only CSV, BINARY is the PostgreSQL COPY format     * @param out stream to write to, it is not closed     * @return number of rows exported     * @throws SQLException if the export failed, part of the rows may have been written     * @throws IOException if writing to the stream failed     * @throws UnsupportedOperationException for the BINARY format     */    public long export(Class c, SqlStatement sqlStatement, DatabaseUtil.ExportFormat format, OutputStream out)            throws SQLException, IOException {        if (format == DatabaseUtil.ExportFormat.BINARY) {            throw new UnsupportedOperationException("BINARY export is only supported on PostgreSQL, not on HSQL");        }        if (c.isAnnotationPresent(FdfIgnore.class)) {            return 0;        }        String sql = sqlStatement.getSelect() + " FROM " + c.getSimpleName()                + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()                + sqlStatement.getLimit() + ";";        fdfLog.debug("export sql: {}", sql);        Connection conn = null;        Statement stmt = null;        ResultSet rs = null;        try {            conn = HSqlConnection.getInstance().getSession();            stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);            stmt.setFetchSize(1000);            rs = stmt.executeQuery(sql);            long exported = ResultSetCsv.write(rs, out);            fdfLog.info("Exported {} rows of {}", exported, c.getSimpleName());            return exported;        } finally {            closeQuietly(rs, stmt, conn);        }    }    /**     * Computes the aggregate of the statement per time bucket in the database.  HSQL cannot generate the buckets,     * their bounds are computed here and joined as a derived table.  Every state whose validity (arsd to ared, open     * ended while current) overlaps a bucket is joined to it, so only one row per bucket is returned.  The statement     * grows with the number of buckets, keep the range to a few thousand of them.     *     * @param c Class of the entity     * @param sqlStatement statement with the aggregate and the filters, without a scope on cf     * @param bucket size of the buckets     * @param startDate start of the first bucket     * @param endDate end of the range, the last bucket is the one starting before it     * @return the aggregate per bucket, empty if the query failed     */    public FdfTimeSeries timeSeriesQuery(Class c, SqlStatement sqlStatement, FdfTimeSeries.Bucket bucket,                                         Date startDate, Date endDate) {        if (c.isAnnotationPresent(FdfIgnore.class) || !startDate.before(endDate)) {            return new FdfTimeSeries();        }        String sql = getTimeSeriesSql(c, sqlStatement, bucket, startDate, endDate);        fdfLog.debug("time series sql: {}", sql);        long[] bucketStarts = new long[64];        double[] values = new double[64];        int size = 0;        Connection conn = null;        PreparedStatement ps = null;        ResultSet rs = null;        try {            conn = HSqlConnection.getInstance().getSession();            ps = conn.prepareStatement(sql);            rs = ps.executeQuery();            while (rs.next()) {                if (size == bucketStarts.length) {                    bucketStarts = Arrays.copyOf(bucketStarts, size * 2);                    values = Arrays.copyOf(values, size * 2);                }                bucketStarts[size] = rs.getTimestamp(1).getTime();                double value = rs.getDouble(2);                // min, max and avg of an empty bucket are null                values[size] = rs.wasNull() ? Double.NaN : value;                size++;            }        } catch (SQLException e) {            fdfLog.warn("SQL error in time series\nCode: {},\nState: {}\nMessage" +                    ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());            size = 0;        } finally {            closeQuietly(rs, ps, conn);        }        return new FdfTimeSeries(Arrays.copyOf(bucketStarts, size), Arrays.copyOf(values, size));    }    static String getTimeSeriesSql(Class c, SqlStatement sqlStatement, FdfTimeSeries.Bucket bucket, Date startDate,                                   Date endDate) {        StringBuilder buckets = new StringBuilder();        for (Date bucketStart = startDate; bucketStart.before(endDate); bucketStart = bucket.next(bucketStart)) {            buckets.append(buckets.length() == 0 ? "" : ", ")                    .append("(TIMESTAMP '").append(new Timestamp(bucketStart.getTime())).append("', ")                    .append("TIMESTAMP '").append(new Timestamp(bucket.next(bucketStart).getTime())).append("')");        }        String where = sqlStatement.getWhere();        return "SELECT fdfbuckets.fdfbucket, " + sqlStatement.getTimeSeriesAggregate() + " AS fdfaggregate"                + " FROM (VALUES " + buckets + ") AS fdfbuckets(fdfbucket, fdfbucketend)"                + " LEFT JOIN " + c.getSimpleName()                + " ON arsd < fdfbuckets.fdfbucketend AND (ared IS NULL OR ared > fdfbuckets.fdfbucket)"                + (where.isEmpty() ? "" : " AND (" + where.substring(" WHERE ".length()) + ")")                + " GROUP BY fdfbuckets.fdfbucket ORDER BY fdfbuckets.fdfbucket;";    }    static String getFieldNameAndDataType(Field field) {        String sql = "";        fdfLog.debug("checking field: {} of type: {} ", field.getName(), field.getType());        if (field.getType() == String.class) {            sql += field.getName() + " TEXT";        } else if (field.getType() == int.class || field.getType() == Integer.class) {            sql += field.getName() + " INT";        } else if (field.getType() == Long.class || field.getType() == long.class) {            sql += field.getName() + " BIGINT";            if (field.getName().equals("rid")) {                sql += " IDENTITY PRIMARY KEY";            }        } else if (field.getType() == Double.class || field.getType() == double.class) {            sql += field.getName() + " DOUBLE";        } else if (field.getType() == Float.class || field.getType() == float.class) {            sql += field.getName() + " FLOAT";        }        else if (field.getType() == BigDecimal.class) {            sql += field.getName() + " NUMERIC(10,4)";        } else if (field.getType() == boolean.class || field.getType() == Boolean.class) {            sql += field.getName() + " BOOLEAN";        } else if (field.getType() == Date.class) {            sql += field.getName() + " TIMESTAMP";            if (field.getName().equals("arsd")) {                sql += " DEFAULT CURRENT_TIMESTAMP";            } else {                sql += " NULL";            }        } else if (field.getType() == UUID.class) {            sql += field.getName() + " VARCHAR(132)";        } else if (field.getType() == Character.class || field.getType() == char.class) {            sql += field.getName() + " CHAR";        } else if (field.getType() instanceof Class && ((Class<?>) field.getType()).isEnum()) {            sql += field.getName() + " VARCHAR(200)";        } else if (Class.class.isAssignableFrom(field.getType())) {            sql += field.getName() + " VARCHAR(200)";        }        else if (field.getGenericType() instanceof ParameterizedType) {            ParameterizedType pt = (ParameterizedType) field.getGenericType();            if(pt.getActualTypeArguments().length == 1                    && (pt.getActualTypeArguments()[0].toString().contains("Long")                    || pt.getActualTypeArguments()[0].toString().contains("long")                    || pt.getActualTypeArguments()[0].toString().contains("Integer")                    || pt.getActualTypeArguments()[0].toString().contains("int")                    || pt.getActualTypeArguments()[0].toString().contains("Double")                    || pt.getActualTypeArguments()[0].toString().contains("double")                    || pt.getActualTypeArguments()[0].toString().contains("Float")                    || pt.getActualTypeArguments()[0].toString().contains("float")                    || pt.getActualTypeArguments()[0].toString().contains("boolean")                    || pt.getActualTypeArguments()[0].toString().contains("Boolean")                    || pt.getActualTypeArguments()[0].toString().contains("String"))) {                sql += field.getName() + " TEXT";            }            else {                // unknown create text fields to serialize                fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());                sql += field.getName() + " BLOB";            }        }        else {            // unknown create text fields to serialize            fdfLog.debug("Was not able to identify field: {} of type: {} ", field.getName(), field.getType());            sql += field.getName() + " BLOB";        }        return sql;    }    static String parseWhere(List<WhereClause> where) {        // If where clauses were passed, add them to the sql statement        String sql = "";        if(where != null && where.size() > 0) {            sql += " where";            for(WhereClause clause : where) {                // if there is more then one clause, check the conditional type.                if(where.indexOf(clause) != 0 && (where.indexOf(clause) +1) <= where.size()) {                    if(clause.conditional == WhereClause.CONDITIONALS.AND) {                        sql += " AND";                    }                    else if (clause.conditional == WhereClause.CONDITIONALS.OR) {                        sql += " OR";                    }                    else if (clause.conditional == WhereClause.CONDITIONALS.NOT) {                        sql += " NOT";                    }                }                // check to see if there are any open parenthesis to apply                if(clause.groupings != null && clause.groupings.size() > 0) {                    for(WhereClause.GROUPINGS grouping: clause.groupings) {                        if(grouping == WhereClause.GROUPINGS.OPEN_PARENTHESIS) {                            sql += " (";                        }                    }                }                // add the clause formatting the sql for the correct datatype                if(clause.operator != WhereClause.Operators.UNARY) {                    if (clause.value == WhereClause.NULL) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " " + clause.value + "";                    } else if (clause.valueDataType == String.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else if (clause.valueDataType == int.class || clause.valueDataType == Integer.class ||                            clause.valueDataType == long.class || clause.valueDataType == Long.class ||                            clause.valueDataType == double.class || clause.valueDataType == Double.class ||                            clause.valueDataType == float.class || clause.valueDataType == Float.class ||                            clause.valueDataType == BigDecimal.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " " + clause.value;                    } else if (clause.valueDataType == boolean.class || clause.valueDataType == Boolean.class) {                        if (clause.value.toLowerCase().equals("true")) {                            sql += " " + clause.name + " " + clause.getOperatorString() + " true";                        } else if (clause.value.toLowerCase().equals("false")) {                            sql += " " + clause.name + " " + clause.getOperatorString() + " false";                        }                    } else if (clause.valueDataType == Date.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else if (clause.valueDataType == UUID.class) {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    } else {                        sql += " " + clause.name + " " + clause.getOperatorString() + " '" + clause.value + "'";                    }                }                // check to see if there are any closing parenthesis to apply                if(clause.groupings != null && clause.groupings.size() > 0) {                    for(WhereClause.GROUPINGS grouping: clause.groupings) {                        if(grouping == WhereClause.GROUPINGS.CLOSE_PARENTHESIS) {                            sql += " )";                        }                    }                }            }        }        return sql;    }}
\ No newline at end of file
@@ -16,19 +16,29 @@
 
 package com.fdflib.persistence.queries;
 
+import com.fdflib.annotation.FdfDeltaHistory;
 import com.fdflib.annotation.FdfIgnore;
 import com.fdflib.model.state.CommonState;
 import com.fdflib.model.state.FdfSystem;
 import com.fdflib.model.state.FdfTenant;
+import com.fdflib.model.util.FdfTimeSeries;
 import com.fdflib.model.util.SqlStatement;
 import com.fdflib.model.util.WhereClause;
+import com.fdflib.persistence.FdfQueryLanes;
+import com.fdflib.persistence.FdfStaleStateException;
 import com.fdflib.persistence.connection.DbConnectionManager;
+import com.fdflib.persistence.connection.FdfReadRouter;
+import com.fdflib.persistence.connection.FdfShardMap;
+import com.fdflib.persistence.database.DatabaseUtil;
 import com.fdflib.persistence.database.PostgreSqlConnection;
 import com.fdflib.persistence.impl.CorePersistenceImpl;
 import com.fdflib.service.FdfSystemServices;
 import com.fdflib.service.FdfTenantServices;
 import com.fdflib.util.FdfSettings;
 import com.fdflib.util.FdfUtil;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
@@ -37,6 +47,7 @@ import java.lang.reflect.ParameterizedType;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.Date;
 
@@ -48,6 +59,17 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
     private static final CorePostgreSqlQueries INSTANCE = new CorePostgreSqlQueries();
     static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CorePostgreSqlQueries.class);
 
+    // column holding the unchanged fields of a state stored as a delta, see FdfDeltaHistory
+    static final String DELTA_COLUMN = "fdfdelta";
+    // table holding the fingerprint of the data model the schema was verified for
+    static final String SCHEMA_TABLE = "fdfschema";
+    // table on the default shard holding the shard of every tenant that was moved off it, see FdfShardMap
+    static final String SHARD_MAP_TABLE = "fdfshardmap";
+    // bytes of copy data buffered before they are sent to the server by bulkLoad
+    static final int COPY_BUFFER_SIZE = 64 * 1024;
+    // SQL state of a partition whose range overlaps an existing partition
+    private static final String OVERLAPPING_PARTITION = "42P17";
+
     private CorePostgreSqlQueries() {}
 
     public static CorePostgreSqlQueries getInstance() {
@@ -131,189 +153,705 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
     }
 
     public void checkTables() throws SQLException {
+        checkSchema();
+    }
+
+    public void checkFields() throws SQLException {
+        checkSchema();
+    }
+
+    /**
+     * Verifies the database schema against the 4df data model.  The table and column metadata of the whole schema is
+     * read with a single query and compared in memory with the model classes, then every missing table, column and
+     * index is created in one transaction.  Replaces checking tables and fields one information_schema query at a
+     * time.  With tenant shards every shard is verified.
+     *
+     * @throws SQLException
+     */
+    public void checkSchema() throws SQLException {
+        for (String shard : FdfShardMap.getInstance().getShards()) {
+            checkSchema(shard);
+        }
+    }
+
+    private void checkSchema(String shard) throws SQLException {
         // get the 4df data model
         List<Class> classList = FdfSettings.getInstance().modelClasses;
 
-        // build the tables for the model objects
-        for(Class c: classList) {
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        List<String> createdPartitionedTables = new ArrayList<>();
 
-            // check to see if the class has an @fdfIgonre
-            if(!c.isAnnotationPresent(FdfIgnore.class)) {
+        try {
+            conn = PostgreSqlConnection.getInstance().getShardSession(shard);
+            stmt = conn.createStatement();
 
-                // determine the number of fields
-                int numberOfFields = 0;
-                for (Field field : c.getFields()) {
+            // every table (and view) of the schema with its columns
+            Map<String, Set<String>> schema = new HashMap<>();
+            rs = stmt.executeQuery("select table_name, column_name from information_schema.columns where "
+                    + "table_catalog = '" + FdfSettings.DB_NAME.toLowerCase() + "' and table_schema = current_schema();");
+            while (rs.next()) {
+                schema.computeIfAbsent(rs.getString(1), table -> new HashSet<>()).add(rs.getString(2).toLowerCase());
+            }
+            rs.close();
+            rs = null;
 
-                    // check to see if the class has an @fdfIgonre
+            List<String> ddl = new ArrayList<>();
+            for (Class c : classList) {
+
+                // check to see if the class has an @fdfIgonre
+                if (c.isAnnotationPresent(FdfIgnore.class)) {
+                    continue;
+                }
+
+                List<Field> fields = new ArrayList<>();
+                for (Field field : c.getFields()) {
                     if (!field.isAnnotationPresent(FdfIgnore.class)) {
-                        numberOfFields++;
+                        fields.add(field);
                     }
                 }
+                String table = c.getSimpleName().toLowerCase();
 
-                // check to see if the table already exists
-                String tableTest = "select * from information_schema.TABLES where table_catalog = '"
-                        + FdfSettings.DB_NAME.toLowerCase() + "' and table_name = '"
-                        + c.getSimpleName().toLowerCase() + "';";
-
-                Connection conn = null;
-                Statement stmt = null;
-                ResultSet rs = null;
-
-                try {
-                    conn = PostgreSqlConnection.getInstance().getSession();
-                    stmt = conn.createStatement();
+                if (fields.isEmpty()) {
+                    fdfLog.info("No table created for model object {} class had no valid data members", table);
+                    continue;
+                }
 
-                    if (stmt != null) {
-                        rs = stmt.executeQuery(tableTest);
+                Set<String> columns = schema.get(table);
+                if (columns == null) {
+                    // Table does not exist, build
+                    fdfLog.info("creating table: {}", table);
+                    ddl.addAll(getCreateTableSql(c, fields));
+                    long ridRangeStart = FdfShardMap.getInstance().getRidRangeStart(shard);
+                    if (ridRangeStart > 0) {
+                        // rids stay unique across shards, so a tenant can be moved with its rids
+                        ddl.add("ALTER SEQUENCE " + getRidSequence(c) + " RESTART WITH " + (ridRangeStart + 1) + ";");
+                    }
+                    if (FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.PARTITIONED) {
+                        createdPartitionedTables.add(table);
+                    }
+                } else {
+                    boolean columnAdded = false;
+                    for (Field field : fields) {
+                        if (!columns.contains(field.getName().toLowerCase())) {
+                            // the field did not exist, add it to every table the states are stored in
+                            for (String storageTable : getStorageTables(c)) {
+                                ddl.add("alter table " + "\"" + storageTable + "\"" + " add column "
+                                        + getFieldNameAndDataType(field) + ";");
+                            }
+                            columnAdded = true;
+                        }
+                    }
+                    if (c.isAnnotationPresent(FdfDeltaHistory.class) && !columns.contains(DELTA_COLUMN)) {
+                        for (String storageTable : getStorageTables(c)) {
+                            ddl.add("alter table \"" + storageTable + "\" add column " + DELTA_COLUMN + " TEXT;");
+                        }
+                        columnAdded = true;
                     }
+                    if (columnAdded && FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.SPLIT_TABLES) {
+                        // the view was expanded to the columns that existed when it was created
+                        ddl.add(getCreateSplitViewSql(table, true) + ";");
+                    }
+                }
 
-                    if (rs != null) {
-                        if (!rs.next()) {
-                            // Table does not exist, build
-                            fdfLog.info("creating table: {}", c.getSimpleName().toLowerCase());
-                            // check there there is at lease one field
-                            if (c.getFields().length > 0) {
-                                String sql = "CREATE TABLE " + "\"" + c.getSimpleName().toLowerCase()
-                                        + "\"" + " ( ";
-                                int fieldCounter = 0;
+                // index entity versions for keyset (seek) pagination, the start and end dates of states for
+                // finding the states that changed in a time window (diffBetween) and the states saved by a user or
+                // system (auditByUser, auditBySystem)
+                for (String storageTable : getStorageTables(c)) {
+                    // rid is the tiebreaker of the ID_ARSD keyset, it replaces the (id, arsd) index
+                    ddl.add(getCreateIndexSql(storageTable, "id", "arsd", "rid"));
+                    ddl.add("DROP INDEX IF EXISTS \"" + storageTable + "_id_arsd_idx\";");
+                    ddl.add(getCreateIndexSql(storageTable, "tid", "arsd"));
+                    ddl.add(getCreateIndexSql(storageTable, "tid", "ared"));
+                    ddl.add(getCreateIndexSql(storageTable, "euid", "arsd"));
+                    ddl.add(getCreateIndexSql(storageTable, "esid", "arsd"));
+                }
+            }
 
-                                for (Field field : c.getFields()) {
+            // apply every change together
+            conn.setAutoCommit(false);
+            for (String sql : ddl) {
+                fdfLog.debug("Schema sql: {}", sql);
+                stmt.executeUpdate(sql);
+            }
+            conn.commit();
 
-                                    // check to see if the class has an @fdfIgonre
-                                    if(!field.isAnnotationPresent(FdfIgnore.class)) {
+        } catch (SQLException sqlException) {
 
-                                        sql += getFieldNameAndDataType(field);
+            fdfLog.warn("Error occurred checking or updating the schema of shard {}, no changes were made:::", shard);
+            fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                            ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                    sqlException.getMessage());
+            if (conn != null && !conn.getAutoCommit()) {
+                conn.rollback();
+            }
+            // the schema was not verified, let the caller know (no fingerprint is stored)
+            throw sqlException;
 
-                                        fieldCounter++;
+        } finally {
+            if (rs != null) {
+                rs.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+            if (conn != null) {
+                conn.setAutoCommit(true);
+                PostgreSqlConnection.getInstance().close(conn);
+            }
+        }
 
-                                        if (numberOfFields > fieldCounter) sql += ", ";
-                                    }
+        // history partitions are created on their own, a range that can not be created must not undo the schema
+        if (!createdPartitionedTables.isEmpty()) {
+            checkPartitions(shard);
+        }
+    }
 
-                                }
-                                sql += ");";
+    /**
+     * Statements that create the storage for a model class following FdfSettings.HISTORY_STORAGE: a single table, a
+     * table partitioned by ared with a default partition for current states, or current and history tables with a
+     * view over both.
+     */
+    static List<String> getCreateTableSql(Class c, List<Field> fields) {
+        String table = c.getSimpleName().toLowerCase();
+        List<String> sql = new ArrayList<>();
+
+        String columns = "( ";
+        for (int f = 0; f < fields.size(); f++) {
+            columns += getFieldNameAndDataType(fields.get(f));
+            if (f < fields.size() - 1) columns += ", ";
+        }
+        if (c.isAnnotationPresent(FdfDeltaHistory.class)) {
+            columns += ", " + DELTA_COLUMN + " TEXT";
+        }
+        columns += ")";
+
+        if (FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.PARTITIONED) {
+            // a primary key on a partitioned table has to include the partition key, rid stays unique through its
+            // sequence and is indexed instead
+            sql.add("CREATE TABLE \"" + table + "\" " + columns.replace(" BIGSERIAL PRIMARY KEY", " BIGSERIAL")
+                    + " PARTITION BY RANGE (ared);");
+            // current states have a null ared, which only the default partition accepts.  The check keeps closed
+            // states out of it, a closed state without a history partition for its ared fails instead
+            sql.add("CREATE TABLE \"" + table + "_current\" PARTITION OF \"" + table + "\" (CONSTRAINT \"" + table
+                    + "_current_ared_check\" CHECK (ared IS NULL)) DEFAULT;");
+            // states closed before the table was created, the monthly or yearly partitions start from here
+            sql.add("CREATE TABLE \"" + table + "_hmin\" PARTITION OF \"" + table
+                    + "\" FOR VALUES FROM (MINVALUE) TO ('" + getPartitionStart(LocalDate.now()) + "');");
+            sql.add(getCreateIndexSql(table, "rid"));
+        } else if (FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.SPLIT_TABLES) {
+            // the current table owns the rid sequence, the history table shares it so rows keep their rid when they
+            // move
+            sql.add("CREATE TABLE \"" + table + "_current\" " + columns + ";");
+            sql.add("CREATE TABLE \"" + table + "_history\" " + columns.replace(" BIGSERIAL PRIMARY KEY",
+                    " BIGINT PRIMARY KEY DEFAULT nextval('\"" + table + "_current_rid_seq\"')") + ";");
+            sql.add(getCreateSplitViewSql(table, false) + ";");
+        } else {
+            sql.add("CREATE TABLE \"" + table + "\" " + columns + ";");
+        }
+        return sql;
+    }
 
-                                fdfLog.debug("Table sql {} : {}", c.getSimpleName().toLowerCase(), sql);
+    /**
+     * Fingerprint of the data model the schema was last verified for, see FdfUtil.getModelFingerprint.
+     *
+     * @return stored fingerprint, null if there is none (or the metadata table does not exist yet)
+     */
+    public String getSchemaFingerprint() {
+        String fingerprint = null;
 
-                                if (stmt != null) {
-                                    stmt.executeUpdate(sql);
-                                }
-                            } else {
-                                fdfLog.info("No table created for model object {} class had no valid data members", c.getSimpleName().toLowerCase());
-                            }
-                        }
-                    }
-                } catch (SQLException sqlException) {
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
 
-                    // some other error
-                    fdfLog.warn("Error occurred checking or creating a table:::");
-                    fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
-                                    ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
-                            sqlException.getMessage());
+        try {
+            conn = PostgreSqlConnection.getInstance().getSession();
+            stmt = conn.createStatement();
+            rs = stmt.executeQuery("SELECT fingerprint FROM \"" + SCHEMA_TABLE + "\" WHERE id = 1;");
+            if (rs.next()) {
+                fingerprint = rs.getString(1);
+            }
+        } catch (SQLException e) {
+            // first start against this database, or it does not exist yet
+            fdfLog.debug("No schema fingerprint available: {}", e.getMessage());
+        } finally {
+            closeQuietly(rs, stmt, conn);
+        }
+        return fingerprint;
+    }
 
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                } finally {
-                    if (rs != null) {
-                        rs.close();
-                    }
-                    if (stmt != null) {
-                        stmt.close();
-                    }
-                    if (conn != null) {
-                        PostgreSqlConnection.getInstance().close(conn);
-                    }
-                }
+    /**
+     * Stores the fingerprint of the data model the schema was just verified for.
+     *
+     * @param fingerprint model fingerprint
+     */
+    public void setSchemaFingerprint(String fingerprint) {
+        Connection conn = null;
+        PreparedStatement ps = null;
+
+        try {
+            conn = PostgreSqlConnection.getInstance().getSession();
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS \"" + SCHEMA_TABLE + "\" "
+                        + "(id INT PRIMARY KEY, fingerprint TEXT, verified TIMESTAMP);");
             }
+            ps = conn.prepareStatement("INSERT INTO \"" + SCHEMA_TABLE + "\" (id, fingerprint, verified) "
+                    + "VALUES (1, ?, CURRENT_TIMESTAMP) ON CONFLICT (id) DO UPDATE SET fingerprint = "
+                    + "EXCLUDED.fingerprint, verified = EXCLUDED.verified;");
+            ps.setString(1, fingerprint);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            fdfLog.warn("Could not store schema fingerprint: {}", e.getMessage());
+        } finally {
+            closeQuietly(null, ps, conn);
+        }
+    }
+
+    /**
+     * Shard the tenant is assigned to in the shard map, see FdfShardMap.
+     *
+     * @param tenantId id of the tenant
+     * @return shard name, null if the tenant has no assignment
+     */
+    public String getTenantShard(long tenantId) {
+        String shard = null;
 
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = PostgreSqlConnection.getInstance().getSession();
+            ps = conn.prepareStatement("SELECT shard FROM \"" + SHARD_MAP_TABLE + "\" WHERE tid = ?;");
+            ps.setLong(1, tenantId);
+            rs = ps.executeQuery();
+            if (rs.next()) {
+                shard = rs.getString(1);
+            }
+        } catch (SQLException e) {
+            // no tenant has been moved yet
+            fdfLog.debug("No shard assignment available for tenant {}: {}", tenantId, e.getMessage());
+        } finally {
+            closeQuietly(rs, ps, conn);
         }
+        return shard;
     }
 
-    public void checkFields() throws SQLException {
-        // get the 4df data model
-        List<Class> classList = FdfSettings.getInstance().modelClasses;
+    /**
+     * Moves every state of a tenant to another shard.  The states are copied to the target in one transaction with
+     * their rids, the shard map is switched to the target and then the states are removed from the source.  The
+     * tenant should not be written to while it is moved, a save made during the copy is left behind on the source.
+     *
+     * rids are only unique within a shard, each shard draws them from its own range (see
+     * FdfShardMap.getRidRangeStart) so copied rids do not clash with the target's.  The copy fails if one does, which
+     * can happen for tables created before the ranges were introduced.
+     *
+     * Once the shard map is switched the move has happened, the tenant is read and written on the target.  If the
+     * states can not be removed from the source they are left there, unused, and recorded in the shard map; calling
+     * moveTenant again with the same target removes them.
+     *
+     * @param tenantId id of the tenant to move
+     * @param shard name of the target shard, FdfShardMap.DEFAULT_SHARD for DB_HOST
+     * @throws SQLException if the copy or the shard map switch failed, the tenant stays on its current shard
+     */
+    public void moveTenant(long tenantId, String shard) throws SQLException {
+        if (tenantId <= 1) {
+            throw new IllegalArgumentException("The default tenant holds the tenant and system records and can not "
+                    + "be moved");
+        }
+        if (!FdfShardMap.DEFAULT_SHARD.equals(shard) && !FdfSettings.DB_SHARDS.containsKey(shard)) {
+            throw new IllegalArgumentException("Unknown shard " + shard);
+        }
+        FdfShardMap.getInstance().invalidate(tenantId);
+        String source = FdfShardMap.getInstance().getShard(tenantId);
+
+        List<Class> classes = new ArrayList<>();
+        List<String> tables = new ArrayList<>();
+        for (Class c : FdfSettings.getInstance().modelClasses) {
+            if (!c.isAnnotationPresent(FdfIgnore.class)) {
+                classes.add(c);
+                tables.addAll(getStorageTables(c));
+            }
+        }
 
-        // build the tables for the model objects
-        for(Class c: classList) {
+        if (source.equals(shard)) {
+            // an earlier move to this shard may have left the states on the shard it moved from
+            String movedFrom = getMovedFromShard(tenantId);
+            if (movedFrom != null && !movedFrom.equals(shard)) {
+                removeMovedTenant(tenantId, movedFrom, tables);
+            }
+            return;
+        }
 
-            // determine the number of fields
-            int numberOfFields = 0;
-            for (Field field : c.getFields()) {
+        Connection from = null;
+        Connection to = null;
+        Connection map = null;
 
-                // check to see if the class has an @fdfIgonre
-                if (!field.isAnnotationPresent(FdfIgnore.class)) {
-                    numberOfFields++;
+        try {
+            from = PostgreSqlConnection.getInstance().getShardSession(source);
+            to = PostgreSqlConnection.getInstance().getShardSession(shard);
+
+            to.setAutoCommit(false);
+            long moved = 0;
+            for (Class c : classes) {
+                for (String table : getStorageTables(c)) {
+                    moved += copyTenantRows(from, to, table, tenantId);
                 }
+                checkCopiedRids(to, c, tenantId, shard);
             }
+            to.commit();
 
-            if(numberOfFields > 0) {
+            map = PostgreSqlConnection.getInstance().getSession();
+            try (Statement stmt = map.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS \"" + SHARD_MAP_TABLE + "\" "
+                        + "(tid BIGINT PRIMARY KEY, shard TEXT NOT NULL, moved_from TEXT);");
+                stmt.executeUpdate("ALTER TABLE \"" + SHARD_MAP_TABLE + "\" ADD COLUMN IF NOT EXISTS moved_from TEXT;");
+            }
+            try (PreparedStatement ps = map.prepareStatement("INSERT INTO \"" + SHARD_MAP_TABLE + "\" (tid, shard, "
+                    + "moved_from) VALUES (?, ?, ?) ON CONFLICT (tid) DO UPDATE SET shard = EXCLUDED.shard, "
+                    + "moved_from = EXCLUDED.moved_from;")) {
+                ps.setLong(1, tenantId);
+                ps.setString(2, shard);
+                ps.setString(3, source);
+                ps.executeUpdate();
+            }
+            FdfShardMap.getInstance().invalidate(tenantId);
 
-                // check to see if the class has an @fdfIgonre
-                if(!c.isAnnotationPresent(FdfIgnore.class)) {
+            fdfLog.info("Moved {} states of tenant {} from shard {} to {}", moved, tenantId, source, shard);
 
-                    Connection conn = null;
-                    Statement stmt = null;
-                    ResultSet rs = null;
+        } catch (SQLException sqlException) {
+            fdfLog.warn("Error occurred moving tenant {} from shard {} to {}:::", tenantId, source, shard);
+            fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                            ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                    sqlException.getMessage());
+            if (to != null && !to.getAutoCommit()) {
+                to.rollback();
+            }
+            throw sqlException;
 
-                    try {
-                        conn = PostgreSqlConnection.getInstance().getSession();
-                        stmt = conn.createStatement();
+        } finally {
+            if (to != null) {
+                to.setAutoCommit(true);
+            }
+            closeQuietly(null, null, from);
+            closeQuietly(null, null, to);
+            closeQuietly(null, null, map);
+        }
 
-                        for (Field field : c.getFields()) {
+        removeMovedTenant(tenantId, source, tables);
+    }
 
-                            // check to see if the class has an @fdfIgonre
-                            if(!field.isAnnotationPresent(FdfIgnore.class)) {
+    /**
+     * Shard a tenant was moved away from whose states have not been removed yet.
+     *
+     * @return shard name, null if nothing is left behind
+     */
+    private String getMovedFromShard(long tenantId) throws SQLException {
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
 
-                                // query for the field in the database
-                                // check to see if the table already exists
-                                String fieldTest = "select * from information_schema.columns where table_catalog= '"
-                                        + FdfSettings.DB_NAME.toLowerCase() + "' and table_name= '"
-                                        + c.getSimpleName().toLowerCase() + "' and column_name= '"
-                                        + field.getName().toLowerCase() + "';";
+        try {
+            conn = PostgreSqlConnection.getInstance().getSession();
+            ps = conn.prepareStatement("SELECT moved_from FROM \"" + SHARD_MAP_TABLE + "\" WHERE tid = ?;");
+            ps.setLong(1, tenantId);
+            rs = ps.executeQuery();
+            return rs.next() ? rs.getString(1) : null;
+        } finally {
+            closeQuietly(rs, ps, conn);
+        }
+    }
 
-                                //System.out.println("checking sql---------------> " + fieldTest);
-                                if (stmt != null) {
-                                    rs = stmt.executeQuery(fieldTest);
-                                }
+    /**
+     * Removes the states of a tenant from the shard it was moved away from and clears the record of it in the shard
+     * map.  A failure is only logged, the tenant is already served by its new shard and the states stay recorded.
+     */
+    private void removeMovedTenant(long tenantId, String source, List<String> tables) {
+        Connection from = null;
+        Connection map = null;
 
-                                if (rs != null) {
-                                    if (!rs.next()) {
-                                        // the field did not exist,
-                                        String alterSql = "alter table " + "\"" + c.getSimpleName().toLowerCase() + "\"" + " add column "
-                                                + this.getFieldNameAndDataType(field) + ";";
+        try {
+            from = PostgreSqlConnection.getInstance().getShardSession(source);
+            from.setAutoCommit(false);
+            for (String table : tables) {
+                try (PreparedStatement delete = from.prepareStatement("DELETE FROM \"" + table + "\" WHERE tid = ?;")) {
+                    delete.setLong(1, tenantId);
+                    delete.executeUpdate();
+                }
+            }
+            from.commit();
 
-                                        fdfLog.info("Add field sql {} : {}", c.getSimpleName().toLowerCase(), alterSql);
+            map = PostgreSqlConnection.getInstance().getSession();
+            try (PreparedStatement ps = map.prepareStatement("UPDATE \"" + SHARD_MAP_TABLE + "\" SET moved_from = NULL "
+                    + "WHERE tid = ?;")) {
+                ps.setLong(1, tenantId);
+                ps.executeUpdate();
+            }
 
-                                        if (stmt != null) {
-                                            stmt.executeUpdate(alterSql);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } catch (SQLException sqlException) {
-
-                        // some other error
-                        fdfLog.warn("Error occurred checking or creating a field:::");
-                        fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
-                                        ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
-                                sqlException.getMessage());
-
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    } finally {
-                        if (rs != null) {
-                            rs.close();
-                        }
-                        if (stmt != null) {
-                            stmt.close();
+        } catch (SQLException sqlException) {
+            fdfLog.warn("Tenant {} was moved but its states could not be removed from shard {}, move it to the same "
+                    + "shard again to remove them: {}", tenantId, source, sqlException.getMessage());
+            try {
+                if (from != null && !from.getAutoCommit()) {
+                    from.rollback();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+
+        } finally {
+            try {
+                if (from != null) {
+                    from.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            closeQuietly(null, null, from);
+            closeQuietly(null, null, map);
+        }
+    }
+
+    /**
+     * Copies the rows of a tenant in one table between shards, rid included, rows left in the target by an earlier
+     * failed move are replaced.
+     *
+     * @return number of rows copied
+     */
+    private static long copyTenantRows(Connection from, Connection to, String table, long tenantId)
+            throws SQLException {
+        try (PreparedStatement clear = to.prepareStatement("DELETE FROM \"" + table + "\" WHERE tid = ?;")) {
+            clear.setLong(1, tenantId);
+            clear.executeUpdate();
+        }
+
+        long copied = 0;
+        try (PreparedStatement select = from.prepareStatement("SELECT * FROM \"" + table
+                + "\" WHERE tid = ? ORDER BY rid;")) {
+            select.setLong(1, tenantId);
+            try (ResultSet rs = select.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                List<String> names = new ArrayList<>();
+                for (int col = 1; col <= meta.getColumnCount(); col++) {
+                    names.add(meta.getColumnName(col));
+                }
+                String sql = "INSERT INTO \"" + table + "\" (" + String.join(", ", names) + ") VALUES ("
+                        + String.join(", ", Collections.nCopies(names.size(), "?")) + ");";
+
+                try (PreparedStatement insert = to.prepareStatement(sql)) {
+                    while (rs.next()) {
+                        for (int col = 1; col <= names.size(); col++) {
+                            insert.setObject(col, rs.getObject(col));
                         }
-                        if (conn != null) {
-                            PostgreSqlConnection.getInstance().close(conn);
+                        insert.addBatch();
+                        if (++copied % 500 == 0) {
+                            insert.executeBatch();
                         }
                     }
+                    insert.executeBatch();
+                }
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Fails the copy when a copied rid is already used by another tenant on the target, partitioned tables have no
+     * primary key to catch it.  Copied rids inside the target's own range (a tenant moving back) move the target's
+     * rid sequence past them.
+     */
+    private static void checkCopiedRids(Connection to, Class c, long tenantId, String shard) throws SQLException {
+        String table = c.getSimpleName().toLowerCase();
+        try (PreparedStatement ps = to.prepareStatement("SELECT a.rid FROM \"" + table + "\" a WHERE a.tid = ? AND "
+                + "EXISTS (SELECT 1 FROM \"" + table + "\" b WHERE b.rid = a.rid AND b.tid <> ?) LIMIT 1;")) {
+            ps.setLong(1, tenantId);
+            ps.setLong(2, tenantId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    throw new SQLException("rid " + rs.getLong(1) + " of tenant " + tenantId + " is already used in "
+                            + table + " on shard " + shard);
                 }
             }
         }
+
+        String sequence = getRidSequence(c);
+        long rangeStart = FdfShardMap.getInstance().getRidRangeStart(shard);
+        try (PreparedStatement ps = to.prepareStatement("SELECT setval('" + sequence + "', m) FROM (SELECT max(rid) "
+                + "AS m FROM \"" + table + "\" WHERE tid = ?) copied WHERE m > ? AND m <= ? AND m > (SELECT last_value "
+                + "FROM " + sequence + ");")) {
+            ps.setLong(1, tenantId);
+            ps.setLong(2, rangeStart);
+            ps.setLong(3, rangeStart + FdfShardMap.RID_RANGE);
+            ps.executeQuery().close();
+        }
+    }
+
+    /**
+     * Sequence the rids of a model class are drawn from, owned by its (current) table.
+     */
+    static String getRidSequence(Class c) {
+        return "\"" + getStorageTables(c).get(0) + "_rid_seq\"";
+    }
+
+    private static void closeQuietly(ResultSet rs, Statement stmt, Connection conn) {
+        if (rs != null) {
+            try {
+                rs.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (conn != null) {
+            try {
+                PostgreSqlConnection.getInstance().close(conn);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Creates the closed history partitions for the current interval and the next HISTORY_PARTITIONS_AHEAD intervals
+     * on every model table that was created partitioned.  Tables created with SINGLE_TABLE storage are left alone.
+     *
+     * @throws SQLException
+     */
+    public void checkPartitions() throws SQLException {
+        for (String shard : FdfShardMap.getInstance().getShards()) {
+            checkPartitions(shard);
+        }
+    }
+
+    private void checkPartitions(String shard) throws SQLException {
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+
+        try {
+            conn = PostgreSqlConnection.getInstance().getShardSession(shard);
+            stmt = conn.createStatement();
+
+            // find the model tables that are partitioned in the database
+            List<String> partitionedTables = new ArrayList<>();
+            rs = stmt.executeQuery("SELECT c.relname FROM pg_partitioned_table p "
+                    + "JOIN pg_class c ON c.oid = p.partrelid;");
+            while (rs.next()) {
+                partitionedTables.add(rs.getString(1));
+            }
+
+            for (Class c : FdfSettings.getInstance().modelClasses) {
+                if (!c.isAnnotationPresent(FdfIgnore.class)
+                        && partitionedTables.contains(c.getSimpleName().toLowerCase())) {
+                    createHistoryPartitions(stmt, c.getSimpleName().toLowerCase());
+                }
+            }
+        } catch (SQLException sqlException) {
+            fdfLog.warn("Error occurred checking history partitions of shard {}:::", shard);
+            fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                            ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                    sqlException.getMessage());
+        } finally {
+            if (rs != null) {
+                rs.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+            if (conn != null) {
+                PostgreSqlConnection.getInstance().close(conn);
+            }
+        }
+    }
+
+    private static void createHistoryPartitions(Statement stmt, String table) {
+        LocalDate start = getPartitionStart(LocalDate.now());
+        LocalDate last = start;
+        for (int i = 0; i < FdfSettings.HISTORY_PARTITIONS_AHEAD; i++) {
+            last = getPartitionEnd(last);
+        }
+        createHistoryPartitions(stmt, table, start, last);
+    }
+
+    /**
+     * Creates the history partitions of the intervals from the one holding first to the one holding last, newest
+     * first.  The intervals before the table was created belong to its MINVALUE partition, once a partition overlaps
+     * it the older intervals are covered as well.
+     */
+    private static void createHistoryPartitions(Statement stmt, String table, LocalDate first, LocalDate last) {
+        LocalDate oldest = getPartitionStart(first);
+        List<LocalDate> starts = new ArrayList<>();
+        for (LocalDate start = oldest; !start.isAfter(last); start = getPartitionEnd(start)) {
+            starts.add(0, start);
+        }
+
+        for (LocalDate start : starts) {
+            try {
+                stmt.executeUpdate(getCreatePartitionSql(table, start, getPartitionEnd(start)));
+            } catch (SQLException sqlException) {
+                if (OVERLAPPING_PARTITION.equals(sqlException.getSQLState())) {
+                    return;
+                }
+                // closed states in this range can not be stored until the partition exists
+                fdfLog.warn("Could not create history partition for {} from {}: {}", table, start,
+                        sqlException.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the history partitions for the closed states of a bulk load before they are copied, the default
+     * partition does not accept them.
+     */
+    private <S> void createHistoryPartitions(String shard, String table, List<S> states) throws SQLException {
+        LocalDate first = null;
+        LocalDate last = null;
+        for (S state : states) {
+            Date ared = state instanceof CommonState ? ((CommonState) state).ared : null;
+            if (ared != null) {
+                LocalDate date = new Timestamp(ared.getTime()).toLocalDateTime().toLocalDate();
+                first = first == null || date.isBefore(first) ? date : first;
+                last = last == null || date.isAfter(last) ? date : last;
+            }
+        }
+        if (first == null) {
+            return;
+        }
+
+        Connection conn = null;
+        Statement stmt = null;
+        try {
+            conn = PostgreSqlConnection.getInstance().getShardSession(shard);
+            stmt = conn.createStatement();
+            createHistoryPartitions(stmt, table, first, last);
+        } finally {
+            closeQuietly(null, stmt, conn);
+        }
+    }
+
+    static LocalDate getPartitionStart(LocalDate date) {
+        return FdfSettings.HISTORY_PARTITION_INTERVAL == DatabaseUtil.PartitionInterval.YEARLY
+                ? date.withDayOfYear(1) : date.withDayOfMonth(1);
+    }
+
+    private static LocalDate getPartitionEnd(LocalDate start) {
+        return FdfSettings.HISTORY_PARTITION_INTERVAL == DatabaseUtil.PartitionInterval.YEARLY
+                ? start.plusYears(1) : start.plusMonths(1);
+    }
+
+    static String getCreatePartitionSql(String table, LocalDate start, LocalDate end) {
+        String suffix = FdfSettings.HISTORY_PARTITION_INTERVAL == DatabaseUtil.PartitionInterval.YEARLY
+                ? String.format("%04d", start.getYear())
+                : String.format("%04d_%02d", start.getYear(), start.getMonthValue());
+        return "CREATE TABLE IF NOT EXISTS \"" + table + "_h" + suffix + "\" PARTITION OF \"" + table
+                + "\" FOR VALUES FROM ('" + start + "') TO ('" + end + "');";
     }
 
     public void checkDefaultEntries() throws SQLException {
@@ -369,6 +907,46 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
 
     public <S> void update(Class<S> c, S state) {
 
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+
+            Connection conn = null;
+
+            try {
+                conn = PostgreSqlConnection.getInstance().getTenantSession(getTenantId(state));
+
+                // with split storage the state can be in either table, stop at the one that had it
+                for (String table : getStorageTables(c)) {
+                    if (update(conn, table, c, state, false) > 0) {
+                        break;
+                    }
+                }
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            } catch (NoSuchFieldException e) {
+                e.printStackTrace();
+            } finally {
+                FdfReadRouter.getInstance().recordWrite();
+                if (conn != null) {
+                    try {
+                        PostgreSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+    }
+
+    private <S> int update(Connection conn, String table, Class<S> c, S state, boolean onlyIfCurrent)
+            throws SQLException, IllegalAccessException, NoSuchFieldException {
+
+        int updated = 0;
+
         // check to see if the class has an @fdfIgonre
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
 
@@ -383,7 +961,7 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
             }
 
             // Start the sql statement
-            String sql = "update " + "\"" + c.getSimpleName().toLowerCase() + "\"" + " set";
+            String sql = "update " + "\"" + table + "\"" + " set";
 
             int fieldCounter = 0;
 
@@ -400,15 +978,12 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                 }
             }
 
-            Connection conn = null;
             PreparedStatement preparedStmt = null;
-            ResultSet rs = null;
 
             try {
 
-                sql += " where rid = " + c.getField("rid").get(state) + " ;";
+                sql += " where rid = " + c.getField("rid").get(state) + (onlyIfCurrent ? " and cf = true" : "") + " ;";
 
-                conn = PostgreSqlConnection.getInstance().getSession();
                 preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
                 int fieldCounter3 = 1;
@@ -579,55 +1154,412 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                                 }
                             }
 
-                            if (!field.getName().toLowerCase().equals("rid")) fieldCounter3++;
+                            if (!field.getName().toLowerCase().equals("rid")) fieldCounter3++;
+
+                        } catch (IllegalAccessException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+
+                fdfLog.debug("update sql : {}", preparedStmt);
+
+                updated = preparedStmt.executeUpdate();
+
+            } finally {
+                if (preparedStmt != null) {
+                    try {
+                        preparedStmt.close();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        return updated;
+    }
+
+    public <S> Long insert(Class<S> c, S state) {
+
+        // spot to hold returned rid for new record
+        long newId = -1L;
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+
+            Connection conn = null;
+
+            try {
+                conn = PostgreSqlConnection.getInstance().getTenantSession(getTenantId(state));
+
+                // with split storage only a state that is not current goes directly to history
+                List<String> tables = getStorageTables(c);
+                newId = insert(conn, isCurrent(c, state) ? tables.get(0) : tables.get(tables.size() - 1), c, state);
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+            } finally {
+                FdfReadRouter.getInstance().recordWrite();
+                if (conn != null) {
+                    try {
+                        PostgreSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        return newId;
+
+    }
+
+    /**
+     * Closes the previous current state of an entity and inserts its new current state in a single transaction, so
+     * the entity is never seen without a current state or with two of them.  With SPLIT_TABLES storage the closed
+     * state is moved from the current table to the history table in the same transaction.
+     *
+     * The previous state is only closed if it is still current, if another writer closed it first the transaction is
+     * rolled back and FdfStaleStateException is thrown.
+     *
+     * @param c Class of the entity
+     * @param closingState previous current state, already marked closed (cf false and ared set), null for a new entity
+     * @param newState new current state
+     * @param <S> Type of the entity state
+     * @return rid of the inserted state, -1 if the transaction was rolled back
+     * @throws FdfStaleStateException if the closing state was no longer current
+     */
+    public <S> Long insertAndClose(Class<S> c, S closingState, S newState) {
+        List<Long> newIds = insertAndCloseBatch(c, Collections.singletonList(closingState),
+                Collections.singletonList(newState));
+        return newIds.isEmpty() ? -1L : newIds.get(0);
+    }
+
+    /**
+     * Batch version of insertAndClose, every pair of closing and new state is written in one transaction (group
+     * commit).  The lists are matched by index, a null closing state is a new entity.
+     *
+     * @param c Class of the entities
+     * @param closingStates previous current states, already marked closed, null entries for new entities
+     * @param newStates new current states
+     * @param <S> Type of the entity state
+     * @return rids of the inserted states in the order passed, empty if the transaction was rolled back
+     * @throws FdfStaleStateException if one of the closing states was no longer current, nothing is written
+     */
+    public <S> List<Long> insertAndCloseBatch(Class<S> c, List<S> closingStates, List<S> newStates) {
+
+        List<Long> newIds = new ArrayList<>();
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class)) {
+
+            Connection conn = null;
+
+            try {
+                // the states of one batch have to be on one shard, the first one decides
+                conn = PostgreSqlConnection.getInstance().getTenantSession(
+                        newStates.isEmpty() ? -1 : getTenantId(newStates.get(0)));
+                conn.setAutoCommit(false);
+
+                for (int s = 0; s < newStates.size(); s++) {
+                    newIds.add(closeAndInsert(conn, c, closingStates.get(s), newStates.get(s)));
+                }
+
+                conn.commit();
+
+            } catch (FdfStaleStateException e) {
+                fdfLog.debug("Save of {} {} rolled back: {}", newStates.size(), c.getSimpleName(), e.getMessage());
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackException) {
+                    rollbackException.printStackTrace();
+                }
+                throw e;
+            } catch (SQLException | IllegalAccessException | NoSuchFieldException e) {
+                fdfLog.warn("Save of {} {} rolled back: {}", newStates.size(), c.getSimpleName(), e.getMessage());
+                newIds.clear();
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException rollbackException) {
+                        rollbackException.printStackTrace();
+                    }
+                }
+            } finally {
+                // reads from this thread stay on the primary for a while so it sees its own write
+                FdfReadRouter.getInstance().recordWrite();
+                if (conn != null) {
+                    try {
+                        conn.setAutoCommit(true);
+                        PostgreSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        return newIds;
+    }
+
+    private <S> long closeAndInsert(Connection conn, Class<S> c, S closingState, S newState)
+            throws SQLException, IllegalAccessException, NoSuchFieldException {
+
+        List<String> tables = getStorageTables(c);
+        if (closingState != null) {
+            FdfDeltaHistory deltaHistory = c.getAnnotation(FdfDeltaHistory.class);
+            int closed;
+            if (deltaHistory != null) {
+                closed = closeAsDelta(conn, c, closingState, newState, deltaHistory.keyframeInterval());
+            } else {
+                closed = update(conn, tables.get(0), c, closingState, true);
+            }
+            if (closed == 0) {
+                // another writer closed the state first, do not end up with two current states
+                throw new FdfStaleStateException(c, (long) c.getField("id").get(closingState),
+                        (long) c.getField("rid").get(closingState));
+            }
+
+            if (FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.SPLIT_TABLES) {
+                // both tables have the same columns in the same order
+                String moveSql = "WITH moved AS (DELETE FROM \"" + tables.get(0) + "\" WHERE rid = "
+                        + c.getField("rid").get(closingState) + " RETURNING *) INSERT INTO \""
+                        + tables.get(1) + "\" SELECT * FROM moved;";
+                fdfLog.debug("move sql : {}", moveSql);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate(moveSql);
+                }
+            }
+        }
+        return insert(conn, tables.get(0), c, newState);
+    }
+
+    /**
+     * Closes the current state of a FdfDeltaHistory class.  Only the close (cf and ared) and the list of unchanged
+     * fields are written, the unchanged fields are set to null.  Every keyframeInterval closed versions the state is
+     * kept in full.
+     */
+    private <S> int closeAsDelta(Connection conn, Class<S> c, S closingState, S newState, int keyframeInterval)
+            throws SQLException, IllegalAccessException, NoSuchFieldException {
+
+        List<String> tables = getStorageTables(c);
+        long rid = (long) c.getField("rid").get(closingState);
+
+        // count the versions that were already closed to know if this one is a keyframe
+        long closedVersions = 0;
+        PreparedStatement countStmt = null;
+        ResultSet rs = null;
+        try {
+            countStmt = conn.prepareStatement("SELECT count(*) FROM \"" + tables.get(tables.size() - 1)
+                    + "\" WHERE tid = ? AND id = ? AND cf = false;");
+            countStmt.setLong(1, (long) c.getField("tid").get(closingState));
+            countStmt.setLong(2, (long) c.getField("id").get(closingState));
+            rs = countStmt.executeQuery();
+            if (rs.next()) {
+                closedVersions = rs.getLong(1);
+            }
+        } finally {
+            if (rs != null) {
+                rs.close();
+            }
+            if (countStmt != null) {
+                countStmt.close();
+            }
+        }
+
+        List<String> unchanged = getUnchangedFields(c, closingState, newState, closedVersions, keyframeInterval);
+
+        String sql = "update \"" + tables.get(0) + "\" set cf = ?, ared = ?, " + DELTA_COLUMN + " = ?";
+        for (String column : unchanged) {
+            sql += ", " + column + " = NULL";
+        }
+        sql += " where rid = ? and cf = true;";
+
+        PreparedStatement preparedStmt = null;
+        try {
+            preparedStmt = conn.prepareStatement(sql);
+            preparedStmt.setBoolean(1, false);
+            Date ared = (Date) c.getField("ared").get(closingState);
+            preparedStmt.setTimestamp(2, new Timestamp(ared != null ? ared.getTime() : System.currentTimeMillis()));
+            if (unchanged.isEmpty()) {
+                preparedStmt.setNull(3, Types.VARCHAR);
+            } else {
+                preparedStmt.setString(3, String.join(",", unchanged));
+            }
+            preparedStmt.setLong(4, rid);
+
+            fdfLog.debug("delta close sql : {}", preparedStmt);
+
+            return preparedStmt.executeUpdate();
+        } finally {
+            if (preparedStmt != null) {
+                preparedStmt.close();
+            }
+        }
+    }
+
+    /**
+     * Columns of the closing state that can be stored as null because the state replacing it has the same value,
+     * empty when the closing state is a keyframe (every keyframeInterval-th closed version of the entity).  The
+     * CommonState fields are always kept, they are what history is queried by.
+     */
+    static List<String> getUnchangedFields(Class c, Object closingState, Object newState, long closedVersions,
+                                           int keyframeInterval) throws IllegalAccessException {
+        List<String> unchanged = new ArrayList<>();
+        if (keyframeInterval > 1 && (closedVersions + 1) % keyframeInterval != 0) {
+            for (Field field : FdfUtil.getDataFields(c)) {
+                if (FdfUtil.hasSameValue(field.get(closingState), field.get(newState))) {
+                    unchanged.add(field.getName().toLowerCase());
+                }
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Rejects statements a FdfDeltaHistory class cannot answer.  Closed versions stored as deltas have their
+     * unchanged fields set to null, so a statement that can read history may only filter, group, order or aggregate
+     * by the CommonState fields.
+     *
+     * @throws IllegalArgumentException if the statement references another field outside of the current states
+     */
+    static void checkDeltaHistory(Class c, SqlStatement sqlStatement) {
+        if (!c.isAnnotationPresent(FdfDeltaHistory.class) || sqlStatement.getScope() == SqlStatement.Scope.CURRENT) {
+            return;
+        }
+        Set<String> commonFields = new HashSet<>();
+        for (Field field : CommonState.class.getFields()) {
+            commonFields.add(field.getName().toLowerCase());
+        }
+        for (String field : sqlStatement.getReferencedFields()) {
+            if (!commonFields.contains(field.toLowerCase())) {
+                throw new IllegalArgumentException(c.getSimpleName() + " keeps its history as deltas, " + field
+                        + " can only be queried on current states (cf = true)");
+            }
+        }
+    }
+
+    /**
+     * Loads states as they are with COPY FROM STDIN in the binary format, much faster than inserting them one at a
+     * time.  Meant for backfilling history, arsd, ared, cf and every other field are stored exactly as passed and no
+     * earlier state is closed, so the caller is responsible for the timelines being consistent (one current state per
+     * entity).  A state without arsd is stored with a null arsd.
+     *
+     * States are routed like inserts, to the shard of their tenant and with SPLIT_TABLES storage to the current or
+     * history table by cf.  With PARTITIONED storage the history partitions for the ared range of the closed states
+     * are created first.  The states for one shard are loaded in a single transaction.
+     *
+     * @param c Class of the states
+     * @param states states to load
+     * @param <S> Type of the entity state
+     * @return number of rows loaded
+     * @throws SQLException if a copy failed, nothing is loaded on the shard it failed on
+     */
+    public <S> long bulkLoad(Class<S> c, List<S> states) throws SQLException {
+        if (c.isAnnotationPresent(FdfIgnore.class) || states.isEmpty()) {
+            return 0;
+        }
 
-                        } catch (IllegalAccessException e) {
-                            e.printStackTrace();
-                        }
-                    }
+        // group by shard, then table, keeping the order the states were passed in
+        List<String> tables = getStorageTables(c);
+        Map<String, Map<String, List<S>>> shards = new LinkedHashMap<>();
+        for (S state : states) {
+            String table = isCurrent(c, state) ? tables.get(0) : tables.get(tables.size() - 1);
+            shards.computeIfAbsent(FdfShardMap.getInstance().getShard(getTenantId(state)), s -> new LinkedHashMap<>())
+                    .computeIfAbsent(table, t -> new ArrayList<>()).add(state);
+        }
+
+        List<Field> fields = PostgreSqlBinaryCopy.getCopyFields(c);
+        long loaded = 0;
+        try {
+            for (Map.Entry<String, Map<String, List<S>>> shard : shards.entrySet()) {
+                if (FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.PARTITIONED) {
+                    createHistoryPartitions(shard.getKey(), tables.get(0), shard.getValue().get(tables.get(0)));
                 }
+                loaded += bulkLoad(shard.getKey(), shard.getValue(), fields);
+            }
+        } finally {
+            FdfReadRouter.getInstance().recordWrite();
+        }
 
-                fdfLog.debug("update sql : {}", preparedStmt);
+        fdfLog.info("Bulk loaded {} states of {}", loaded, c.getSimpleName());
+        return loaded;
+    }
 
-                preparedStmt.execute();
+    private <S> long bulkLoad(String shard, Map<String, List<S>> tables, List<Field> fields) throws SQLException {
+        Connection conn = null;
+        long loaded = 0;
 
+        try {
+            conn = PostgreSqlConnection.getInstance().getShardSession(shard);
+            conn.setAutoCommit(false);
+            CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
 
-            } catch (SQLException e) {
-                e.printStackTrace();
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            } catch (NoSuchFieldException e) {
-                e.printStackTrace();
-            } finally {
-                if (rs != null) {
-                    try {
-                        rs.close();
-                    } catch (SQLException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if (preparedStmt != null) {
-                    try {
-                        preparedStmt.close();
-                    } catch (SQLException e) {
-                        e.printStackTrace();
+            for (Map.Entry<String, List<S>> table : tables.entrySet()) {
+                String sql = PostgreSqlBinaryCopy.getCopySql(table.getKey(), fields);
+                fdfLog.debug("bulk load sql : {}", sql);
+
+                CopyIn copy = copyManager.copyIn(sql);
+                try {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream(COPY_BUFFER_SIZE);
+                    DataOutputStream out = new DataOutputStream(buffer);
+                    PostgreSqlBinaryCopy.writeHeader(out);
+                    for (S state : table.getValue()) {
+                        PostgreSqlBinaryCopy.writeRow(out, fields, state);
+                        if (buffer.size() >= COPY_BUFFER_SIZE) {
+                            copy.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+                            buffer.reset();
+                        }
                     }
-                }
-                if (conn != null) {
-                    try {
-                        PostgreSqlConnection.getInstance().close(conn);
-                    } catch (SQLException e) {
-                        e.printStackTrace();
+                    PostgreSqlBinaryCopy.writeTrailer(out);
+                    copy.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+                    loaded += copy.endCopy();
+                } catch (IOException e) {
+                    throw new SQLException("Could not encode the states for " + table.getKey(), e);
+                } finally {
+                    if (copy.isActive()) {
+                        copy.cancelCopy();
                     }
                 }
             }
+            conn.commit();
+
+        } catch (SQLException sqlException) {
+            fdfLog.warn("Error occurred bulk loading into shard {}:::", shard);
+            fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                            ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                    sqlException.getMessage());
+            if (conn != null) {
+                conn.rollback();
+            }
+            throw sqlException;
+
+        } finally {
+            if (conn != null) {
+                conn.setAutoCommit(true);
+            }
+            closeQuietly(null, null, conn);
         }
 
+        return loaded;
     }
 
-    public <S> Long insert(Class<S> c, S state) {
+    private static long getTenantId(Object state) {
+        return state instanceof CommonState ? ((CommonState) state).tid : -1;
+    }
+
+    private static <S> boolean isCurrent(Class<S> c, S state) {
+        try {
+            return !Boolean.FALSE.equals(c.getField("cf").get(state));
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return true;
+        }
+    }
+
+    private <S> long insert(Connection conn, String table, Class<S> c, S state) throws SQLException {
 
-        // spot to hold returned id for new record
+        // spot to hold returned rid for new record
         long newId = -1L;
 
         // determine the number of fields
@@ -644,7 +1576,7 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
 
             // Start the sql statement
-            String sql = "insert into " + "\"" + c.getSimpleName().toLowerCase() + "\"" + " (";
+            String sql = "insert into " + "\"" + table + "\"" + " (";
 
             int fieldCounter = 0;
             for (Field field : c.getFields()) {
@@ -678,12 +1610,10 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
             }
             sql += ");";
 
-            Connection conn = null;
             PreparedStatement preparedStmt = null;
             ResultSet rs = null;
 
             try {
-                conn = PostgreSqlConnection.getInstance().getSession();
                 preparedStmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
                 int fieldCounter3 = 1;
@@ -863,10 +1793,8 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                 preparedStmt.execute();
                 rs = preparedStmt.getGeneratedKeys();
                 rs.next();
-                newId = rs.getLong("id");
+                newId = rs.getLong("rid");
 
-            } catch (SQLException e) {
-                e.printStackTrace();
             } finally {
                 if (rs != null) {
                     try {
@@ -882,13 +1810,6 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                         e.printStackTrace();
                     }
                 }
-                if (conn != null) {
-                    try {
-                        PostgreSqlConnection.getInstance().close(conn);
-                    } catch (SQLException e) {
-                        e.printStackTrace();
-                    }
-                }
             }
         }
 
@@ -918,27 +1839,54 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
      */
     public <S extends CommonState> List<S> selectQuery(Class c, SqlStatement sqlStatement) {
 
+        checkDeltaHistory(c, sqlStatement);
+
+        // start the sql statement
+        String sql = sqlStatement.getSelect() + " FROM " + getTableName(c, sqlStatement.getScope())
+                + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()
+                + sqlStatement.getLimit() + ";";
+
+        fdfLog.debug("select sql: {}", sql);
+
+        long tenantId = sqlStatement.getTenantId();
+        SqlStatement.Lane lane = sqlStatement.getLane();
+        if(!c.isAnnotationPresent(FdfDeltaHistory.class)) {
+            return select(c, sql, null, tenantId, lane);
+        }
+
+        // states stored as deltas are filled in from the versions that follow them
+        Map<Object, String> deltas = new IdentityHashMap<>();
+        List<S> everything = select(c, sql, deltas, tenantId, lane);
+        if(!deltas.isEmpty()) {
+            reconstructDeltas(c, deltas, tenantId, lane);
+        }
+        return everything;
+    }
+
+    private <S extends CommonState> List<S> select(Class c, String sql, Map<Object, String> deltas, long tenantId,
+                                                   SqlStatement.Lane lane) {
+
         List<S> everything = new ArrayList<>();
 
         // check to see if the class has an @fdfIgonre
         if(!c.isAnnotationPresent(FdfIgnore.class)) {
 
-            // start the sql statement
-            String sql = sqlStatement.getSelect() + " FROM \"" + c.getSimpleName().toLowerCase() + "\""
-                    + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()
-                    + sqlStatement.getLimit() + ";";
-
-            fdfLog.debug("select sql: {}", sql);
-
             Connection conn = null;
             PreparedStatement ps = null;
             ResultSet rs = null;
 
             try {
-                conn = PostgreSqlConnection.getInstance().getSession();
+                conn = PostgreSqlConnection.getInstance().getReadSession(tenantId);
+                int fetchSize = FdfQueryLanes.getInstance().getFetchSize(lane);
+                if (fetchSize > 0) {
+                    // postgresql only fetches rows in batches (with a cursor) inside a transaction
+                    conn.setAutoCommit(false);
+                }
                 ps = conn.prepareStatement(sql);
 
                 if (ps != null) {
+                    ps.setFetchSize(fetchSize);
+                    ps.setQueryTimeout(FdfQueryLanes.getInstance().getQueryTimeoutSeconds(lane));
                     rs = ps.executeQuery();
                     while (rs.next()) {
 
@@ -1361,6 +2309,12 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                                 }
                             }
                         }
+                        if (deltas != null) {
+                            String delta = getDelta(rs);
+                            if (delta != null) {
+                                deltas.put(thisObject, delta);
+                            }
+                        }
                         S thisUserStateTest = (S) thisObject;
                         everything.add(thisUserStateTest);
                     }
@@ -1387,6 +2341,10 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
                 }
                 if (conn != null) {
                     try {
+                        if (!conn.getAutoCommit()) {
+                            conn.rollback();
+                            conn.setAutoCommit(true);
+                        }
                         PostgreSqlConnection.getInstance().close(conn);
                     } catch (SQLException e) {
                         e.printStackTrace();
@@ -1397,6 +2355,363 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
         return everything;
     }
 
+    private static String getDelta(ResultSet rs) {
+        try {
+            return rs.getString(DELTA_COLUMN);
+        } catch (SQLException e) {
+            // the select statement did not include the column
+            return null;
+        }
+    }
+
+    /**
+     * Rebuilds states stored as deltas (see FdfDeltaHistory).  The versions of the affected entities from the oldest
+     * delta up to the first full version after the newest one are loaded newest first, so each delta version can take
+     * its unchanged fields from the already complete version that followed it.
+     */
+    private <S extends CommonState> void reconstructDeltas(Class c, Map<Object, String> deltas, long tenantId,
+                                                           SqlStatement.Lane lane) {
+        List<CommonState> deltaStates = new ArrayList<>();
+        for (Object state : deltas.keySet()) {
+            deltaStates.add((CommonState) state);
+        }
+        String sql = getDeltaReconstructionSql(c, deltaStates);
+        fdfLog.debug("delta reconstruction sql: {}", sql);
+
+        Map<Object, String> versionDeltas = new IdentityHashMap<>();
+        List<S> versions = select(c, sql, versionDeltas, tenantId, lane);
+        rebuildDeltas(c, deltas, versions, versionDeltas);
+    }
+
+    /**
+     * Sql loading the versions needed to rebuild the delta states, per entity from the oldest of them up to the
+     * nearest version stored in full (a keyframe or the current state) after the newest, newest first.
+     */
+    static String getDeltaReconstructionSql(Class c, Collection<? extends CommonState> deltaStates) {
+        // oldest and newest delta start per entity
+        Map<String, Timestamp[]> ranges = new LinkedHashMap<>();
+        for (CommonState state : deltaStates) {
+            // keep the microseconds of timestamps read from the database
+            Timestamp arsd = state.arsd instanceof Timestamp ? (Timestamp) state.arsd
+                    : new Timestamp(state.arsd.getTime());
+            Timestamp[] range = ranges.computeIfAbsent(state.tid + "," + state.id,
+                    entity -> new Timestamp[] {arsd, arsd});
+            if (arsd.before(range[0])) {
+                range[0] = arsd;
+            }
+            if (arsd.after(range[1])) {
+                range[1] = arsd;
+            }
+        }
+
+        String table = getTableName(c, SqlStatement.Scope.ALL);
+        List<String> entities = new ArrayList<>();
+        for (Map.Entry<String, Timestamp[]> range : ranges.entrySet()) {
+            String[] entity = range.getKey().split(",");
+            String tid = entity[0];
+            String id = entity[1];
+            entities.add("(tid = " + tid + " AND id = " + id + " AND arsd >= '" + range.getValue()[0]
+                    + "' AND arsd <= coalesce((SELECT min(k.arsd) FROM " + table + " k WHERE k.tid = " + tid
+                    + " AND k.id = " + id + " AND k.arsd > '" + range.getValue()[1] + "' AND k." + DELTA_COLUMN
+                    + " IS NULL), 'infinity'::timestamp))");
+        }
+        return "SELECT * FROM " + table + " WHERE " + String.join(" OR ", entities) + " ORDER BY tid, id, arsd DESC;";
+    }
+
+    /**
+     * Fills in the delta states from the versions of their entities, loaded newest first.
+     */
+    static <S extends CommonState> void rebuildDeltas(Class c, Map<Object, String> deltas, List<S> versions,
+                                                      Map<Object, String> versionDeltas) {
+        Map<Long, S> versionsByRid = new HashMap<>();
+        S successor = null;
+        for (S version : versions) {
+            String delta = versionDeltas.get(version);
+            if (delta != null && successor != null && successor.id == version.id && successor.tid == version.tid) {
+                copyDeltaFields(c, successor, version, delta);
+            }
+            versionsByRid.put(version.rid, version);
+            successor = version;
+        }
+
+        for (Map.Entry<Object, String> delta : deltas.entrySet()) {
+            S version = versionsByRid.get(((CommonState) delta.getKey()).rid);
+            if (version != null) {
+                copyDeltaFields(c, version, delta.getKey(), delta.getValue());
+            } else {
+                fdfLog.warn("Could not rebuild delta state rid {} of {}", ((CommonState) delta.getKey()).rid,
+                        c.getSimpleName());
+            }
+        }
+    }
+
+    private static void copyDeltaFields(Class c, Object from, Object to, String delta) {
+        List<String> unchanged = Arrays.asList(delta.split(","));
+        for (Field field : c.getFields()) {
+            if (unchanged.contains(field.getName().toLowerCase())) {
+                try {
+                    field.set(to, field.get(from));
+                } catch (IllegalAccessException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Aggregate Query, runs the aggregate (count, count distinct, min, max or sum) described by the passed
+     * SqlStatement on the server and returns only the computed values, no rows are transferred or reflected into
+     * state objects.
+     *
+     * When the statement has groupings the returned map holds one value per group keyed by the grouped values
+     * (comma separated if there is more then one grouping), otherwise it holds a single value keyed by an empty
+     * String.  Timestamp values (ex. max(arsd)) are returned as milliseconds since the epoch.
+     *
+     * @param c Class of entity to aggregate over
+     * @param sqlStatement statement with an aggregate set
+     * @return aggregate values by group
+     */
+    public Map<String, Number> aggregateQuery(Class c, SqlStatement sqlStatement) {
+
+        Map<String, Number> aggregates = new LinkedHashMap<>();
+
+        // check to see if the class has an @fdfIgonre
+        if(!c.isAnnotationPresent(FdfIgnore.class) && sqlStatement.isAggregate()) {
+
+            checkDeltaHistory(c, sqlStatement);
+
+            String sql = sqlStatement.getSelect() + " FROM " + getTableName(c, sqlStatement.getScope())
+                    + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()
+                    + sqlStatement.getLimit() + ";";
+
+            fdfLog.debug("aggregate sql: {}", sql);
+
+            int groupCount = sqlStatement.getGroupByFields().size();
+
+            Connection conn = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+
+            try {
+                conn = PostgreSqlConnection.getInstance().getReadSession(sqlStatement.getTenantId());
+                ps = conn.prepareStatement(sql);
+
+                if (ps != null) {
+                    ps.setQueryTimeout(FdfQueryLanes.getInstance().getQueryTimeoutSeconds(sqlStatement.getLane()));
+                    rs = ps.executeQuery();
+                    while (rs.next()) {
+                        // the group by values are selected first, the aggregate last
+                        StringBuilder group = new StringBuilder();
+                        for(int column = 1; column <= groupCount; column++) {
+                            if(column > 1) {
+                                group.append(",");
+                            }
+                            group.append(rs.getString(column));
+                        }
+
+                        Object value = rs.getObject(groupCount + 1);
+                        if(value instanceof Number) {
+                            aggregates.put(group.toString(), (Number) value);
+                        }
+                        else if(value instanceof Date) {
+                            aggregates.put(group.toString(), ((Date) value).getTime());
+                        }
+                        else if(value != null) {
+                            fdfLog.warn("Aggregate returned non numeric value {} for group {}", value, group);
+                        }
+                    }
+                }
+
+            } catch (SQLException e) {
+                fdfLog.warn("SQL error in Aggregate\nCode: {},\nState: {}\nMessage" +
+                        ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
+            } finally {
+                if (rs != null) {
+                    try {
+                        rs.close();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (ps != null) {
+                    try {
+                        ps.close();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (conn != null) {
+                    try {
+                        PostgreSqlConnection.getInstance().close(conn);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return aggregates;
+    }
+
+    /**
+     * Computes the aggregate of the statement per time bucket in the database.  The buckets come from
+     * generate_series and every state whose validity (arsd to ared, open ended while current) overlaps a bucket is
+     * joined to it, so only one row per bucket is returned.
+     *
+     * @param c Class of the entity to aggregate over
+     * @param sqlStatement statement with the aggregate and the where clauses filtering the states
+     * @param bucket size of the buckets
+     * @param startDate start of the first bucket
+     * @param endDate end of the range
+     * @return aggregate per bucket, empty if the query failed
+     * @throws IllegalArgumentException if the class is a FdfDeltaHistory class and the statement aggregates or
+     * filters by a field its history does not keep in full
+     */
+    public FdfTimeSeries timeSeriesQuery(Class c, SqlStatement sqlStatement, FdfTimeSeries.Bucket bucket,
+                                         Date startDate, Date endDate) {
+
+        if (c.isAnnotationPresent(FdfIgnore.class) || !startDate.before(endDate)) {
+            return new FdfTimeSeries();
+        }
+
+        String sql = getTimeSeriesSql(c, sqlStatement, bucket, startDate, endDate);
+        fdfLog.debug("time series sql: {}", sql);
+
+        long[] bucketStarts = new long[64];
+        double[] values = new double[64];
+        int size = 0;
+
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = PostgreSqlConnection.getInstance().getReadSession(sqlStatement.getTenantId());
+            ps = conn.prepareStatement(sql);
+            ps.setQueryTimeout(FdfQueryLanes.getInstance().getQueryTimeoutSeconds(SqlStatement.Lane.SCAN));
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                if (size == bucketStarts.length) {
+                    bucketStarts = Arrays.copyOf(bucketStarts, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                bucketStarts[size] = rs.getTimestamp(1).getTime();
+                double value = rs.getDouble(2);
+                // min, max and avg of an empty bucket are null
+                values[size] = rs.wasNull() ? Double.NaN : value;
+                size++;
+            }
+
+        } catch (SQLException e) {
+            fdfLog.warn("SQL error in time series\nCode: {},\nState: {}\nMessage" +
+                    ": {}\n", e.getErrorCode(), e.getSQLState(), e.getMessage());
+            size = 0;
+        } finally {
+            closeQuietly(rs, ps, conn);
+        }
+
+        return new FdfTimeSeries(Arrays.copyOf(bucketStarts, size), Arrays.copyOf(values, size));
+    }
+
+    static String getTimeSeriesSql(Class c, SqlStatement sqlStatement, FdfTimeSeries.Bucket bucket, Date startDate,
+                                   Date endDate) {
+        // the buckets join closed states, which are incomplete for delta history
+        checkDeltaHistory(c, sqlStatement);
+        String interval = "interval '" + bucket.getInterval() + "'";
+        String where = sqlStatement.getWhere();
+        // buckets starting before the end date
+        return "SELECT fdfbuckets.fdfbucket, " + sqlStatement.getTimeSeriesAggregate() + " AS fdfaggregate"
+                + " FROM generate_series(timestamp '" + new Timestamp(startDate.getTime()) + "', timestamp '"
+                + new Timestamp(endDate.getTime()) + "' - interval '1 microsecond', " + interval
+                + ") AS fdfbuckets(fdfbucket)"
+                + " LEFT JOIN " + getTableName(c, sqlStatement.getScope())
+                + " ON arsd < fdfbuckets.fdfbucket + " + interval
+                + " AND (ared IS NULL OR ared > fdfbuckets.fdfbucket)"
+                + (where.isEmpty() ? "" : " AND (" + where.substring(" WHERE ".length()) + ")")
+                + " GROUP BY fdfbuckets.fdfbucket ORDER BY fdfbuckets.fdfbucket;";
+    }
+
+    /**
+     * Streams the rows selected by the statement to the output stream with COPY TO STDOUT, the rows are written by
+     * the server in the export format and copied through without building a state for each one.  Filters, ordering
+     * and limit of the statement are applied by the database.
+     *
+     * A statement without a tenant (tid = clause) exports every shard one after the other, only possible with the
+     * CSV format, the header row is only written once.  States of FdfDeltaHistory classes that are stored as deltas
+     * are exported as stored, with the fdfdelta column listing the fields that are not filled in.
+     *
+     * @param c Class of the entity to export
+     * @param sqlStatement statement selecting the rows and columns to export
+     * @param format CSV (with a header row) or BINARY
+     * @param out stream to write to, it is not closed
+     * @return number of rows exported
+     * @throws SQLException if the export failed, part of the rows may have been written
+     * @throws IOException if writing to the stream failed
+     */
+    public long export(Class c, SqlStatement sqlStatement, DatabaseUtil.ExportFormat format, OutputStream out)
+            throws SQLException, IOException {
+        if (c.isAnnotationPresent(FdfIgnore.class)) {
+            return 0;
+        }
+
+        long tenantId = sqlStatement.getTenantId();
+        boolean allShards = tenantId < 0 && FdfShardMap.getInstance().isSharded();
+        List<String> shards = allShards ? FdfShardMap.getInstance().getShards() : Collections.singletonList(null);
+        List<String> copySql = getExportSql(c, sqlStatement, format, shards.size());
+        checkDeltaHistory(c, sqlStatement);
+
+        long exported = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            String sql = copySql.get(i);
+            fdfLog.debug("export sql: {}", sql);
+
+            Connection conn = null;
+            try {
+                // a single shard export reads like a select, from a replica when it can
+                conn = shards.get(i) == null ? PostgreSqlConnection.getInstance().getReadSession(tenantId)
+                        : PostgreSqlConnection.getInstance().getShardSession(shards.get(i));
+                exported += conn.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, out);
+
+            } catch (SQLException sqlException) {
+                fdfLog.warn("Error occurred exporting {}:::", c.getSimpleName());
+                fdfLog.warn("SQL error \nCode: {},\nState: {}\nMessage" +
+                                ": {}\n", sqlException.getErrorCode(), sqlException.getSQLState(),
+                        sqlException.getMessage());
+                throw sqlException;
+
+            } finally {
+                closeQuietly(null, null, conn);
+            }
+        }
+        out.flush();
+
+        return exported;
+    }
+
+    /**
+     * COPY TO STDOUT statements of an export, one per shard read.  Only the first one writes the CSV header row, so
+     * the shards concatenate into one CSV file.
+     *
+     * @throws IllegalArgumentException if a binary export would read more than one shard, binary COPY output has a
+     * header and trailer per statement and can not be concatenated
+     */
+    static List<String> getExportSql(Class c, SqlStatement sqlStatement, DatabaseUtil.ExportFormat format,
+                                     int shardCount) {
+        if (shardCount > 1 && format == DatabaseUtil.ExportFormat.BINARY) {
+            throw new IllegalArgumentException("A binary export can only read one shard, filter on a tenant (tid)");
+        }
+
+        String query = sqlStatement.getSelect() + " FROM " + getTableName(c, sqlStatement.getScope())
+                + sqlStatement.getWhere() + sqlStatement.getGroupBy() + sqlStatement.getOrderBy()
+                + sqlStatement.getLimit();
+
+        List<String> sql = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            sql.add("COPY (" + query + ") TO STDOUT (FORMAT "
+                    + (format == DatabaseUtil.ExportFormat.BINARY ? "binary" : "csv, HEADER " + (i == 0)) + ")");
+        }
+        return sql;
+    }
+
     static String getFieldNameAndDataType(Field field) {
         String sql = "";
 
@@ -1475,6 +2790,49 @@ public class CorePostgreSqlQueries implements CorePersistenceImpl {
         return sql;
     }
 
+    static String getCreateIndexSql(Class c, String... columns) {
+        return getCreateIndexSql(c.getSimpleName().toLowerCase(), columns);
+    }
+
+    static String getCreateIndexSql(String table, String... columns) {
+        return "CREATE INDEX IF NOT EXISTS \"" + table + "_" + String.join("_", columns) + "_idx\" ON \""
+                + table + "\" (" + String.join(", ", columns) + ");";
+    }
+
+    static String getCreateSplitViewSql(String table, boolean replace) {
+        return "CREATE " + (replace ? "OR REPLACE " : "") + "VIEW \"" + table + "\" AS SELECT * FROM \"" + table
+                + "_current\" UNION ALL SELECT * FROM \"" + table + "_history\"";
+    }
+
+    /**
+     * Names of the tables the states of the passed class are stored in, the current and history tables when
+     * HISTORY_STORAGE is SPLIT_TABLES, otherwise the single table named after the class.
+     */
+    static List<String> getStorageTables(Class c) {
+        String table = c.getSimpleName().toLowerCase();
+        if (FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.SPLIT_TABLES) {
+            return Arrays.asList(table + "_current", table + "_history");
+        }
+        return Collections.singletonList(table);
+    }
+
+    /**
+     * Quoted name of the table or view to read for the passed scope.  With SPLIT_TABLES storage current and history
+     * scoped statements go straight to their table and everything else reads the view over both.
+     */
+    static String getTableName(Class c, SqlStatement.Scope scope) {
+        String table = c.getSimpleName().toLowerCase();
+        if (FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.SPLIT_TABLES) {
+            if (scope == SqlStatement.Scope.CURRENT) {
+                table += "_current";
+            }
+            else if (scope == SqlStatement.Scope.HISTORY) {
+                table += "_history";
+            }
+        }
+        return "\"" + table + "\"";
+    }
+
     static String parseWhere(List<WhereClause> where) {
         // If where clauses were passed, add them to the sql statement
         String sql = "";
@@ -0,0 +1,228 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.queries;
+
+import com.fdflib.annotation.FdfIgnore;
+import com.fdflib.util.FdfUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes model states in the PostgreSQL binary COPY format.  Every field is encoded for the column type
+ * CorePostgreSqlQueries.getFieldNameAndDataType creates for it, so the values read back exactly as if the state had
+ * been inserted.  rid is never written, the table assigns it.
+ */
+class PostgreSqlBinaryCopy {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+    private static final LocalDateTime PG_EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+    private static final short NUMERIC_POS = 0x0000;
+    private static final short NUMERIC_NEG = 0x4000;
+
+    private PostgreSqlBinaryCopy() {}
+
+    /**
+     * Fields of the class written by a copy, in column order.
+     */
+    static List<Field> getCopyFields(Class c) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : c.getFields()) {
+            if (!field.isAnnotationPresent(FdfIgnore.class) && !field.getName().equalsIgnoreCase("rid")) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    static String getCopySql(String table, List<Field> fields) {
+        List<String> columns = new ArrayList<>();
+        for (Field field : fields) {
+            columns.add(field.getName().toLowerCase());
+        }
+        return "COPY \"" + table + "\" (" + String.join(", ", columns) + ") FROM STDIN (FORMAT binary)";
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(SIGNATURE);
+        // flags and header extension length
+        out.writeInt(0);
+        out.writeInt(0);
+    }
+
+    static void writeTrailer(DataOutputStream out) throws IOException {
+        out.writeShort(-1);
+    }
+
+    static void writeRow(DataOutputStream out, List<Field> fields, Object state) throws IOException {
+        out.writeShort(fields.size());
+        for (Field field : fields) {
+            byte[] value = null;
+            try {
+                value = encode(field, field.get(state));
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            }
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+    }
+
+    /**
+     * Binary representation of a field value, null for a SQL NULL.
+     */
+    static byte[] encode(Field field, Object value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        Class<?> type = field.getType();
+
+        if (type == String.class || type == UUID.class || type.isEnum()) {
+            return value.toString().getBytes(StandardCharsets.UTF_8);
+        } else if (type == int.class || type == Integer.class) {
+            out.writeInt((Integer) value);
+        } else if (type == long.class || type == Long.class) {
+            out.writeLong((Long) value);
+        } else if (type == double.class || type == Double.class) {
+            out.writeDouble((Double) value);
+        } else if (type == float.class || type == Float.class) {
+            out.writeFloat((Float) value);
+        } else if (type == BigDecimal.class) {
+            writeNumeric(out, (BigDecimal) value);
+        } else if (type == boolean.class || type == Boolean.class) {
+            out.writeBoolean((Boolean) value);
+        } else if (type == Date.class) {
+            out.writeLong(toTimestamp((Date) value));
+        } else if (type == char.class || type == Character.class) {
+            // same as insert, anything but a letter or digit is stored as null
+            char character = value.toString().isEmpty() ? 0 : value.toString().charAt(0);
+            if (!Character.isLetterOrDigit(character)) {
+                return null;
+            }
+            return String.valueOf(character).getBytes(StandardCharsets.UTF_8);
+        } else if (Class.class.isAssignableFrom(type)) {
+            return FdfUtil.getClassName(value.toString()).getBytes(StandardCharsets.UTF_8);
+        } else if (isTextList(field)) {
+            return value.toString().getBytes(StandardCharsets.UTF_8);
+        } else {
+            // serialized objects are stored base64 encoded, as insert does
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                oos.writeObject(value);
+            }
+            return Base64.getEncoder().encode(baos.toByteArray());
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static boolean isTextList(Field field) {
+        if (!(field.getGenericType() instanceof ParameterizedType)) {
+            return false;
+        }
+        ParameterizedType pt = (ParameterizedType) field.getGenericType();
+        if (pt.getActualTypeArguments().length != 1) {
+            return false;
+        }
+        String argument = pt.getActualTypeArguments()[0].toString();
+        for (String simple : new String[] {"Long", "long", "Integer", "int", "Double", "double", "Float", "float",
+                "boolean", "Boolean", "String"}) {
+            if (argument.contains(simple)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Microseconds since 2000-01-01 in the local time zone, the binary form of a TIMESTAMP (without time zone)
+     * column, matching what setTimestamp stores.
+     */
+    static long toTimestamp(Date date) {
+        LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(date.getTime()), ZoneId.systemDefault());
+        return ChronoUnit.MICROS.between(PG_EPOCH, local);
+    }
+
+    /**
+     * NUMERIC in binary form: digit count, weight of the first digit, sign and display scale followed by the base
+     * 10000 digits.
+     */
+    static void writeNumeric(DataOutputStream out, BigDecimal value) throws IOException {
+        int scale = Math.max(value.scale(), 0);
+        String plain = value.abs().setScale(scale).toPlainString();
+        int dot = plain.indexOf('.');
+        String integer = dot < 0 ? plain : plain.substring(0, dot);
+        String fraction = dot < 0 ? "" : plain.substring(dot + 1);
+
+        // pad both parts to whole base 10000 digits
+        StringBuilder padded = new StringBuilder();
+        for (int i = 0; i < (4 - integer.length() % 4) % 4; i++) {
+            padded.append('0');
+        }
+        padded.append(integer).append(fraction);
+        for (int i = 0; i < (4 - fraction.length() % 4) % 4; i++) {
+            padded.append('0');
+        }
+
+        List<Short> digits = new ArrayList<>();
+        for (int i = 0; i < padded.length(); i += 4) {
+            digits.add(Short.parseShort(padded.substring(i, i + 4)));
+        }
+        int weight = (integer.length() + 3) / 4 - 1;
+        while (!digits.isEmpty() && digits.get(0) == 0) {
+            digits.remove(0);
+            weight--;
+        }
+        while (!digits.isEmpty() && digits.get(digits.size() - 1) == 0) {
+            digits.remove(digits.size() - 1);
+        }
+        if (digits.isEmpty()) {
+            weight = 0;
+        }
+
+        out.writeShort(digits.size());
+        out.writeShort(weight);
+        out.writeShort(value.signum() < 0 ? NUMERIC_NEG : NUMERIC_POS);
+        out.writeShort(scale);
+        for (short digit : digits) {
+            out.writeShort(digit);
+        }
+    }
+}
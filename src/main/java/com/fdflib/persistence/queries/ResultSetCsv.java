@@ -0,0 +1,81 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+
+package com.fdflib.persistence.queries;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes a result set as CSV for the databases without COPY TO, in the layout PostgreSQL uses: a header row with the
+ * column names, fields quoted only when they contain the delimiter, a quote or a line break, and null as an empty
+ * unquoted field.  Values are the database's text representation of the column.
+ */
+final class ResultSetCsv {
+
+    private ResultSetCsv() {}
+
+    /**
+     * Writes the header row and every remaining row of the result set, the stream is flushed but not closed.
+     *
+     * @return number of rows written, without the header
+     */
+    static long write(ResultSet rs, OutputStream out) throws SQLException, IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        int columns = rs.getMetaData().getColumnCount();
+
+        for (int column = 1; column <= columns; column++) {
+            if (column > 1) {
+                writer.write(',');
+            }
+            writer.write(quote(rs.getMetaData().getColumnLabel(column)));
+        }
+        writer.write('\n');
+
+        long rows = 0;
+        while (rs.next()) {
+            for (int column = 1; column <= columns; column++) {
+                if (column > 1) {
+                    writer.write(',');
+                }
+                String value = rs.getString(column);
+                if (value != null) {
+                    writer.write(quote(value));
+                }
+            }
+            writer.write('\n');
+            rows++;
+        }
+        writer.flush();
+        return rows;
+    }
+
+    static String quote(String value) {
+        if (value.isEmpty()) {
+            // an empty string has to be told apart from null
+            return "\"\"";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -18,9 +18,11 @@ package com.fdflib.service;
 
 import com.fdflib.model.state.FdfSystem;
 import com.fdflib.model.state.FdfTenant;
+import com.fdflib.persistence.FdfPartitionManager;
 import com.fdflib.persistence.FdfPersistence;
 import com.fdflib.persistence.database.DatabaseUtil;
 import com.fdflib.util.FdfSettings;
+import com.fdflib.util.FdfUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -106,12 +108,25 @@ public class FdfServices {
             fdfLog.info("Database schema name: {}", settings.DB_NAME);
             fdfLog.info("--------------------------------------------------------------");
             try {
-                if(settings.USE_DB_ROOT) {
-                    FdfPersistence.getInstance().checkDatabase();
+                // skip verification when the schema was already verified for this exact model
+                String fingerprint = FdfUtil.getModelFingerprint(FdfSettings.getInstance().modelClasses);
+                if(settings.SKIP_VERIFIED_SCHEMA
+                        && fingerprint.equals(FdfPersistence.getInstance().getSchemaFingerprint())) {
+                    fdfLog.info("Data model unchanged since last verification ({}), skipping schema checks",
+                            fingerprint.substring(0, 12));
+                }
+                else {
+                    if(settings.USE_DB_ROOT) {
+                        FdfPersistence.getInstance().checkDatabase();
+                    }
+                    // tables, fields and indexes are verified together
+                    FdfPersistence.getInstance().checkSchema();
+                    FdfPersistence.getInstance().checkDefaultEntries();
+                    FdfPersistence.getInstance().setSchemaFingerprint(fingerprint);
+                }
+                if(FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.PARTITIONED) {
+                    FdfPartitionManager.getInstance().start();
                 }
-                FdfPersistence.getInstance().checkTables();
-                FdfPersistence.getInstance().checkFields();
-                FdfPersistence.getInstance().checkDefaultEntries();
             } catch (SQLException e) {
                 e.printStackTrace();
             }
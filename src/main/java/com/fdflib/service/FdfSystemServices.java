@@ -22,28 +22,72 @@ import com.fdflib.model.util.SqlStatement;
 import com.fdflib.model.util.WhereClause;
 import com.fdflib.persistence.FdfPersistence;
 import com.fdflib.service.impl.FdfCommonServices;
+import com.fdflib.util.FdfSettings;
 
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by brian.gormanly on 8/22/15.
  */
 public class FdfSystemServices extends FdfCommonServices {
 
+    // prefix of passwords hashed with hashPasswordSalted: pbkdf2$<iterations>$<base64 salt>$<base64 hash>
+    static final String SALTED_HASH_PREFIX = "pbkdf2$";
+    private static final String SALTED_HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    // credentials of the systems that authenticated recently, by system id
+    private static final Map<Long, Credential> credentials = new ConcurrentHashMap<>();
+
+    private static class Credential {
+        final String storedPassword;
+        final long loaded;
+        // SHA-256 of the last password that matched a salted hash, so the hash is not recomputed on every call
+        volatile byte[] verified;
+
+        Credential(String storedPassword) {
+            this.storedPassword = storedPassword;
+            this.loaded = System.currentTimeMillis();
+        }
+    }
+
     public FdfEntity<FdfSystem> saveSystem(FdfSystem systemState) {
-        return save(FdfSystem.class, systemState);
+        try {
+            return save(FdfSystem.class, systemState);
+        } finally {
+            credentials.remove(systemState.id);
+        }
     }
 
     public FdfEntity<FdfSystem> deleteSystem(long userId, long tenantId, long callingUserId, long callingSystemId) {
-        return setDeleteFlag(FdfSystem.class, userId, callingUserId, callingSystemId, tenantId);
+        try {
+            return setDeleteFlag(FdfSystem.class, userId, callingUserId, callingSystemId, tenantId);
+        } finally {
+            credentials.remove(userId);
+        }
     }
 
     public FdfEntity<FdfSystem> unDeleteSystem(long userId, long tenantId, long callingUserId, long callingSystemId) {
-        return removeDeleteFlag(FdfSystem.class, userId, callingUserId, callingSystemId, tenantId);
+        try {
+            return removeDeleteFlag(FdfSystem.class, userId, callingUserId, callingSystemId, tenantId);
+        } finally {
+            credentials.remove(userId);
+        }
     }
 
     public List<FdfSystem> getAllSystems() {
@@ -78,7 +122,7 @@ public class FdfSystemServices extends FdfCommonServices {
     }
 
     public FdfSystem getDefaultSystem() {
-        return getDefaultSystemWithHistory().current;
+        return getSystemById(1);
     }
 
     public FdfEntity<FdfSystem> getDefaultSystemWithHistory() {
@@ -190,18 +234,103 @@ public class FdfSystemServices extends FdfCommonServices {
         return sb.toString();
     }
 
+    /**
+     * Hashes a SHA-256 hashed password (see hashPassword) again with a random salt and PBKDF2, for storing in
+     * FdfSystem.sha256EncodedPassword instead of the plain SHA-256 hash.  Systems still authenticate with the SHA-256
+     * hashed password.
+     *
+     * @param sha256EncryptedPassword SHA-256 hashed password
+     * @return salted hash in the format pbkdf2$iterations$salt$hash
+     */
+    public String hashPasswordSalted(String sha256EncryptedPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        int iterations = FdfSettings.PASSWORD_HASH_ITERATIONS;
+        return SALTED_HASH_PREFIX + iterations + "$" + Base64.getEncoder().encodeToString(salt) + "$"
+                + Base64.getEncoder().encodeToString(pbkdf2(sha256EncryptedPassword, salt, iterations));
+    }
+
     /**
      * Checks the passed system Id and SHA-256 hashed password against the system record, returns a true
-     * if the credentials are correct and false otherwise.
+     * if the credentials are correct and false otherwise.  The stored password can be the SHA-256 hash or a salted
+     * hash from hashPasswordSalted, either is compared in constant time.
+     *
+     * The credentials are cached for SYSTEM_CREDENTIAL_CACHE_SECONDS, so most calls do not touch the database.
      *
      * @param systemId System ID to check authentication for
      * @param sha256EncryptedPassword Tenant password (must be SHA-256 hashed) to check authentication for
      * @return True if authentication attempt is successful, false otherwise.
      */
     public Boolean authenticateSystem(long systemId, String sha256EncryptedPassword) {
-        //compare the password hashes
-        FdfEntity<FdfSystem> system = getEntityById(FdfSystem.class, systemId);
-        return Boolean.valueOf(system != null && system.current != null && system.current.sha256EncodedPassword.equals(sha256EncryptedPassword));
+        if(sha256EncryptedPassword == null) {
+            return false;
+        }
+
+        Credential credential = credentials.get(systemId);
+        if(credential == null
+                || System.currentTimeMillis() - credential.loaded > FdfSettings.SYSTEM_CREDENTIAL_CACHE_SECONDS * 1000L) {
+            FdfSystem system = getEntityCurrentById(FdfSystem.class, systemId);
+            if(system == null || system.df || system.sha256EncodedPassword == null) {
+                credentials.remove(systemId);
+                return false;
+            }
+            credential = new Credential(system.sha256EncodedPassword);
+            credentials.put(systemId, credential);
+        }
+
+        if(!credential.storedPassword.startsWith(SALTED_HASH_PREFIX)) {
+            return MessageDigest.isEqual(credential.storedPassword.getBytes(StandardCharsets.UTF_8),
+                    sha256EncryptedPassword.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] digest = sha256(sha256EncryptedPassword);
+        byte[] verified = credential.verified;
+        if(verified != null && MessageDigest.isEqual(verified, digest)) {
+            return true;
+        }
+        if(verifySaltedHash(credential.storedPassword, sha256EncryptedPassword)) {
+            credential.verified = digest;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks a SHA-256 hashed password against a salted hash from hashPasswordSalted in constant time.
+     */
+    static boolean verifySaltedHash(String saltedHash, String sha256EncryptedPassword) {
+        String[] parts = saltedHash.substring(SALTED_HASH_PREFIX.length()).split("\\$");
+        if(parts.length != 3) {
+            fdfLog.warn("Stored password is not a valid salted hash");
+            return false;
+        }
+        try {
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] hash = Base64.getDecoder().decode(parts[2]);
+            return MessageDigest.isEqual(hash, pbkdf2(sha256EncryptedPassword, salt, Integer.parseInt(parts[0])));
+        } catch (IllegalArgumentException e) {
+            fdfLog.warn("Stored password is not a valid salted hash: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(SALTED_HASH_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException("Could not hash password with " + SALTED_HASH_ALGORITHM, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
 }
@@ -23,6 +23,7 @@ import com.fdflib.model.util.WhereClause;
 import com.fdflib.persistence.FdfPersistence;
 import com.fdflib.service.impl.FdfCommonServices;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -58,7 +59,7 @@ public class FdfTenantServices extends FdfCommonServices {
     }
 
     public FdfTenant getTenantById(long tenantId) {
-        return getTenantByIdWithHistory(tenantId).current;
+        return (tenantId > 0 ? getEntityCurrentById(FdfTenant.class, tenantId) : null);
     }
 
     public FdfEntity<FdfTenant> getTenantByIdWithHistory(long tenantId) {
@@ -129,4 +130,23 @@ public class FdfTenantServices extends FdfCommonServices {
         return returnEntity;
     }
 
+    /**
+     * Moves a tenant and all of its data to another shard (database) listed in FdfSettings.DB_SHARDS, or back to
+     * DB_HOST with FdfShardMap.DEFAULT_SHARD.  Stop writing to the tenant while it is moved.  If the tenant's data
+     * could not be removed from its old shard after the move, calling this again with the same shard removes it.
+     *
+     * @param tenantId id of the tenant to move
+     * @param shard name of the target shard
+     * @return true if the tenant is now stored on the target shard
+     */
+    public boolean moveTenantToShard(long tenantId, String shard) {
+        try {
+            FdfPersistence.getInstance().moveTenant(tenantId, shard);
+            return true;
+        } catch (SQLException e) {
+            fdfLog.warn("Tenant {} was not moved to shard {}: {}", tenantId, shard, e.getMessage());
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,135 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.service.feed;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.persistence.connection.FdfShardMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cursor over every state of a model class in rid order, for consumers outside this process that need to tail the
+ * 4DF tables (ETL, search indexes).  Each call to next returns the states with a rid greater then the checkpoint, at
+ * most batchSize of them, and moves the checkpoint to the last rid returned.  Store getCheckpoint after processing a
+ * batch and pass it back to the constructor to resume.
+ *
+ * Reads are a range scan of the rid primary key.  New versions of an entity always get a new rid, closing the
+ * previous version does not, the new version is the record of that change.  rids are assigned when a row is
+ * inserted, so a save still in flight can commit a lower rid then one already returned, consumers that can not
+ * tolerate that should stay a few seconds behind (see setMinimumAge).
+ *
+ * When tenants are spread over shards (FdfSettings.DB_SHARDS) each shard has its own rids, so a stream has to be
+ * limited to one tenant with forTenant.  A tenant keeps its rids when it is moved to another shard, but its new
+ * states then get rids from the range of that shard, restart the stream from 0 if that range is lower.
+ *
+ * @param <S> Type of entity state
+ */
+public class ChangeStream<S extends CommonState> {
+
+    private final Class<S> entityState;
+    private final int batchSize;
+    private long checkpoint;
+    private Long tenantId = null;
+    private long minimumAgeMillis = 0;
+
+    public ChangeStream(Class<S> entityState, int batchSize) {
+        this(entityState, 0, batchSize);
+    }
+
+    public ChangeStream(Class<S> entityState, long checkpoint, int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.entityState = entityState;
+        this.checkpoint = checkpoint;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Limits the stream to the states of one tenant.
+     *
+     * @param tenantId tenant to stream
+     * @return this stream
+     */
+    public ChangeStream<S> forTenant(long tenantId) {
+        this.tenantId = tenantId;
+        return this;
+    }
+
+    /**
+     * Holds the stream back until states are at least the passed number of milliseconds old, gives saves in flight
+     * time to commit before the checkpoint moves past them.
+     *
+     * @param minimumAgeMillis minimum age of a state before it is returned
+     * @return this stream
+     */
+    public ChangeStream<S> setMinimumAge(long minimumAgeMillis) {
+        this.minimumAgeMillis = minimumAgeMillis;
+        return this;
+    }
+
+    /**
+     * Returns the next batch of states after the checkpoint and advances the checkpoint, an empty list when the
+     * consumer has caught up.
+     *
+     * @return up to batchSize states in rid order
+     * @throws UnsupportedOperationException if the tenants are sharded and the stream is not limited to one tenant
+     */
+    public List<S> next() {
+        if(tenantId == null && FdfShardMap.getInstance().isSharded()) {
+            // a statement without a tenant only reads the default shard
+            throw new UnsupportedOperationException("A change stream of " + entityState.getSimpleName()
+                    + " can not span shards, stream it tenant by tenant with forTenant");
+        }
+        SqlStatement statement = SqlStatement.build().seekAfterRid(checkpoint, batchSize);
+        if(tenantId != null) {
+            WhereClause whereTid = new WhereClause();
+            whereTid.name = "tid";
+            whereTid.operator = WhereClause.Operators.EQUAL;
+            whereTid.value = Long.toString(tenantId);
+            whereTid.valueDataType = Long.class;
+            statement.where(whereTid);
+        }
+
+        List<S> batch = statement.runPage(entityState).results;
+        if(minimumAgeMillis > 0) {
+            // stop at the first state that is too young, nothing after it is returned until it is old enough
+            long cutoff = System.currentTimeMillis() - minimumAgeMillis;
+            for(int b = 0; b < batch.size(); b++) {
+                if(batch.get(b).arsd != null && batch.get(b).arsd.getTime() > cutoff) {
+                    batch = new ArrayList<>(batch.subList(0, b));
+                    break;
+                }
+            }
+        }
+        if(!batch.isEmpty()) {
+            checkpoint = batch.get(batch.size() - 1).rid;
+        }
+        return batch;
+    }
+
+    /**
+     * rid of the last state returned, the resumable position of the stream.
+     *
+     * @return checkpoint
+     */
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+}
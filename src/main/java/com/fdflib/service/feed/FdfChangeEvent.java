@@ -0,0 +1,72 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.service.feed;
+
+import java.util.Date;
+
+/**
+ * A change to an entity published by the change feed after a save (including setting or removing the delete flag)
+ * has been committed.  oldRid is the rid of the state that was superseded, -1 for a new entity.
+ */
+public class FdfChangeEvent {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED, UNDELETED
+    }
+
+    public final Class entityState;
+    public final long tenantId;
+    public final long id;
+    public final long oldRid;
+    public final long newRid;
+    public final Type type;
+    public final Date changed;
+
+    public FdfChangeEvent(Class entityState, long tenantId, long id, long oldRid, long newRid, Type type,
+                          Date changed) {
+        this.entityState = entityState;
+        this.tenantId = tenantId;
+        this.id = id;
+        this.oldRid = oldRid;
+        this.newRid = newRid;
+        this.type = type;
+        this.changed = changed;
+    }
+
+    /**
+     * Works out the type of change from the delete flags of the superseded and new states.
+     *
+     * @param hadPrevious whether there was a previous current state
+     * @param wasDeleted delete flag of the previous state
+     * @param isDeleted delete flag of the new state
+     * @return type of change
+     */
+    public static Type typeOf(boolean hadPrevious, boolean wasDeleted, boolean isDeleted) {
+        if(!hadPrevious) {
+            return isDeleted ? Type.DELETED : Type.CREATED;
+        }
+        if(isDeleted != wasDeleted) {
+            return isDeleted ? Type.DELETED : Type.UNDELETED;
+        }
+        return Type.UPDATED;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + entityState.getSimpleName() + " tid: " + tenantId + " id: " + id + " rid: " + oldRid
+                + " -> " + newRid;
+    }
+}
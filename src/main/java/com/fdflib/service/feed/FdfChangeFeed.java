@@ -0,0 +1,120 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.service.feed;
+
+import com.fdflib.util.FdfSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In process change feed.  Saves publish an FdfChangeEvent into a bounded buffer (FdfSettings.CHANGE_FEED_CAPACITY)
+ * and a daemon thread delivers them to the registered listeners in batches of up to CHANGE_FEED_BATCH_SIZE, so
+ * saving never waits on a listener.
+ *
+ * When the buffer is full the oldest event is dropped to make room, getDroppedCount lets a listener detect that it
+ * missed changes and has to resynchronize.  Events are only published while there is at least one listener.
+ */
+public class FdfChangeFeed {
+
+    private static final Logger fdfLog = LoggerFactory.getLogger(FdfChangeFeed.class);
+    private static final FdfChangeFeed INSTANCE = new FdfChangeFeed();
+
+    private final List<FdfChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong dropped = new AtomicLong();
+    // created by the first listener, publish reads it without locking
+    private volatile BlockingQueue<FdfChangeEvent> buffer = null;
+    private Thread deliveryThread = null;
+
+    FdfChangeFeed() { }
+
+    public static FdfChangeFeed getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void addListener(FdfChangeListener listener) {
+        if(buffer == null) {
+            buffer = new ArrayBlockingQueue<>(FdfSettings.CHANGE_FEED_CAPACITY);
+            deliveryThread = new Thread(this::deliver, "fdf-change-feed");
+            deliveryThread.setDaemon(true);
+            deliveryThread.start();
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(FdfChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Number of events dropped because the buffer was full since the feed started.
+     *
+     * @return dropped event count
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Publishes a change, does not block.
+     *
+     * @param event change to publish
+     */
+    public void publish(FdfChangeEvent event) {
+        BlockingQueue<FdfChangeEvent> buffer = this.buffer;
+        if(buffer == null || listeners.isEmpty()) {
+            return;
+        }
+        while(!buffer.offer(event)) {
+            if(buffer.poll() != null && dropped.incrementAndGet() % FdfSettings.CHANGE_FEED_CAPACITY == 1) {
+                fdfLog.warn("Change feed buffer is full, dropping oldest events ({} dropped so far)", dropped.get());
+            }
+        }
+    }
+
+    private void deliver() {
+        List<FdfChangeEvent> batch = new ArrayList<>(FdfSettings.CHANGE_FEED_BATCH_SIZE);
+        while(!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(buffer.take());
+                buffer.drainTo(batch, FdfSettings.CHANGE_FEED_BATCH_SIZE - 1);
+
+                List<FdfChangeEvent> delivered = new ArrayList<>(batch);
+                for(FdfChangeListener listener : listeners) {
+                    try {
+                        listener.onChanges(delivered);
+                    } catch (RuntimeException e) {
+                        // one failing listener must not stop delivery to the others
+                        fdfLog.warn("Change listener failed", e);
+                    }
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
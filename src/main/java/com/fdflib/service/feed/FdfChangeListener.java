@@ -0,0 +1,29 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.service.feed;
+
+import java.util.List;
+
+/**
+ * Receives batches of change events from FdfChangeFeed.  Called on the feed's delivery thread, events are in the
+ * order they were published.
+ */
+@FunctionalInterface
+public interface FdfChangeListener {
+
+    void onChanges(List<FdfChangeEvent> events);
+
+}
@@ -18,15 +18,32 @@ package com.fdflib.service.impl;
 
 import com.fdflib.model.entity.FdfEntity;
 import com.fdflib.model.state.CommonState;
+import com.fdflib.model.state.FdfTenant;
+import com.fdflib.model.util.FdfDiff;
+import com.fdflib.model.util.FdfPage;
+import com.fdflib.model.util.FdfTimeSeries;
 import com.fdflib.model.util.SqlStatement;
 import com.fdflib.model.util.WhereClause;
 import com.fdflib.persistence.FdfPersistence;
+import com.fdflib.persistence.FdfStaleStateException;
+import com.fdflib.persistence.connection.FdfReadRouter;
+import com.fdflib.persistence.connection.FdfShardMap;
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.service.feed.FdfChangeEvent;
+import com.fdflib.service.feed.FdfChangeFeed;
+import com.fdflib.util.FdfSettings;
+import com.fdflib.util.FdfUtil;
 import com.fdflib.util.GeneralConstants;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Universal implementation of the 4DF API, allows querying across all Entity states that extend CommonState.
@@ -38,6 +55,9 @@ import java.util.*;
 public abstract class FdfCommonServices {
     protected final static org.slf4j.Logger fdfLog = LoggerFactory.getLogger(CommonState.class);
 
+    // states read per page when streaming audits across every model class
+    private static final int AUDIT_STREAM_PAGE_SIZE = 500;
+
     /**
      * Save an Entities State to persistence internally manages all insert, update and actions associated with
      * maintaining the correct state of the data in persistence.  Uses the Default FdfTenant (when not using multi-tenant)
@@ -81,32 +101,74 @@ public abstract class FdfCommonServices {
      * @param <S> parameterized type of entity state
      * @return S the saved entity state (without FdfEntity)
      */
+    @SuppressWarnings("try")
     public static <S extends CommonState> S save(S state, Class<S> entityState, long userId, long systemId, long tenantId) {
-        if(state.id <= 0) {
-            //Generate valid id for entity
-            state.id = getNewEntityId(entityState, tenantId);
-        }
-        else {
-            //Get the current record and archive it
-            S lastCurrentEntity = auditEntityCurrentById(entityState, state.id, tenantId);
-            //FdfEntity<S> thisEntity = auditEntityById(entityState, state.id, tenantId);
-            if(lastCurrentEntity != null) {
-                //Mark as inactive
-                lastCurrentEntity.cf = false;
-                //Record inactivity date
-                lastCurrentEntity.ared = Calendar.getInstance().getTime();
-                //Update old state
-                FdfPersistence.getInstance().update(entityState, lastCurrentEntity);
+        // the current state and new id are read from the primary, a lagging replica would make the save conflict
+        try(FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) {
+            S lastCurrentEntity = null;
+            if(state.id <= 0) {
+                //Generate valid id for entity
+                state.id = getNewEntityId(entityState, tenantId);
             }
+            else {
+                //Get the current record to archive it
+                lastCurrentEntity = auditEntityCurrentById(entityState, state.id, tenantId);
+            }
+            //Archive the old state and insert the new one together, then return it
+            long returnedRid = writeState(entityState, state, lastCurrentEntity, -1, userId, systemId, tenantId);
+            return (returnedRid > 0 ? auditEntityByRid(entityState, returnedRid, tenantId) : null);
+        }
+    }
+
+    /**
+     * Asynchronous save through the write-behind queue (see FdfWriteBehindQueue), for models that are saved at a high
+     * rate.  The returned future completes with the saved state when it has been committed.
+     *
+     * When FdfSettings.WRITE_BEHIND_COALESCE is on, saves of the same entity queued before the next flush are
+     * coalesced and only the last one is written.  The futures of every coalesced save then complete with that last
+     * state, a state the caller did not write (its data and rid are those of the save that replaced it), and the
+     * states they passed are never recorded in history.
+     *
+     * @param state state to save
+     * @param entityState State Type to save
+     * @param userId Id of user that is saving the state
+     * @param systemId Id of system that is saving the state
+     * @param tenantId Id of tenant this entity is associated with
+     * @param <S> parameterized type of entity state
+     * @return future completed with the saved state (without FdfEntity)
+     */
+    public static <S extends CommonState> CompletableFuture<S> saveAsync(S state, Class<S> entityState, long userId,
+                                                                         long systemId, long tenantId) {
+        return FdfWriteBehindQueue.getInstance().enqueue(entityState, state, userId, systemId, tenantId);
+    }
+
+    /**
+     * Asynchronous save through the write-behind queue, assumes that the object contains the userId, systemId and
+     * tenantId saving the data in the euid, esid, and tid respectively.
+     *
+     * @param state state to save
+     * @param entityState State Type to save
+     * @param <S> parameterized type of entity state
+     * @return future completed with the saved state (without FdfEntity)
+     */
+    public static <S extends CommonState> CompletableFuture<S> saveAsync(S state, Class<S> entityState) {
+        return saveAsync(state, entityState, state.euid, state.esid, state.tid);
+    }
+
+    protected static <S extends CommonState> boolean isUnchanged(Class<S> entityState, S currentState, S state) {
+        return FdfSettings.SKIP_UNCHANGED_SAVES && currentState != null
+                && FdfUtil.hasSameData(entityState, currentState, state);
+    }
+
+    protected static <S extends CommonState> void publishChange(Class<S> entityState, S previousState, S newState,
+                                                                long newRid) {
+        FdfChangeFeed feed = FdfChangeFeed.getInstance();
+        if(newRid > 0 && feed.hasListeners()) {
+            feed.publish(new FdfChangeEvent(entityState, newState.tid, newState.id,
+                    previousState != null ? previousState.rid : -1, newRid,
+                    FdfChangeEvent.typeOf(previousState != null, previousState != null && previousState.df,
+                            newState.df), newState.arsd));
         }
-        //Set generic fields for new record, save entity, then return it.
-        state.arsd = Calendar.getInstance().getTime();
-        state.ared = null;
-        state.cf = true;
-        state.euid = userId;
-        state.esid = systemId;
-        state.tid = tenantId;
-        return auditEntityByRid(entityState, FdfPersistence.getInstance().insert(entityState, state));
     }
 
     /**
@@ -152,47 +214,131 @@ public abstract class FdfCommonServices {
      * @param <S> parameterized type of entity state
      * @return FdfEntity that contains current and historical states for the saved entity
      */
+    @SuppressWarnings("try")
     public static <S extends CommonState> FdfEntity<S> save(Class<S> entityState, S state, long userId, long systemId, long tenantId) {
-        // set the common meta fields for the new record
-        state.arsd = Calendar.getInstance().getTime();
-        state.ared = null;
-        state.cf = true;
-        state.euid = userId;
-        state.esid = systemId;
-        state.tid = tenantId;
-        // check to see if this if an id is assigned (existing vs new entity)
-        if(state.id <= 0) {
-            // if this is a new entity, get an id for it
-            state.id = getNewEntityId(entityState, tenantId);
-            if(state.id < 0) {
+        try(FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) {
+            // check to see if this if an id is assigned (existing vs new entity)
+            if(state.id <= 0) {
+                // if this is a new entity, get an id for it
+                state.id = getNewEntityId(entityState, tenantId);
+                if(state.id < 0) {
+                    return new FdfEntity<>();
+                }
+            }
+            // move the previous current state to history and save the new state as current in one transaction
+            long returnedRid = writeState(entityState, state, auditEntityCurrentById(entityState, state.id, tenantId), -1,
+                    userId, systemId, tenantId);
+            if(returnedRid < 0) {
                 return new FdfEntity<>();
             }
+            // get the entity and return
+            return auditEntityById(entityState, state.id, tenantId);
         }
-        // get full entity for state
-        FdfEntity<S> thisEntity = auditEntityById(entityState, state.id, tenantId);
-        // check to see if there is an existing entity, if not, create
-        if(thisEntity == null) {
-            thisEntity = new FdfEntity<>();
+    }
+
+    /**
+     * Save an Entities State only if the entity has not been saved by someone else since it was read (optimistic
+     * concurrency).  expectedRid is the rid of the current state the change is based on, 0 for a new entity.  If the
+     * current state in persistence has a different rid, or another writer closes it while this save is running, the
+     * save writes nothing and throws FdfStaleStateException.  Saves of different entities never wait on each other.
+     *
+     * This method signature assumes that the object contains the userId, systemId and tenantId saving the data in the
+     * euid, esid, and tid respectively.
+     *
+     * @param entityState State Type to save
+     * @param state state to save
+     * @param expectedRid rid of the current state the saved state is based on
+     * @param <S> parameterized type of entity state
+     * @return FdfEntity that contains current and historical states for the saved entity
+     * @throws FdfStaleStateException if the current state is no longer the expected one
+     */
+    public static <S extends CommonState> FdfEntity<S> saveIfCurrent(Class<S> entityState, S state, long expectedRid) {
+        return saveIfCurrent(entityState, state, expectedRid, state.euid, state.esid, state.tid);
+    }
+
+    /**
+     * Save an Entities State only if the entity has not been saved by someone else since it was read (optimistic
+     * concurrency).  Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState State Type to save
+     * @param state state to save
+     * @param expectedRid rid of the current state the saved state is based on, 0 for a new entity
+     * @param userId Id of user that is saving the state
+     * @param systemId Id of system that is saving the state
+     * @param tenantId Id of tenant this entity is associated with
+     * @param <S> parameterized type of entity state
+     * @return FdfEntity that contains current and historical states for the saved entity
+     * @throws FdfStaleStateException if the current state is no longer the expected one
+     */
+    @SuppressWarnings("try")
+    public static <S extends CommonState> FdfEntity<S> saveIfCurrent(Class<S> entityState, S state, long expectedRid,
+                                                                     long userId, long systemId, long tenantId) {
+        try(FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) {
+            S currentState = null;
+            if(state.id <= 0) {
+                if(expectedRid > 0) {
+                    throw new FdfStaleStateException(entityState, state.id, expectedRid);
+                }
+                state.id = getNewEntityId(entityState, tenantId);
+            }
+            else {
+                currentState = auditEntityCurrentById(entityState, state.id, tenantId);
+            }
+            long returnedRid = writeState(entityState, state, currentState, Math.max(expectedRid, 0), userId, systemId,
+                    tenantId);
+            if(returnedRid < 0) {
+                return new FdfEntity<>();
+            }
+            return auditEntityById(entityState, state.id, tenantId);
         }
-        // get the previous current record and move to history
-        if(thisEntity.current != null) {
-            S lastCurrentState = thisEntity.current;
-            // set the end date
-            lastCurrentState.ared = Calendar.getInstance().getTime();
-            // set the current flag
-            lastCurrentState.cf = false;
-            // move the state to history
-            FdfPersistence.getInstance().update(entityState, lastCurrentState);
+    }
+
+    /**
+     * Closes the passed current state and inserts the new state in one transaction.  The close only succeeds while
+     * the state is still current, when another writer got there first the save is retried against the new current
+     * state up to SAVE_CONFLICT_RETRIES times, or fails with FdfStaleStateException when an expectedRid was passed.
+     *
+     * @return rid of the written state, of the current state if nothing had changed, -1 if the save failed
+     */
+    private static <S extends CommonState> long writeState(Class<S> entityState, S state, S currentState,
+                                                           long expectedRid, long userId, long systemId,
+                                                           long tenantId) {
+        for(int attempt = 0; ; attempt++) {
+            if(expectedRid > -1 && (currentState != null ? currentState.rid : 0) != expectedRid) {
+                throw new FdfStaleStateException(entityState, state.id, expectedRid);
+            }
+            // nothing to write when the current state already holds this data
+            if(isUnchanged(entityState, currentState, state)) {
+                return currentState.rid;
+            }
+            if(currentState != null) {
+                // set the end date and current flag of the state moving to history
+                currentState.ared = Calendar.getInstance().getTime();
+                currentState.cf = false;
+            }
+            // set the common meta fields for the new record
+            state.arsd = Calendar.getInstance().getTime();
+            state.ared = null;
+            state.cf = true;
+            state.euid = userId;
+            state.esid = systemId;
+            state.tid = tenantId;
+            try {
+                long returnedRid = FdfPersistence.getInstance().insertAndClose(entityState, currentState, state);
+                publishChange(entityState, currentState, state, returnedRid);
+                return returnedRid;
+            } catch (FdfStaleStateException e) {
+                if(expectedRid > -1) {
+                    throw e;
+                }
+                if(attempt >= FdfSettings.SAVE_CONFLICT_RETRIES) {
+                    fdfLog.warn("Save of {} id {} gave up after {} conflicting saves", entityState.getSimpleName(),
+                            state.id, attempt + 1);
+                    return -1;
+                }
+                currentState = auditEntityCurrentById(entityState, state.id, tenantId);
+            }
         }
-        // save the new state as current
-        System.out.println("about to insert!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
-        long returnedRid = FdfPersistence.getInstance().insert(entityState, state);
-        System.out.println(" got back id: " + returnedRid);
-        // get id for rid
-        S entity = auditEntityByRid(entityState, returnedRid);
-        System.out.println("------------------ entitiy back: " + entity.id);
-        // get the entity and return
-        return auditEntityById(entityState, entity.id, tenantId);
     }
 
     /**
@@ -232,18 +378,21 @@ public abstract class FdfCommonServices {
      * @param <S> The parameterized type of the entity
      * @return FdfEntity that contains current and historical states for the saved entity
      */
+    @SuppressWarnings("try")
     public static <S extends CommonState> FdfEntity<S> setDeleteFlag(Class<S> entityState, long id, long userId, long systemId, long tenantId) {
-        if(id > -1) {
-            // get full entity for state
-            FdfEntity<S> thisEntity = auditEntityById(entityState, id, tenantId);
-            // create the new state that will maintain the deletion records from the most recent state available
-            S deletedState = thisEntity.getMostRecentState();
-            // mark the state deleted
-            deletedState.df = true;
-            // save the state
-            return save(entityState, deletedState, userId, systemId, tenantId);
+        try(FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) {
+            if(id > -1) {
+                // get full entity for state
+                FdfEntity<S> thisEntity = auditEntityById(entityState, id, tenantId);
+                // create the new state that will maintain the deletion records from the most recent state available
+                S deletedState = thisEntity.getMostRecentState();
+                // mark the state deleted
+                deletedState.df = true;
+                // save the state
+                return save(entityState, deletedState, userId, systemId, tenantId);
+            }
+            return new FdfEntity<>();
         }
-        return new FdfEntity<>();
     }
 
     /**
@@ -287,43 +436,167 @@ public abstract class FdfCommonServices {
      * @param <S> The parameterized type of the entity
      * @return FdfEntity that contains current and historical states for the saved entity
      */
+    @SuppressWarnings("try")
     public static <S extends CommonState> FdfEntity<S> removeDeleteFlag(Class<S> entityState, long id, long userId, long systemId, long tenantId) {
-        if(id > -1) {
-            // get full entity for state
-            FdfEntity<S> thisEntity = auditEntityById(entityState, id, tenantId);
-            // create the new state that will maintain the deletion records from the most recent state available
-            S deletedState = thisEntity.getMostRecentState();
-            // mark the state deleted
-            deletedState.df = false;
-            // save the state
-            return save(entityState, deletedState, userId, systemId, tenantId);
+        try(FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) {
+            if(id > -1) {
+                // get full entity for state
+                FdfEntity<S> thisEntity = auditEntityById(entityState, id, tenantId);
+                // create the new state that will maintain the deletion records from the most recent state available
+                S deletedState = thisEntity.getMostRecentState();
+                // mark the state deleted
+                deletedState.df = false;
+                // save the state
+                return save(entityState, deletedState, userId, systemId, tenantId);
+            }
+            return new FdfEntity<>();
+        }
+    }
+
+    /**
+     * Loads states straight into persistence without any of the processing save does, for importing history from
+     * another system.  The states are stored exactly as passed, including arsd, ared, cf, euid, esid and tid, so pass
+     * complete timelines: every entity should have exactly one current state (cf true, no ared) and its other states
+     * closed.  rid is assigned by the database.
+     *
+     * @param entityState State Type to load
+     * @param states states to load
+     * @param <S> parameterized type of entity state
+     * @return number of states loaded, -1 if the load failed
+     */
+    public static <S extends CommonState> long bulkLoad(Class<S> entityState, List<S> states) {
+        try {
+            return FdfPersistence.getInstance().bulkLoad(entityState, states);
+        } catch (SQLException e) {
+            fdfLog.warn("Bulk load of {} {} states failed: {}", states.size(), entityState.getSimpleName(),
+                    e.getMessage());
         }
-        return new FdfEntity<>();
+        return -1;
     }
 
     /**
-     * Returns a row (rid) count (equivalent of select count(rid) from ... from the class passed).
+     * Returns a row (rid) count (equivalent of select count(*) from ... from the class passed) across all tenants.
+     * With shards the tenants are counted one at a time on their shards and added up.
      * @param entityState The entity type to query the count for
      * @param <S> parameterized tipe of entity
      * @return long representing teh number of rows in the table
      */
     public static <S extends CommonState> long getRowCount(Class<S> entityState) {
-        CommonState returnedState = SqlStatement.build().select("max(rid) AS rid").run(entityState).stream().findAny().orElse(null);
-        return (returnedState != null ? returnedState.rid : 0);
+        if(FdfShardMap.getInstance().isSharded()) {
+            long count = 0;
+            for(long tenantId : getTenantIds()) {
+                count += getRowCount(entityState, tenantId);
+            }
+            return count;
+        }
+        return SqlStatement.build().count().runForLong(entityState);
+    }
 
-        /*List<S> returnedQuery = FdfPersistence.getInstance().selectQuery(entityState, SqlStatement.build().select("rid"));
-        return (returnedQuery != null ? returnedQuery.size() : 0);*/
+    /**
+     * Returns a row (rid) count, current and historical states, for the tenant passed.
+     * @param entityState The entity type to query the count for
+     * @param tenantId Id of the tenant to count for (Multi-FdfTenant mode)
+     * @param <S> parameterized tipe of entity
+     * @return long representing the number of rows for the tenant
+     */
+    public static <S extends CommonState> long getRowCount(Class<S> entityState, long tenantId) {
+        return SqlStatement.build().count().where(addByTid(tenantId)).runForLong(entityState);
     }
 
     /**
-     * Returns an entity (id) count (equivalent of select count(id) from ... from the class passed).
+     * Returns an entity count across all tenants, including deleted entities.  Every entity has exactly one current
+     * state, so this is a count of the current rows (select count(*) from ... where cf = true).  With shards the
+     * tenants are counted one at a time on their shards and added up.
      * @param entityState The entity type to query the count for
      * @param <S> parameterized tipe of entity
-     * @return long representing teh number of rows in the table
+     * @return long representing teh number of entities in the table
      */
     public static <S extends CommonState> long getEntityCount(Class<S> entityState) {
-        List<S> returnedQuery = FdfPersistence.getInstance().selectQuery(entityState, SqlStatement.build().select("distinct id"));
-        return(returnedQuery != null ? returnedQuery.size() : 0);
+        if(FdfShardMap.getInstance().isSharded()) {
+            long count = 0;
+            for(long tenantId : getTenantIds()) {
+                count += getEntityCount(entityState, tenantId);
+            }
+            return count;
+        }
+        return SqlStatement.build().count().where(addByCf()).runForLong(entityState);
+    }
+
+    /**
+     * Returns an entity count for the tenant passed, including deleted entities.
+     * @param entityState The entity type to query the count for
+     * @param tenantId Id of the tenant to count for (Multi-FdfTenant mode)
+     * @param <S> parameterized tipe of entity
+     * @return long representing the number of entities for the tenant
+     */
+    public static <S extends CommonState> long getEntityCount(Class<S> entityState, long tenantId) {
+        return SqlStatement.build().count().where(auditForCurrent(tenantId)).runForLong(entityState);
+    }
+
+    /**
+     * Returns the count of entities that are not deleted.  Uses the Default FdfTenant (when not using multi-tenant)
+     * @param entityState The entity type to query the count for
+     * @param <S> parameterized tipe of entity
+     * @return long representing the number of entities that are not marked deleted
+     */
+    public static <S extends CommonState> long getCurrentEntityCount(Class<S> entityState) {
+        return getCurrentEntityCount(entityState, 1);
+    }
+
+    /**
+     * Returns the count of entities that are not deleted.  Includes specified tenant (when using multi-tenant)
+     * @param entityState The entity type to query the count for
+     * @param tenantId Id of the tenant to count for (Multi-FdfTenant mode)
+     * @param <S> parameterized tipe of entity
+     * @return long representing the number of entities that are not marked deleted
+     */
+    public static <S extends CommonState> long getCurrentEntityCount(Class<S> entityState, long tenantId) {
+        return SqlStatement.build().count().where(setForCurrent(tenantId)).runForLong(entityState);
+    }
+
+    /**
+     * Returns the count of entities currently marked deleted.  Uses the Default FdfTenant (when not using
+     * multi-tenant)
+     * @param entityState The entity type to query the count for
+     * @param <S> parameterized tipe of entity
+     * @return long representing the number of entities that are marked deleted
+     */
+    public static <S extends CommonState> long getDeletedEntityCount(Class<S> entityState) {
+        return getDeletedEntityCount(entityState, 1);
+    }
+
+    /**
+     * Returns the count of entities currently marked deleted.  Includes specified tenant (when using multi-tenant)
+     * @param entityState The entity type to query the count for
+     * @param tenantId Id of the tenant to count for (Multi-FdfTenant mode)
+     * @param <S> parameterized tipe of entity
+     * @return long representing the number of entities that are marked deleted
+     */
+    public static <S extends CommonState> long getDeletedEntityCount(Class<S> entityState, long tenantId) {
+        return SqlStatement.build().count().where(auditForCurrent(tenantId)).where(addIsDf()).runForLong(entityState);
+    }
+
+    /**
+     * Returns the entity count for every tenant with at least one entity of the type passed, computed with a single
+     * grouped count on the server.  With shards each tenant is counted on its shard.
+     * @param entityState The entity type to query the count for
+     * @param <S> parameterized tipe of entity
+     * @return Map of tenantId to the number of entities (including deleted) for that tenant
+     */
+    public static <S extends CommonState> Map<Long, Long> getEntityCountByTenant(Class<S> entityState) {
+        Map<Long, Long> countByTenant = new LinkedHashMap<>();
+        if(FdfShardMap.getInstance().isSharded()) {
+            for(long tenantId : getTenantIds()) {
+                long count = getEntityCount(entityState, tenantId);
+                if(count > 0) {
+                    countByTenant.put(tenantId, count);
+                }
+            }
+            return countByTenant;
+        }
+        SqlStatement.build().count().where(addByCf()).groupBy("tid").orderBy("tid").runGroupedForLong(entityState)
+                .forEach((tid, count) -> countByTenant.put(Long.parseLong(tid), count));
+        return countByTenant;
     }
 
     /**
@@ -351,6 +624,50 @@ public abstract class FdfCommonServices {
         return manageReturnedEntities(SqlStatement.build().where(addByTid(tenantId)).run(entityState));
     }
 
+    /**
+     * Retrieves all entities including deleted records of type passed from persistence. Includes all current and
+     * historical data for each entity returned.
+     *
+     * Paged with keyset (seek) pagination ordered by entity id and state start date, so every page costs the same
+     * no matter how deep it is.  Each page holds up to resultsPerPage states grouped into entities, an entity whose
+     * states straddle the end of a page continues on the next page.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of entities of type passed
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> auditAll(Class<S> entityState, int resultsPerPage,
+            String continuationToken) {
+        return auditAll(entityState, 1, resultsPerPage, continuationToken);
+    }
+
+    /**
+     * Retrieves all entities including deleted records of type passed from persistence. Includes all current and
+     * historical data for each entity returned.
+     *
+     * Paged with keyset (seek) pagination ordered by entity id and state start date, so every page costs the same
+     * no matter how deep it is.  Each page holds up to resultsPerPage states grouped into entities, an entity whose
+     * states straddle the end of a page continues on the next page.
+     *
+     * Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of entities of type passed
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> auditAll(Class<S> entityState, long tenantId,
+            int resultsPerPage, String continuationToken) {
+        return manageReturnedPage(SqlStatement.build().where(addByTid(tenantId))
+                .seek(SqlStatement.Keyset.ID_ARSD, resultsPerPage, continuationToken).runPage(entityState));
+    }
+
     /**
      * Retrieves all entities including deleted records of type passed from persistence, only returns current data for
      * each entity, without any historical data.  Uses the Default FdfTenant (when not using multi-tenant)
@@ -401,6 +718,50 @@ public abstract class FdfCommonServices {
         return manageReturnedEntities(SqlStatement.build().where(setWithHistory(tenantId)).run(entityState));
     }
 
+    /**
+     * Retrieves all entities of type passed from persistence. Includes all current and historical data for
+     * each entity returned.
+     *
+     * Paged with keyset (seek) pagination ordered by entity id and state start date, so every page costs the same
+     * no matter how deep it is.  Each page holds up to resultsPerPage states grouped into entities, an entity whose
+     * states straddle the end of a page continues on the next page.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of entities of type passed
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> getAll(Class<S> entityState, int resultsPerPage,
+            String continuationToken) {
+        return getAll(entityState, 1, resultsPerPage, continuationToken);
+    }
+
+    /**
+     * Retrieves all entities of type passed from persistence. Includes all current and historical data for
+     * each entity returned.
+     *
+     * Paged with keyset (seek) pagination ordered by entity id and state start date, so every page costs the same
+     * no matter how deep it is.  Each page holds up to resultsPerPage states grouped into entities, an entity whose
+     * states straddle the end of a page continues on the next page.
+     *
+     * Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of entities of type passed
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> getAll(Class<S> entityState, long tenantId,
+            int resultsPerPage, String continuationToken) {
+        return manageReturnedPage(SqlStatement.build().where(setWithHistory(tenantId))
+                .seek(SqlStatement.Keyset.ID_ARSD, resultsPerPage, continuationToken).runPage(entityState));
+    }
+
     /**
      * Retrieves all entities of type passed from persistence, only returns current data for each entity, without
      * any historical data.  Uses the Default FdfTenant (when not using multi-tenant)
@@ -451,6 +812,50 @@ public abstract class FdfCommonServices {
         return manageReturnedEntities(SqlStatement.build().where(addNotCf()).where(setWithHistory(tenantId)).run(entityState));
     }
 
+    /**
+     * Retrieves all entities of type passed from persistence, only returning the historical data in the entity,
+     * no current data is included.
+     *
+     * Paged with keyset (seek) pagination ordered by entity id and state start date, so every page costs the same
+     * no matter how deep it is.  Each page holds up to resultsPerPage states grouped into entities, an entity whose
+     * states straddle the end of a page continues on the next page.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of entities of type passed
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> getAllHistory(Class<S> entityState, int resultsPerPage,
+            String continuationToken) {
+        return getAllHistory(entityState, 1, resultsPerPage, continuationToken);
+    }
+
+    /**
+     * Retrieves all entities of type passed from persistence, only returning the historical data in the entity,
+     * no current data is included.
+     *
+     * Paged with keyset (seek) pagination ordered by entity id and state start date, so every page costs the same
+     * no matter how deep it is.  Each page holds up to resultsPerPage states grouped into entities, an entity whose
+     * states straddle the end of a page continues on the next page.
+     *
+     * Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of entities of type passed
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> getAllHistory(Class<S> entityState, long tenantId,
+            int resultsPerPage, String continuationToken) {
+        return manageReturnedPage(SqlStatement.build().where(addNotCf()).where(setWithHistory(tenantId))
+                .seek(SqlStatement.Keyset.ID_ARSD, resultsPerPage, continuationToken).runPage(entityState));
+    }
+
     /**
      * Retrieves all entities of the passed type from persistence as they existed at the date passed. Only states
      * existing at the date passed will be returned.  Usually this will only return one State per Entity in the form
@@ -485,7 +890,7 @@ public abstract class FdfCommonServices {
      * @return List of type passed
      */
     public static <S extends CommonState> List<S> getAllAtDate(Class<S> entityState, Date date, long tenantId) {
-        return SqlStatement.build().where(setAtDate(date, tenantId)).run(entityState);
+        return SqlStatement.build().where(setAtDate(date, tenantId)).asOf(date).run(entityState);
     }
 
     /**
@@ -520,7 +925,353 @@ public abstract class FdfCommonServices {
      * @return List of type passed
      */
     public static <S extends CommonState> List<S> auditAllAtDate(Class<S> entityState, Date date, long tenantId) {
-        return SqlStatement.build().where(auditAtDate(date, tenantId)).run(entityState);
+        return SqlStatement.build().where(auditAtDate(date, tenantId)).asOf(date).run(entityState);
+    }
+
+    /**
+     * Retrieves the states saved by the user passed, across all tenants, optionally limited to states saved between
+     * the dates.  Audit includes deleted records.
+     *
+     * Paged with keyset (seek) pagination in the order the states were saved, backed by the (euid, arsd) index.  A
+     * page can not span shards, when FdfSettings.DB_SHARDS is set use the variant limited to a tenant.
+     *
+     * @param entityState The entity type to query
+     * @param userId Id of the user (euid) that saved the states
+     * @param startDate earliest save date (inclusive), null for no limit
+     * @param endDate latest save date (exclusive), null for no limit
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of states of type passed
+     * @throws UnsupportedOperationException if the tenants are sharded
+     */
+    public static <S extends CommonState> FdfPage<S> auditByUser(Class<S> entityState, long userId, Date startDate,
+            Date endDate, int resultsPerPage, String continuationToken) {
+        return auditSavedBy(entityState, addByEuid(userId), null, startDate, endDate, resultsPerPage,
+                continuationToken);
+    }
+
+    /**
+     * Retrieves the states of the tenant saved by the user passed, see auditByUser.
+     *
+     * @param entityState The entity type to query
+     * @param userId Id of the user (euid) that saved the states
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param startDate earliest save date (inclusive), null for no limit
+     * @param endDate latest save date (exclusive), null for no limit
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of states of type passed
+     */
+    public static <S extends CommonState> FdfPage<S> auditByUser(Class<S> entityState, long userId, long tenantId,
+            Date startDate, Date endDate, int resultsPerPage, String continuationToken) {
+        return auditSavedBy(entityState, addByEuid(userId), tenantId, startDate, endDate, resultsPerPage,
+                continuationToken);
+    }
+
+    /**
+     * Retrieves the states saved by the system passed, across all tenants, optionally limited to states saved between
+     * the dates.  Audit includes deleted records.
+     *
+     * Paged with keyset (seek) pagination in the order the states were saved, backed by the (esid, arsd) index.  A
+     * page can not span shards, when FdfSettings.DB_SHARDS is set use the variant limited to a tenant.
+     *
+     * @param entityState The entity type to query
+     * @param systemId Id of the system (esid) that saved the states
+     * @param startDate earliest save date (inclusive), null for no limit
+     * @param endDate latest save date (exclusive), null for no limit
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of states of type passed
+     * @throws UnsupportedOperationException if the tenants are sharded
+     */
+    public static <S extends CommonState> FdfPage<S> auditBySystem(Class<S> entityState, long systemId,
+            Date startDate, Date endDate, int resultsPerPage, String continuationToken) {
+        return auditSavedBy(entityState, addByEsid(systemId), null, startDate, endDate, resultsPerPage,
+                continuationToken);
+    }
+
+    /**
+     * Retrieves the states of the tenant saved by the system passed, see auditBySystem.
+     *
+     * @param entityState The entity type to query
+     * @param systemId Id of the system (esid) that saved the states
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param startDate earliest save date (inclusive), null for no limit
+     * @param endDate latest save date (exclusive), null for no limit
+     * @param resultsPerPage maximum number of states in the page
+     * @param continuationToken token returned with the previous page, null for the first page
+     * @param <S> parameterized type of entity
+     * @return page of states of type passed
+     */
+    public static <S extends CommonState> FdfPage<S> auditBySystem(Class<S> entityState, long systemId,
+            long tenantId, Date startDate, Date endDate, int resultsPerPage, String continuationToken) {
+        return auditSavedBy(entityState, addByEsid(systemId), tenantId, startDate, endDate, resultsPerPage,
+                continuationToken);
+    }
+
+    /**
+     * Streams every state of every registered model class saved by the user passed, optionally between the dates,
+     * to the consumer one model class at a time, ex. everything a user changed in March.  States are read a page at a
+     * time so the result is never held in memory.  When FdfSettings.DB_SHARDS is set every tenant is read from its
+     * own shard, one tenant after the other.
+     *
+     * @param userId Id of the user (euid) that saved the states
+     * @param startDate earliest save date (inclusive), null for no limit
+     * @param endDate latest save date (exclusive), null for no limit
+     * @param consumer called with each state
+     * @return number of states passed to the consumer
+     */
+    public static long auditAllModelsByUser(long userId, Date startDate, Date endDate,
+                                            Consumer<CommonState> consumer) {
+        return auditAllModelsSavedBy(addByEuid(userId), startDate, endDate, consumer);
+    }
+
+    /**
+     * Streams every state of every registered model class saved by the system passed, see auditAllModelsByUser.
+     *
+     * @param systemId Id of the system (esid) that saved the states
+     * @param startDate earliest save date (inclusive), null for no limit
+     * @param endDate latest save date (exclusive), null for no limit
+     * @param consumer called with each state
+     * @return number of states passed to the consumer
+     */
+    public static long auditAllModelsBySystem(long systemId, Date startDate, Date endDate,
+                                              Consumer<CommonState> consumer) {
+        return auditAllModelsSavedBy(addByEsid(systemId), startDate, endDate, consumer);
+    }
+
+    private static <S extends CommonState> FdfPage<S> auditSavedBy(Class<S> entityState, WhereClause savedBy,
+            Long tenantId, Date startDate, Date endDate, int resultsPerPage, String continuationToken) {
+        SqlStatement statement = SqlStatement.build().where(savedBy);
+        if(tenantId != null) {
+            statement.where(addByTid(tenantId));
+        }
+        else if(FdfShardMap.getInstance().isSharded()) {
+            // a statement without a tenant only reads the default shard
+            throw new UnsupportedOperationException("Audits across tenants can not span shards, audit "
+                    + entityState.getSimpleName() + " tenant by tenant");
+        }
+        return statement.where(savedBetween(startDate, endDate))
+                .seek(SqlStatement.Keyset.ARSD_RID, resultsPerPage, continuationToken).runPage(entityState);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long auditAllModelsSavedBy(WhereClause savedBy, Date startDate, Date endDate,
+                                              Consumer<CommonState> consumer) {
+        // with shards each tenant is read from the shard it is stored in, null reads every tenant at once
+        List<Long> tenantIds = new ArrayList<>();
+        if(FdfShardMap.getInstance().isSharded()) {
+            tenantIds.addAll(getTenantIds());
+        }
+        else {
+            tenantIds.add(null);
+        }
+
+        long count = 0;
+        for(Class c : FdfSettings.getInstance().modelClasses) {
+            if(!CommonState.class.isAssignableFrom(c)) {
+                continue;
+            }
+            for(Long tenantId : tenantIds) {
+                String token = null;
+                do {
+                    FdfPage<CommonState> page = auditSavedBy((Class<CommonState>) c, savedBy, tenantId, startDate,
+                            endDate, AUDIT_STREAM_PAGE_SIZE, token);
+                    page.results.forEach(consumer);
+                    count += page.results.size();
+                    token = page.continuationToken;
+                } while(token != null);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Ids of every tenant in id order, read from the default shard that holds the tenant records.  Used to visit the
+     * tenants one at a time when they are spread over shards.
+     */
+    private static List<Long> getTenantIds() {
+        List<Long> tenantIds = new ArrayList<>();
+        for(FdfTenant tenant : SqlStatement.build().where(addByCf()).orderBy("id").run(FdfTenant.class)) {
+            tenantIds.add(tenant.id);
+        }
+        return tenantIds;
+    }
+
+    /**
+     * Returns the entities that were added, removed or changed between the two dates, as getAllAtDate would see them
+     * at each date: deleted entities count as removed and an entity that was changed and changed back is not
+     * included.  Only the states that started or ended between the dates are read, not the two snapshots, so the
+     * cost follows the number of changes rather than the size of the table.
+     *
+     * @param entityState The entity type to compare
+     * @param startDate earlier date
+     * @param endDate later date
+     * @param tenantId Id of the tenant to compare for (Multi-FdfTenant mode)
+     * @param <S> parameterized type of entity
+     * @return added, removed and changed entities, ordered by id
+     */
+    public static <S extends CommonState> FdfDiff<S> diffBetween(Class<S> entityState, Date startDate, Date endDate,
+                                                                 long tenantId) {
+        if(!startDate.before(endDate)) {
+            return new FdfDiff<>();
+        }
+        List<S> states = SqlStatement.build().where(addByTid(tenantId)).where(changedBetween(startDate, endDate))
+                .orderBy("id").orderBy("arsd").run(entityState);
+        return diffStates(entityState, states, startDate, endDate);
+    }
+
+    /**
+     * Works out the diff from the states that started or ended between the dates, ordered by id and arsd.  For each
+     * entity the state at the start date is the last one started by then, the state at the end date the last one
+     * started by then that had not ended before it.
+     */
+    static <S extends CommonState> FdfDiff<S> diffStates(Class<S> entityState, List<S> states, Date startDate,
+                                                         Date endDate) {
+        FdfDiff<S> diff = new FdfDiff<>();
+        int first = 0;
+        while(first < states.size()) {
+            long id = states.get(first).id;
+            S before = null;
+            S after = null;
+            int next = first;
+            for(; next < states.size() && states.get(next).id == id; next++) {
+                S state = states.get(next);
+                if(!state.arsd.after(startDate)) {
+                    before = state;
+                }
+                if(!state.arsd.after(endDate)) {
+                    after = state;
+                }
+            }
+            if(after != null && after.ared != null && after.ared.before(endDate)) {
+                after = null;
+            }
+            // deleted entities are not part of a snapshot
+            if(before != null && before.df) {
+                before = null;
+            }
+            if(after != null && after.df) {
+                after = null;
+            }
+
+            if(before == null && after != null) {
+                diff.added.add(after);
+            }
+            else if(before != null && after == null) {
+                diff.removed.add(before);
+            }
+            else if(before != null && before != after && !FdfUtil.hasSameData(entityState, before, after)) {
+                diff.changed.add(new FdfDiff.Change<>(before, after));
+            }
+            first = next;
+        }
+        return diff;
+    }
+
+    /**
+     * Counts the entities of the tenant that existed (and were not deleted) at some point in each bucket between the
+     * dates, ex. active tenants per day.  Computed in the database from the validity of every state.
+     *
+     * @param entityState The entity type to count
+     * @param bucket size of the buckets
+     * @param startDate start of the first bucket
+     * @param endDate end of the range
+     * @param tenantId Id of the tenant to count for (Multi-FdfTenant mode)
+     * @param <S> parameterized type of entity
+     * @return entity count per bucket
+     */
+    public static <S extends CommonState> FdfTimeSeries getEntityCountSeries(Class<S> entityState,
+                                                                             FdfTimeSeries.Bucket bucket,
+                                                                             Date startDate, Date endDate,
+                                                                             long tenantId) {
+        return SqlStatement.build().countDistinct("id").where(addByTid(tenantId)).where(addByDf())
+                .runTimeSeries(entityState, bucket, startDate, endDate);
+    }
+
+    /**
+     * Aggregates a numeric field over the states of the tenant's entities (not deleted) valid at some point in each
+     * bucket between the dates, ex. average balance per week.  Computed in the database.
+     *
+     * @param entityState The entity type to aggregate over
+     * @param field numeric field to aggregate
+     * @param aggregate function to apply, SUM, AVG, MIN or MAX
+     * @param bucket size of the buckets
+     * @param startDate start of the first bucket
+     * @param endDate end of the range
+     * @param tenantId Id of the tenant to aggregate for (Multi-FdfTenant mode)
+     * @param <S> parameterized type of entity
+     * @return aggregate per bucket
+     * @throws IllegalArgumentException if field is not a numeric data field of the entity, or the entity is a
+     * FdfDeltaHistory class, its history does not keep the unchanged field values
+     */
+    public static <S extends CommonState> FdfTimeSeries getFieldSeries(Class<S> entityState, String field,
+                                                                       SqlStatement.Aggregate aggregate,
+                                                                       FdfTimeSeries.Bucket bucket,
+                                                                       Date startDate, Date endDate, long tenantId) {
+        // the name ends up in the SQL, only fields of the model are accepted
+        if(!isNumericDataField(entityState, field)) {
+            throw new IllegalArgumentException(field + " is not a numeric field of " + entityState.getSimpleName());
+        }
+        return SqlStatement.build().aggregate(aggregate, field.toLowerCase()).where(addByTid(tenantId))
+                .where(addByDf()).runTimeSeries(entityState, bucket, startDate, endDate);
+    }
+
+    private static boolean isNumericDataField(Class<? extends CommonState> entityState, String field) {
+        for(Field dataField : FdfUtil.getDataFields(entityState)) {
+            if(dataField.getName().equalsIgnoreCase(field)) {
+                Class<?> type = dataField.getType();
+                return Number.class.isAssignableFrom(type)
+                        || (type.isPrimitive() && type != boolean.class && type != char.class);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Streams every state, current and historical, of the tenant to the output stream without loading them, for
+     * exports of whole tables.  See SqlStatement.export for exporting with other filters.
+     *
+     * @param entityState The entity type to export
+     * @param tenantId Id of the tenant to export (Multi-FdfTenant mode)
+     * @param format CSV (with a header row) or BINARY
+     * @param out stream to write to, it is not closed
+     * @param <S> parameterized type of entity
+     * @return number of states exported, -1 if the export failed
+     */
+    public static <S extends CommonState> long exportAll(Class<S> entityState, long tenantId,
+                                                         DatabaseUtil.ExportFormat format, OutputStream out) {
+        return export(entityState, SqlStatement.build().where(addByTid(tenantId)), format, out);
+    }
+
+    /**
+     * Streams the snapshot of the tenant's entities as they were at the date passed, the states auditAllAtDate
+     * returns, to the output stream without loading them.
+     *
+     * @param entityState The entity type to export
+     * @param date Date of the snapshot
+     * @param tenantId Id of the tenant to export (Multi-FdfTenant mode)
+     * @param format CSV (with a header row) or BINARY
+     * @param out stream to write to, it is not closed
+     * @param <S> parameterized type of entity
+     * @return number of states exported, -1 if the export failed
+     */
+    public static <S extends CommonState> long exportAtDate(Class<S> entityState, Date date, long tenantId,
+                                                            DatabaseUtil.ExportFormat format, OutputStream out) {
+        return export(entityState, SqlStatement.build().where(auditAtDate(date, tenantId)), format, out);
+    }
+
+    private static <S extends CommonState> long export(Class<S> entityState, SqlStatement sqlStatement,
+                                                       DatabaseUtil.ExportFormat format, OutputStream out) {
+        try {
+            return sqlStatement.export(entityState, format, out);
+        } catch (SQLException | IOException e) {
+            fdfLog.warn("Export of {} failed: {}", entityState.getSimpleName(), e.getMessage());
+        }
+        return -1;
     }
 
     /**
@@ -662,6 +1413,21 @@ public abstract class FdfCommonServices {
         return SqlStatement.build().where(addByRid(rid)).run(entityState).stream().findFirst().orElse(null);
     }
 
+    /**
+     * Retrieves the state with the rid passed, including deleted records.  Rids are only unique within a database,
+     * with tenant shards the tenant decides which database is read.
+     *
+     * @param entityState The entity type to query
+     * @param rid The rid of the state to retrieve
+     * @param tenantId Id of the tenant the state belongs to
+     * @param <S> Parameterized type of entity
+     * @return state with the rid passed
+     */
+    public static <S extends CommonState> S auditEntityByRid(Class<S> entityState, long rid, long tenantId) {
+        return SqlStatement.build().where(addByRid(rid)).where(addByTid(tenantId)).run(entityState).stream()
+                .findFirst().orElse(null);
+    }
+
     /**
      * Retrieves the entity associated with the id passed. Returns current and historical states for the entity
      * including states that are in a df state.
@@ -726,6 +1492,62 @@ public abstract class FdfCommonServices {
         return manageReturnedEntity(SqlStatement.build().where(addById(id)).where(setWithHistory(tenantId)).run(entityState));
     }
 
+    /**
+     * Retrieves the entity associated with the id passed.  The current state is queried right away, the historical
+     * states are only queried the first time entity.history is accessed.
+     *
+     * Uses the Default FdfTenant (when not using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param id The Id of the Entity to retrieve
+     * @param <S> Parameterized type of entity
+     * @return Entity of type passed
+     */
+    public static <S extends CommonState> FdfEntity<S> getEntityByIdLazy(Class<S> entityState, long id) {
+        return getEntityByIdLazy(entityState, id, 1);
+    }
+
+    /**
+     * Retrieves the entity associated with the id passed.  The current state is queried right away, the historical
+     * states are only queried the first time entity.history is accessed.  If there is no current state the
+     * history is needed to build the entity so it is loaded eagerly.
+     *
+     * Includes specified tenant (when using multi-tenant)
+     *
+     * @param entityState The entity type to query
+     * @param id The Id of the Entity to retrieve
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> Parameterized type of entity
+     * @return Entity of type passed
+     */
+    public static <S extends CommonState> FdfEntity<S> getEntityByIdLazy(Class<S> entityState, long id, long tenantId) {
+        S current = getEntityCurrentById(entityState, id, tenantId);
+        if(current == null) {
+            return getEntityById(entityState, id, tenantId);
+        }
+        return new FdfEntity<>(current, () -> SqlStatement.build().where(addNotCf()).where(addById(id))
+                .where(setWithHistory(tenantId)).run(entityState));
+    }
+
+    /**
+     * Same as auditEntityById, including states in a df state, but the historical states are only queried the
+     * first time entity.history is accessed.
+     *
+     * @param entityState The entity type to query
+     * @param id The Id of the Entity to retrieve
+     * @param tenantId Id of the tenant to retrieve for (Multi-FdfTenant mode)
+     * @param <S> Parameterized type of entity
+     * @return Entity of type passed
+     */
+    public static <S extends CommonState> FdfEntity<S> auditEntityByIdLazy(Class<S> entityState, long id, long tenantId) {
+        S current = auditEntityCurrentById(entityState, id, tenantId);
+        if(current == null) {
+            return auditEntityById(entityState, id, tenantId);
+        }
+        return new FdfEntity<>(current, () -> SqlStatement.build().where(addNotCf()).where(addById(id))
+                .where(addByTid(tenantId)).run(entityState));
+    }
+
     /**
      * Retrieves the entity of type passed from persistence, only returns current data, without any historical
      * data.
@@ -923,7 +1745,7 @@ public abstract class FdfCommonServices {
      * @return Entity of type passed
      */
     public static <S extends CommonState> S getAtDateById(Class<S> entityState, long id, Date date, long tenantId) {
-        return SqlStatement.build().where(addById(id)).where(setAtDate(date, tenantId)).run(entityState).stream().findFirst().orElse(null);
+        return SqlStatement.build().where(addById(id)).where(setAtDate(date, tenantId)).asOf(date).run(entityState).stream().findFirst().orElse(null);
     }
 
     /**
@@ -961,7 +1783,7 @@ public abstract class FdfCommonServices {
      * @return Entity of type passed
      */
     public static <S extends CommonState> S auditAtDateById(Class<S> entityState, long id, Date date, long tenantId) {
-        return SqlStatement.build().where(addById(id)).where(auditAtDate(date, tenantId)).run(entityState).stream().findFirst().orElse(null);
+        return SqlStatement.build().where(addById(id)).where(auditAtDate(date, tenantId)).asOf(date).run(entityState).stream().findFirst().orElse(null);
     }
 
     /**
@@ -1111,6 +1933,17 @@ public abstract class FdfCommonServices {
         return allEntities;
     }
 
+    /**
+     * Organizes the states in a page returned by a paginated query into entities, keeping the page's
+     * continuation token.
+     * @param page page of states to organize into entities
+     * @param <S> Parameterized Type of entity
+     * @return page of Entities of Type passed
+     */
+    public static <S extends CommonState> FdfPage<FdfEntity<S>> manageReturnedPage(FdfPage<S> page) {
+        return new FdfPage<>(manageReturnedEntities(page.results), page.continuationToken);
+    }
+
     /**
      * Takes a list of raw states returned by a query and organizes them into separate entities of type passed.
      * @param rawStates : List of states to organize into entities
@@ -1222,6 +2055,14 @@ public abstract class FdfCommonServices {
         whereDf.valueDataType = Boolean.class;
         return whereDf;
     }
+    protected static WhereClause addIsDf() {
+        WhereClause whereDf = new WhereClause();
+        whereDf.name = "df";
+        whereDf.operator = WhereClause.Operators.EQUAL;
+        whereDf.value = "true";
+        whereDf.valueDataType = Boolean.class;
+        return whereDf;
+    }
     protected static WhereClause addByArsdBefore(Date date) {
         if(date != null) {
             WhereClause whereStartBefore = new WhereClause();
@@ -1284,6 +2125,57 @@ public abstract class FdfCommonServices {
         whereStatement.add(0, addByArsdBefore(date));
         return whereStatement;
     }
+    /**
+     * States that started or ended after the start date, up to and including the end date:
+     * ((arsd > start AND arsd <= end) OR (ared > start AND ared <= end))
+     */
+    protected static List<WhereClause> changedBetween(Date startDate, Date endDate) {
+        List<WhereClause> whereStatement = new ArrayList<>();
+
+        WhereClause whereStartedAfter = new WhereClause();
+        whereStartedAfter.groupings.add(WhereClause.GROUPINGS.OPEN_PARENTHESIS);
+        whereStartedAfter.groupings.add(WhereClause.GROUPINGS.OPEN_PARENTHESIS);
+        whereStartedAfter.name = "arsd";
+        whereStartedAfter.operator = WhereClause.Operators.GREATER_THAN;
+        whereStartedAfter.value = GeneralConstants.DB_DATE_FORMAT.format(startDate);
+        whereStartedAfter.valueDataType = Date.class;
+        whereStatement.add(whereStartedAfter);
+
+        WhereClause whereStartedBy = addByArsdBefore(endDate);
+        whereStartedBy.groupings.add(WhereClause.GROUPINGS.CLOSE_PARENTHESIS);
+        whereStatement.add(whereStartedBy);
+
+        WhereClause whereEndedAfter = new WhereClause();
+        whereEndedAfter.conditional = WhereClause.CONDITIONALS.OR;
+        whereEndedAfter.groupings.add(WhereClause.GROUPINGS.OPEN_PARENTHESIS);
+        whereEndedAfter.name = "ared";
+        whereEndedAfter.operator = WhereClause.Operators.GREATER_THAN;
+        whereEndedAfter.value = GeneralConstants.DB_DATE_FORMAT.format(startDate);
+        whereEndedAfter.valueDataType = Date.class;
+        whereStatement.add(whereEndedAfter);
+
+        WhereClause whereEndedBy = addByAredBefore(endDate);
+        whereEndedBy.groupings.add(WhereClause.GROUPINGS.CLOSE_PARENTHESIS);
+        whereEndedBy.groupings.add(WhereClause.GROUPINGS.CLOSE_PARENTHESIS);
+        whereStatement.add(whereEndedBy);
+
+        return whereStatement;
+    }
+    protected static List<WhereClause> savedBetween(Date startDate, Date endDate) {
+        List<WhereClause> whereStatement = new ArrayList<>();
+        if(startDate != null) {
+            whereStatement.add(addByArsdAfter(startDate));
+        }
+        if(endDate != null) {
+            WhereClause whereSavedBefore = new WhereClause();
+            whereSavedBefore.name = "arsd";
+            whereSavedBefore.operator = WhereClause.Operators.LESS_THAN;
+            whereSavedBefore.value = GeneralConstants.DB_DATE_FORMAT.format(endDate);
+            whereSavedBefore.valueDataType = Date.class;
+            whereStatement.add(whereSavedBefore);
+        }
+        return whereStatement;
+    }
     protected static WhereClause addByTid(long tid) {
         WhereClause whereTid = new WhereClause();
         whereTid.name = "tid";
@@ -1330,6 +2222,10 @@ public abstract class FdfCommonServices {
         List<WhereClause> whereStatement = new ArrayList<>();
         whereStatement.add(addByTid(tenantId));
         whereStatement.add(addByCf());
+        if(FdfSettings.HISTORY_STORAGE == DatabaseUtil.HistoryStorage.PARTITIONED) {
+            // current states have no end date, lets the database prune the scan to the current partition
+            whereStatement.addAll(addByAredAfter(null));
+        }
         return whereStatement;
     }
     protected static List<WhereClause> auditAtDate(Date date, long tenantId) {
@@ -0,0 +1,309 @@
+/**
+ * 4DFLib
+ * Copyright (c) 2015-2016 Brian Gormanly
+ * 4dflib.com
+ *
+ * 4DFLib is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ */
+package com.fdflib.service.impl;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import com.fdflib.persistence.FdfPersistence;
+import com.fdflib.persistence.FdfStaleStateException;
+import com.fdflib.persistence.connection.FdfReadRouter;
+import com.fdflib.persistence.connection.FdfShardMap;
+import com.fdflib.util.FdfSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind queue for high frequency saves (see FdfCommonServices.saveAsync).  Saves are queued and a daemon
+ * thread writes the queue in one transaction per class when it reaches FdfSettings.WRITE_BEHIND_BATCH_SIZE entries or
+ * WRITE_BEHIND_MAX_DELAY_MS after the first entry was queued.  The returned futures complete with the saved state
+ * once its transaction has committed, or exceptionally if it was rolled back.  Saves of the same entity go into
+ * separate batches in the order they were queued, so each one closes the state written before it.
+ *
+ * With FdfSettings.WRITE_BEHIND_COALESCE saves are coalesced per class, tenant and entity id instead, only the last
+ * state queued for an entity before a flush is written and history is recorded at flush granularity.  New entities
+ * (id 0) are never coalesced.
+ */
+public class FdfWriteBehindQueue {
+
+    private static final Logger fdfLog = LoggerFactory.getLogger(FdfWriteBehindQueue.class);
+    private static final FdfWriteBehindQueue INSTANCE = new FdfWriteBehindQueue();
+
+    private final Object lock = new Object();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final LinkedHashMap<Object, Pending> pending = new LinkedHashMap<>();
+    private Thread flusher = null;
+
+    private static class Pending {
+        // class, tenant and id, null for a new entity
+        final Object entity;
+        final Class entityState;
+        CommonState state;
+        long userId;
+        long systemId;
+        final long tenantId;
+        final List<CompletableFuture> futures = new ArrayList<>();
+
+        Pending(Object entity, Class entityState, CommonState state, long userId, long systemId, long tenantId) {
+            this.entity = entity;
+            this.entityState = entityState;
+            this.state = state;
+            this.userId = userId;
+            this.systemId = systemId;
+            this.tenantId = tenantId;
+        }
+    }
+
+    FdfWriteBehindQueue() { }
+
+    public static FdfWriteBehindQueue getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a save, blocks only while the queue is at WRITE_BEHIND_CAPACITY.
+     *
+     * @param entityState State Type to save
+     * @param state state to save
+     * @param userId Id of user that is saving the state
+     * @param systemId Id of system that is saving the state
+     * @param tenantId Id of tenant this entity is associated with
+     * @param <S> parameterized type of entity state
+     * @return future that completes with the saved state when it has been committed
+     */
+    public <S extends CommonState> CompletableFuture<S> enqueue(Class<S> entityState, S state, long userId,
+                                                                long systemId, long tenantId) {
+        CompletableFuture<S> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (flusher == null) {
+                start();
+            }
+            try {
+                while (pending.size() >= FdfSettings.WRITE_BEHIND_CAPACITY) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return future;
+            }
+
+            // new entities get their id when they are written, they can not be coalesced
+            Object entity = state.id > 0 ? Arrays.asList(entityState, tenantId, state.id) : null;
+            Object key = entity != null && FdfSettings.WRITE_BEHIND_COALESCE ? entity : new Object();
+            Pending entry = pending.get(key);
+            if (entry != null) {
+                entry.state = state;
+                entry.userId = userId;
+                entry.systemId = systemId;
+            } else {
+                entry = new Pending(entity, entityState, state, userId, systemId, tenantId);
+                pending.put(key, entry);
+            }
+            entry.futures.add(future);
+            lock.notifyAll();
+        }
+        return future;
+    }
+
+    /**
+     * Writes everything queued so far on the calling thread and returns once it is committed (or rolled back).
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Pending> batch;
+            do {
+                synchronized (lock) {
+                    batch = takeBatch();
+                }
+                write(batch);
+            } while (!batch.isEmpty());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void start() {
+        flusher = new Thread(this::run, "fdf-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+        // do not lose queued saves on a normal shutdown
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "fdf-write-behind-shutdown"));
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                synchronized (lock) {
+                    while (pending.isEmpty()) {
+                        lock.wait();
+                    }
+                    // give the batch time to fill unless it is already full
+                    long deadline = System.currentTimeMillis() + FdfSettings.WRITE_BEHIND_MAX_DELAY_MS;
+                    long wait;
+                    while (pending.size() < FdfSettings.WRITE_BEHIND_BATCH_SIZE
+                            && (wait = deadline - System.currentTimeMillis()) > 0) {
+                        lock.wait(wait);
+                    }
+                }
+                flushLock.lock();
+                try {
+                    List<Pending> batch;
+                    synchronized (lock) {
+                        batch = takeBatch();
+                    }
+                    write(batch);
+                } finally {
+                    flushLock.unlock();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                fdfLog.warn("Write-behind flush failed", e);
+            }
+        }
+    }
+
+    private List<Pending> takeBatch() {
+        List<Pending> batch = new ArrayList<>();
+        Set<Object> entities = new HashSet<>();
+        Iterator<Pending> entries = pending.values().iterator();
+        while (entries.hasNext() && batch.size() < FdfSettings.WRITE_BEHIND_BATCH_SIZE) {
+            Pending entry = entries.next();
+            // a later save of an entity already in the batch waits for the next one, it has to close this save
+            if (entry.entity != null && !entities.add(entry.entity)) {
+                continue;
+            }
+            batch.add(entry);
+            entries.remove();
+        }
+        lock.notifyAll();
+        return batch;
+    }
+
+    @SuppressWarnings("try")
+    private void write(List<Pending> batch) {
+        // current states and new ids have to come from the primary
+        try (FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) {
+            // one transaction per class, and per shard when the tenants are stored in different databases
+            Map<Class, List<Pending>> byClass = batch.stream()
+                    .collect(Collectors.groupingBy(entry -> entry.entityState, LinkedHashMap::new, Collectors.toList()));
+            for (Map.Entry<Class, List<Pending>> classEntries : byClass.entrySet()) {
+                Map<String, List<Pending>> byShard = classEntries.getValue().stream()
+                        .collect(Collectors.groupingBy(entry -> FdfShardMap.getInstance().getShard(entry.tenantId),
+                                LinkedHashMap::new, Collectors.toList()));
+                for (List<Pending> entries : byShard.values()) {
+                    try {
+                        // a conflicting save outside the queue rolls the batch back, it is retried against the new
+                        // states
+                        for (int attempt = 0; ; attempt++) {
+                            try {
+                                write(classEntries.getKey(), entries);
+                                break;
+                            } catch (FdfStaleStateException e) {
+                                if (attempt >= FdfSettings.SAVE_CONFLICT_RETRIES) {
+                                    throw e;
+                                }
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        fdfLog.warn("Write-behind save of {} failed", classEntries.getKey().getSimpleName(), e);
+                        entries.forEach(entry -> entry.futures.forEach(future -> future.completeExceptionally(e)));
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends CommonState> void write(Class<S> entityState, List<Pending> entries) {
+        Date now = Calendar.getInstance().getTime();
+
+        // look up the current states that are replaced, one query per tenant
+        Map<String, S> currentStates = new HashMap<>();
+        Map<Long, List<Long>> idsByTenant = new LinkedHashMap<>();
+        for (Pending entry : entries) {
+            if (entry.state.id > 0) {
+                idsByTenant.computeIfAbsent(entry.tenantId, tenant -> new ArrayList<>()).add(entry.state.id);
+            }
+        }
+        for (Map.Entry<Long, List<Long>> ids : idsByTenant.entrySet()) {
+            WhereClause whereIds = new WhereClause();
+            whereIds.name = "id";
+            whereIds.operator = WhereClause.Operators.IN;
+            whereIds.value = ids.getValue().stream().map(String::valueOf).collect(Collectors.joining(", ", "(", ")"));
+            whereIds.valueDataType = Long.class;
+            for (S current : SqlStatement.build().where(FdfCommonServices.auditForCurrent(ids.getKey()))
+                    .where(whereIds).run(entityState)) {
+                currentStates.put(current.tid + ":" + current.id, current);
+            }
+        }
+
+        Map<Long, Long> nextIds = new HashMap<>();
+        List<Pending> written = new ArrayList<>();
+        List<S> closingStates = new ArrayList<>();
+        List<S> newStates = new ArrayList<>();
+        for (Pending entry : entries) {
+            S state = (S) entry.state;
+            S unchanged = currentStates.get(entry.tenantId + ":" + state.id);
+            if (FdfCommonServices.isUnchanged(entityState, unchanged, state)) {
+                entry.futures.forEach(future -> future.complete(unchanged));
+                continue;
+            }
+            if (state.id <= 0) {
+                long id = nextIds.computeIfAbsent(entry.tenantId,
+                        tenant -> FdfCommonServices.getNewEntityId(entityState, tenant));
+                state.id = id;
+                nextIds.put(entry.tenantId, id + 1);
+            }
+            S current = currentStates.get(entry.tenantId + ":" + state.id);
+            if (current != null) {
+                current.cf = false;
+                current.ared = now;
+            }
+            state.arsd = now;
+            state.ared = null;
+            state.cf = true;
+            state.euid = entry.userId;
+            state.esid = entry.systemId;
+            state.tid = entry.tenantId;
+            written.add(entry);
+            closingStates.add(current);
+            newStates.add(state);
+        }
+        if (newStates.isEmpty()) {
+            return;
+        }
+
+        List<Long> rids = FdfPersistence.getInstance().insertAndCloseBatch(entityState, closingStates, newStates);
+        if (rids.size() != newStates.size()) {
+            throw new IllegalStateException("Transaction for " + newStates.size() + " " + entityState.getSimpleName()
+                    + " saves was rolled back");
+        }
+        for (int s = 0; s < newStates.size(); s++) {
+            S state = newStates.get(s);
+            state.rid = rids.get(s);
+            FdfCommonServices.publishChange(entityState, closingStates.get(s), state, state.rid);
+            written.get(s).futures.forEach(future -> future.complete(state));
+        }
+    }
+}
@@ -21,7 +21,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by brian.gormanly on 5/19/15.
@@ -41,6 +44,64 @@ public class FdfSettings {
     public static Integer DB_PORT = 9001;
     public static DatabaseUtil.DatabaseEncoding DB_ENCODING = DatabaseUtil.DatabaseEncoding.UTF8;
 
+    // Read replicas of DB_HOST (same format), reads are spread over them and writes go to DB_HOST. Empty to read
+    // from DB_HOST only.  Only supported on PostgreSQL, MySQL and HSQL read from DB_HOST whatever is set here.
+    public static List<String> DB_READ_REPLICA_HOSTS = new ArrayList<>();
+    // After a save the same thread reads from DB_HOST for this long so it sees its own writes, 0 to turn off
+    public static Integer READ_YOUR_WRITES_MS = 5000;
+    // How long a replica that could not be reached is left out before it is tried again
+    public static Integer DB_REPLICA_RETRY_SECONDS = 30;
+
+    // Tenant shards, shard name to host (same format as DB_HOST).  Each shard holds a database named DB_NAME and a
+    // tenant is stored in the shard assigned to it in the shard map, or on DB_HOST if it has none.  Empty to keep
+    // every tenant on DB_HOST.  Only supported on PostgreSQL.  Add new shards at the end, the rids of a shard's tables
+    // come from a range picked by its position.
+    public static Map<String, String> DB_SHARDS = new LinkedHashMap<>();
+    // How long a tenant's shard is cached before the shard map is read again
+    public static Integer SHARD_MAP_CACHE_SECONDS = 60;
+
+    // Admission control in front of persistence (see FdfAdmissionControl): queries and writes running at once over
+    // all tenants, 0 to turn admission control off
+    public static Integer DB_MAX_CONCURRENT_QUERIES = 0;
+    // Most queries and writes one tenant can run at once, and have waiting for a turn
+    public static Integer TENANT_MAX_CONCURRENT_QUERIES = 4;
+    public static Integer TENANT_MAX_QUEUED_QUERIES = 100;
+    // Share of the database a tenant gets while others are waiting too, by tenant id, tenants not listed have weight 1
+    public static Map<Long, Integer> TENANT_WEIGHTS = new HashMap<>();
+    // What happens to a query that can not run right away, WAIT queues it for up to ADMISSION_WAIT_MS
+    public static DatabaseUtil.AdmissionOverflow ADMISSION_OVERFLOW = DatabaseUtil.AdmissionOverflow.WAIT;
+    public static Integer ADMISSION_WAIT_MS = 30000;
+
+    // Execution lanes (see FdfQueryLanes).  A statement returning at most POINT_MAX_ROWS rows, or selecting by id or
+    // rid, is a point lookup, anything else is a scan.
+    public static Integer POINT_MAX_ROWS = 100;
+    // Rows fetched per round trip (0 for the driver default, which reads the whole result at once) and seconds a
+    // statement may run (0 for no limit) in each lane.  The point lane is picked from the shape of the statement, not
+    // from the rows it reads (a lookup by id reads every version of the entity, a limit does not bound the rows
+    // scanned to find them), so point lookups have no timeout unless one is set.
+    public static Integer POINT_FETCH_SIZE = 0;
+    public static Integer POINT_QUERY_TIMEOUT_SECONDS = 0;
+    public static Integer SCAN_FETCH_SIZE = 1000;
+    public static Integer SCAN_QUERY_TIMEOUT_SECONDS = 600;
+    // Scans running at once, further scans wait so point lookups always find a connection, 0 for no limit
+    public static Integer SCAN_MAX_CONCURRENT_QUERIES = 0;
+    // Threads running statements started with SqlStatement.runAsync, per lane
+    public static Integer POINT_LANE_THREADS = 8;
+    public static Integer SCAN_LANE_THREADS = 2;
+
+    // Result cache (see FdfResultCache): most select results kept, 0 to turn the cache off.  A result is dropped when
+    // its table is written through this process, and after RESULT_CACHE_TTL_SECONDS to pick up writes made by other
+    // processes.  Results of as-of queries for a past date that only hold closed states are kept until evicted.  With
+    // DB_READ_REPLICA_HOSTS set only reads that go to DB_HOST are cached.
+    public static Integer RESULT_CACHE_MAX_ENTRIES = 0;
+    public static Integer RESULT_CACHE_TTL_SECONDS = 60;
+
+    // How long FdfSystemServices keeps a system's credentials before reading them again, saves and deletes through
+    // FdfSystemServices drop them right away
+    public static Integer SYSTEM_CREDENTIAL_CACHE_SECONDS = 60;
+    // PBKDF2 iterations of passwords hashed with FdfSystemServices.hashPasswordSalted
+    public static Integer PASSWORD_HASH_ITERATIONS = 100000;
+
     // default general user information
     public static String DB_USER = "SA";
     public static String DB_PASSWORD = "";
@@ -59,6 +120,40 @@ public class FdfSettings {
     //HyperSQL database file location
     public static String HQSL_DB_FILE_LOCATION = "hsql/";
 
+    // Layout of the model tables, applied when a table is created so set it before the first initialization.
+    // PARTITIONED is only supported on PostgreSQL 11 or newer.
+    public static DatabaseUtil.HistoryStorage HISTORY_STORAGE = DatabaseUtil.HistoryStorage.SINGLE_TABLE;
+    // Size of the closed history partitions when HISTORY_STORAGE is PARTITIONED
+    public static DatabaseUtil.PartitionInterval HISTORY_PARTITION_INTERVAL = DatabaseUtil.PartitionInterval.MONTHLY;
+    // Number of future history partitions kept ahead of the present by the partition manager
+    public static Integer HISTORY_PARTITIONS_AHEAD = 3;
+    // How often the partition manager checks for partitions to create
+    public static Integer HISTORY_PARTITION_CHECK_HOURS = 12;
+
+    // Number of change events buffered for the change feed listeners before the oldest are dropped
+    public static Integer CHANGE_FEED_CAPACITY = 8192;
+    // Maximum number of change events delivered to a listener at once
+    public static Integer CHANGE_FEED_BATCH_SIZE = 256;
+
+    // Write-behind queue (saveAsync): entries per group commit, longest wait for a batch to fill and most queued saves
+    public static Integer WRITE_BEHIND_BATCH_SIZE = 500;
+    public static Integer WRITE_BEHIND_MAX_DELAY_MS = 20;
+    public static Integer WRITE_BEHIND_CAPACITY = 10000;
+    // When true saves of the same entity queued before a flush are coalesced, only the last one is written and every
+    // future of the entity completes with it.  Off by default, every queued save is then written as its own state.
+    public static boolean WRITE_BEHIND_COALESCE = false;
+
+    // When true, a save whose data fields and delete flag match the current state writes nothing and returns the
+    // current state.  When false (the default), every save writes a new state.
+    public static boolean SKIP_UNCHANGED_SAVES = false;
+
+    // Times a save is retried when another writer saved the same entity while it was running
+    public static Integer SAVE_CONFLICT_RETRIES = 3;
+
+    // Skip checking the database, tables, fields and default entries when the model fingerprint stored at the last
+    // verification matches the registered model
+    public static boolean SKIP_VERIFIED_SCHEMA = true;
+
     public static String DEFAULT_TENANT_NAME = "Default FdfTenant";
     public static String DEFAULT_TENANT_DESRIPTION = "Default FdfTenant is created by 4dflib, if you do not intent to use "
             + "built in multi-tenancy or only have one FdfTenant, all data is member of this tenant by "
@@ -83,6 +178,16 @@ public class FdfSettings {
     }
 
     public static String returnDBConnectionString() {
+        return returnDBConnectionString(DB_HOST);
+    }
+
+    /**
+     * Connection string for the database on the host passed, used to connect to read replicas of DB_HOST.
+     *
+     * @param host host (and port) of the database server
+     * @return jdbc connection string
+     */
+    public static String returnDBConnectionString(String host) {
         String protocolString = "";
         String encodingString = "";
         String connection = "";
@@ -94,7 +199,7 @@ public class FdfSettings {
                 encodingString = "?characterEncoding=UTF-8";
             }
 
-            connection = protocolString + DB_HOST + "/" + DB_NAME + encodingString;
+            connection = protocolString + host + "/" + DB_NAME + encodingString;
         }
 
         if(DB_PROTOCOL == DatabaseUtil.DatabaseProtocol.JDBC_POSTGRES) {
@@ -104,7 +209,7 @@ public class FdfSettings {
                 encodingString = "?characterEncoding=UTF-8";
             }
 
-            connection = protocolString + DB_HOST + "/" + DB_NAME + encodingString;
+            connection = protocolString + host + "/" + DB_NAME + encodingString;
         }
 
         if(DB_PROTOCOL == DatabaseUtil.DatabaseProtocol.JDBC_HSQL) {
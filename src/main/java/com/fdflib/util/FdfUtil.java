@@ -16,7 +16,26 @@
 
 package com.fdflib.util;
 
+import com.fdflib.annotation.FdfDeltaHistory;
+import com.fdflib.annotation.FdfIgnore;
+import com.fdflib.model.state.CommonState;
+
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by brian.gormanly on 12/17/15.
@@ -25,6 +44,11 @@ public class FdfUtil {
 
     private static final String TYPE_NAME_PREFIX = "class ";
 
+    // bump when the tables the library builds change without a model change (new index, column type...)
+    private static final int SCHEMA_LAYOUT_VERSION = 4;
+
+    private static final Map<Class, List<Field>> dataFields = new ConcurrentHashMap<>();
+
     public static String getClassName(Class className) {
 
         String classString = className.toString();
@@ -53,4 +77,145 @@ public class FdfUtil {
         }
         return null;
     }
+
+    /**
+     * The persisted fields that hold the data of a model class, its public fields without the CommonState meta
+     * fields and fields marked @FdfIgnore.  Worked out once per class.
+     *
+     * @param c model class
+     * @return data fields of the class
+     */
+    public static List<Field> getDataFields(Class c) {
+        return dataFields.computeIfAbsent(c, modelClass -> {
+            List<Field> fields = new ArrayList<>();
+            for (Field field : modelClass.getFields()) {
+                if (!field.isAnnotationPresent(FdfIgnore.class) && field.getDeclaringClass() != CommonState.class) {
+                    fields.add(field);
+                }
+            }
+            return Collections.unmodifiableList(fields);
+        });
+    }
+
+    /**
+     * Copies a state of a model class field by field into a new instance.  The copy is shallow, field values such as
+     * dates and lists are shared with the original.
+     *
+     * @param c model class
+     * @param state state to copy
+     * @param <S> type of the state
+     * @return copy of the state, null if the class can not be instantiated
+     */
+    public static <S> S copyState(Class<S> c, S state) {
+        try {
+            S copy = c.newInstance();
+            for (Field field : c.getFields()) {
+                if (!Modifier.isFinal(field.getModifiers()) && !Modifier.isStatic(field.getModifiers())) {
+                    field.set(copy, field.get(state));
+                }
+            }
+            return copy;
+        } catch (InstantiationException | IllegalAccessException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Compares two states of a model class by their data fields and delete flag, the other meta fields (rid, dates,
+     * current flag, user, system and tenant) are not part of the comparison.
+     *
+     * @param c model class
+     * @param state a state
+     * @param otherState state to compare to
+     * @return true if saving otherState over state would change nothing
+     */
+    public static boolean hasSameData(Class c, CommonState state, CommonState otherState) {
+        if (state.df != otherState.df) {
+            return false;
+        }
+        try {
+            for (Field field : getDataFields(c)) {
+                if (!hasSameValue(field.get(state), field.get(otherState))) {
+                    return false;
+                }
+            }
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares two field values the way the database stores them.  A state read back holds java.sql.Timestamp where
+     * the saved one held java.util.Date, and a numeric column gives back its own scale, so dates are compared by
+     * their time and big decimals by their numeric value.  Anything else (arrays included) with Objects.deepEquals.
+     *
+     * @param value a field value
+     * @param otherValue field value to compare to
+     * @return true if both values are stored the same
+     */
+    public static boolean hasSameValue(Object value, Object otherValue) {
+        if (value instanceof Date && otherValue instanceof Date) {
+            return ((Date) value).getTime() == ((Date) otherValue).getTime();
+        }
+        if (value instanceof BigDecimal && otherValue instanceof BigDecimal) {
+            return ((BigDecimal) value).compareTo((BigDecimal) otherValue) == 0;
+        }
+        return Objects.deepEquals(value, otherValue);
+    }
+
+    /**
+     * SHA-256 fingerprint of a 4df data model: the model classes with their persisted fields and field types, the
+     * annotations and settings that change how they are stored and the library's own schema layout version.  Two
+     * models with the same fingerprint need the same database schema.
+     *
+     * @param modelClasses registered model classes
+     * @return hex encoded fingerprint
+     */
+    public static String getModelFingerprint(List<Class> modelClasses) {
+        StringBuilder model = new StringBuilder("layout:").append(SCHEMA_LAYOUT_VERSION)
+                .append(";storage:").append(FdfSettings.HISTORY_STORAGE).append("\n");
+        // a shard that was added since the last verification has to be checked too
+        if (FdfSettings.DB_SHARDS != null && !FdfSettings.DB_SHARDS.isEmpty()) {
+            model.append("shards:").append(new TreeMap<>(FdfSettings.DB_SHARDS)).append("\n");
+        }
+
+        // the same class can be registered more then once
+        List<Class> classes = new ArrayList<>(new LinkedHashSet<>(modelClasses));
+        classes.sort(Comparator.comparing(Class::getName));
+        for (Class c : classes) {
+            model.append(c.getName());
+            if (c.isAnnotationPresent(FdfIgnore.class)) {
+                model.append(":ignored");
+            }
+            if (c.isAnnotationPresent(FdfDeltaHistory.class)) {
+                model.append(":delta");
+            }
+            model.append("\n");
+
+            List<Field> fields = new ArrayList<>();
+            Collections.addAll(fields, c.getFields());
+            fields.sort(Comparator.comparing(Field::getName));
+            for (Field field : fields) {
+                if (!field.isAnnotationPresent(FdfIgnore.class)) {
+                    model.append("  ").append(field.getName()).append(":")
+                            .append(field.getGenericType().getTypeName()).append("\n");
+                }
+            }
+        }
+
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(model.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
 }
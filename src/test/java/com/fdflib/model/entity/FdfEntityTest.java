@@ -0,0 +1,88 @@
+package com.fdflib.model.entity;
+
+import com.fdflib.model.state.FdfTenant;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the lazy history mode of FdfEntity, no database connection is needed.
+ */
+public class FdfEntityTest {
+
+    private static FdfTenant state(long rid, boolean cf) {
+        FdfTenant tenant = new FdfTenant();
+        tenant.id = 7;
+        tenant.rid = rid;
+        tenant.cf = cf;
+        return tenant;
+    }
+
+    @Test
+    public void historyIsQueriedOnceOnFirstAccess() {
+        AtomicInteger queries = new AtomicInteger();
+        FdfEntity<FdfTenant> entity = new FdfEntity<>(state(3, true), () -> {
+            queries.incrementAndGet();
+            List<FdfTenant> history = new ArrayList<>();
+            history.add(state(1, false));
+            history.add(state(2, false));
+            return history;
+        });
+
+        Assert.assertEquals(7, entity.entityId);
+        Assert.assertFalse(entity.isHistoryLoaded());
+        Assert.assertEquals(0, queries.get());
+
+        Assert.assertEquals(2, entity.history.size());
+        Assert.assertEquals(2, entity.getStateByRid(2).rid);
+        Assert.assertTrue(entity.isHistoryLoaded());
+        Assert.assertEquals(1, queries.get());
+    }
+
+    @Test
+    public void lazyHistoryCanBeAddedTo() {
+        FdfEntity<FdfTenant> entity = new FdfEntity<>(state(3, true), ArrayList::new);
+        entity.history.add(state(1, false));
+
+        Assert.assertEquals(1, entity.history.size());
+        Assert.assertTrue(new FdfEntity<FdfTenant>().isHistoryLoaded());
+    }
+
+    private static FdfTenant version(long rid, long arsd, Long ared) {
+        FdfTenant tenant = state(rid, ared == null);
+        tenant.arsd = new Date(arsd);
+        tenant.ared = (ared != null ? new Date(ared) : null);
+        return tenant;
+    }
+
+    @Test
+    public void stateAtDateFindsTheActiveVersion() {
+        List<FdfTenant> history = new ArrayList<>();
+        history.add(version(2, 200, 300L));
+        history.add(version(1, 100, 200L));
+        FdfEntity<FdfTenant> entity = new FdfEntity<>(version(3, 300, null), history);
+
+        Assert.assertNull(entity.getStateOfEntityAt(new Date(50)));
+        Assert.assertEquals(1, entity.getStateOfEntityAt(new Date(150)).rid);
+        Assert.assertEquals(2, entity.getStateOfEntityAt(new Date(250)).rid);
+        Assert.assertEquals(3, entity.getStateOfEntityAt(new Date(5000)).rid);
+        Assert.assertEquals(1, entity.getStateByRid(1).rid);
+        Assert.assertNull(entity.getStateByRid(99));
+    }
+
+    @Test
+    public void indexFollowsChangesToHistory() {
+        FdfEntity<FdfTenant> entity = new FdfEntity<>();
+        entity.history.add(version(1, 100, 200L));
+        Assert.assertEquals(1, entity.getMostRecentState().rid);
+        Assert.assertNull(entity.getStateOfEntityAt(new Date(250)));
+
+        entity.history.add(version(2, 200, 300L));
+        Assert.assertEquals(2, entity.getMostRecentState().rid);
+        Assert.assertEquals(2, entity.getStateOfEntityAt(new Date(250)).rid);
+    }
+}
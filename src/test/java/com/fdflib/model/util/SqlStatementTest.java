@@ -0,0 +1,194 @@
+package com.fdflib.model.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+/**
+ * Checks the sql generated by SqlStatement, no database connection is needed.
+ */
+public class SqlStatementTest {
+
+    private static WhereClause tenant(long tid) {
+        WhereClause whereTid = new WhereClause();
+        whereTid.name = "tid";
+        whereTid.operator = WhereClause.Operators.EQUAL;
+        whereTid.value = Long.toString(tid);
+        whereTid.valueDataType = Long.class;
+        return whereTid;
+    }
+
+    private static WhereClause cf(WhereClause.Operators operator) {
+        WhereClause whereCf = new WhereClause();
+        whereCf.name = "cf";
+        whereCf.operator = operator;
+        whereCf.value = "true";
+        whereCf.valueDataType = Boolean.class;
+        return whereCf;
+    }
+
+    @Test
+    public void countIsRenderedAsServerSideAggregate() {
+        SqlStatement statement = SqlStatement.build().count().where(tenant(2));
+
+        Assert.assertTrue(statement.isAggregate());
+        Assert.assertEquals("SELECT count(*) AS fdfaggregate", statement.getSelect());
+        Assert.assertEquals(" WHERE tid = 2", statement.getWhere());
+    }
+
+    @Test
+    public void groupedAggregateSelectsGroupsFirst() {
+        SqlStatement statement = SqlStatement.build().countDistinct("id").groupBy("tid").groupBy("df");
+
+        Assert.assertEquals("SELECT tid, df, count(distinct id) AS fdfaggregate", statement.getSelect());
+        Assert.assertEquals(" GROUP BY tid, df", statement.getGroupBy());
+    }
+
+    @Test
+    public void minMaxAndSum() {
+        Assert.assertEquals("SELECT min(arsd) AS fdfaggregate", SqlStatement.build().min("arsd").getSelect());
+        Assert.assertEquals("SELECT max(rid) AS fdfaggregate", SqlStatement.build().max("rid").getSelect());
+        Assert.assertEquals("SELECT sum(balance) AS fdfaggregate", SqlStatement.build().sum("balance").getSelect());
+    }
+
+    @Test
+    public void plainStatementIsNotAggregate() {
+        SqlStatement statement = SqlStatement.build().select("id");
+
+        Assert.assertFalse(statement.isAggregate());
+        Assert.assertEquals("SELECT id", statement.getSelect());
+    }
+
+    @Test
+    public void firstSeekPageHasNoPredicate() {
+        SqlStatement statement = SqlStatement.build().where(tenant(1)).seek(SqlStatement.Keyset.RID, 50, null);
+
+        Assert.assertEquals(" WHERE tid = 1", statement.getWhere());
+        Assert.assertEquals(" ORDER BY rid", statement.getOrderBy());
+        Assert.assertEquals(" LIMIT 51", statement.getLimit());
+    }
+
+    @Test
+    public void seekContinuesAfterToken() {
+        String token = Base64.getUrlEncoder().encodeToString("RID:1200".getBytes(StandardCharsets.UTF_8));
+        SqlStatement statement = SqlStatement.build().where(tenant(1)).seek(SqlStatement.Keyset.RID, 50, token);
+
+        Assert.assertEquals(" WHERE (tid = 1) AND rid > 1200", statement.getWhere());
+        Assert.assertEquals(" LIMIT 51", statement.getLimit());
+    }
+
+    @Test
+    public void seekByIdAndArsdUsesRowComparison() {
+        long arsd = 1476800000123L;
+        String token = Base64.getUrlEncoder()
+                .encodeToString(("ID_ARSD:42:" + arsd + ":1200").getBytes(StandardCharsets.UTF_8));
+        SqlStatement statement = SqlStatement.build().seek(SqlStatement.Keyset.ID_ARSD, 10, token);
+
+        // rid breaks ties between versions saved in the same millisecond
+        Assert.assertEquals(" WHERE (id, arsd, rid) > (42, '" + new Timestamp(arsd) + "', 1200)",
+                statement.getWhere());
+        Assert.assertEquals(" ORDER BY id, arsd, rid", statement.getOrderBy());
+
+        // tokens issued without the rid still continue where they left off
+        String oldToken = Base64.getUrlEncoder()
+                .encodeToString(("ID_ARSD:42:" + arsd).getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(" WHERE (id, arsd) > (42, '" + new Timestamp(arsd) + "')",
+                SqlStatement.build().seek(SqlStatement.Keyset.ID_ARSD, 10, oldToken).getWhere());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tokenFromAnotherKeysetIsRejected() {
+        String token = Base64.getUrlEncoder().encodeToString("RID:1200".getBytes(StandardCharsets.UTF_8));
+        SqlStatement.build().seek(SqlStatement.Keyset.ID_ARSD, 10, token);
+    }
+
+    @Test
+    public void scopeFollowsTopLevelCurrentFlag() {
+        Assert.assertEquals(SqlStatement.Scope.CURRENT,
+                SqlStatement.build().where(tenant(1)).where(cf(WhereClause.Operators.EQUAL)).getScope());
+        Assert.assertEquals(SqlStatement.Scope.HISTORY,
+                SqlStatement.build().where(tenant(1)).where(cf(WhereClause.Operators.NOT_EQUAL)).getScope());
+        Assert.assertEquals(SqlStatement.Scope.ALL, SqlStatement.build().where(tenant(1)).getScope());
+    }
+
+    @Test
+    public void scopeIsAllWhenCurrentFlagIsOredOrGrouped() {
+        WhereClause orTenant = tenant(2);
+        orTenant.conditional = WhereClause.CONDITIONALS.OR;
+        Assert.assertEquals(SqlStatement.Scope.ALL,
+                SqlStatement.build().where(cf(WhereClause.Operators.EQUAL)).where(orTenant).getScope());
+
+        WhereClause groupedCf = cf(WhereClause.Operators.EQUAL);
+        groupedCf.groupings.add(WhereClause.GROUPINGS.OPEN_PARENTHESIS);
+        WhereClause closeTenant = tenant(2);
+        closeTenant.conditional = WhereClause.CONDITIONALS.OR;
+        closeTenant.groupings.add(WhereClause.GROUPINGS.CLOSE_PARENTHESIS);
+        Assert.assertEquals(SqlStatement.Scope.ALL,
+                SqlStatement.build().where(groupedCf).where(closeTenant).getScope());
+    }
+
+    @Test
+    public void seekAfterRidStartsAtHighWaterMark() {
+        SqlStatement statement = SqlStatement.build().seekAfterRid(9000, 100);
+
+        Assert.assertEquals(" WHERE rid > 9000", statement.getWhere());
+        Assert.assertEquals(" ORDER BY rid", statement.getOrderBy());
+        Assert.assertEquals(" LIMIT 101", statement.getLimit());
+    }
+
+    @Test
+    public void tenantIsTakenFromRequiredTidClause() {
+        Assert.assertEquals(4, SqlStatement.build().where(cf(WhereClause.Operators.EQUAL)).where(tenant(4)).getTenantId());
+        Assert.assertEquals(-1, SqlStatement.build().where(cf(WhereClause.Operators.EQUAL)).getTenantId());
+
+        WhereClause orTenant = tenant(5);
+        orTenant.conditional = WhereClause.CONDITIONALS.OR;
+        Assert.assertEquals(-1, SqlStatement.build().where(tenant(4)).where(orTenant).getTenantId());
+    }
+
+    @Test
+    public void laneIsDeducedFromShape() {
+        WhereClause byId = new WhereClause();
+        byId.name = "id";
+        byId.operator = WhereClause.Operators.EQUAL;
+        byId.value = "12";
+        byId.valueDataType = Long.class;
+
+        Assert.assertEquals(SqlStatement.Lane.POINT, SqlStatement.build().where(tenant(1)).where(byId).getLane());
+        Assert.assertEquals(SqlStatement.Lane.POINT,
+                SqlStatement.build().where(tenant(1)).seek(SqlStatement.Keyset.RID, 50, null).getLane());
+        Assert.assertEquals(SqlStatement.Lane.SCAN, SqlStatement.build().where(tenant(1)).getLane());
+        Assert.assertEquals(SqlStatement.Lane.SCAN, SqlStatement.build().where(byId).count().getLane());
+        Assert.assertEquals(SqlStatement.Lane.SCAN,
+                SqlStatement.build().where(byId).lane(SqlStatement.Lane.SCAN).getLane());
+    }
+
+    @Test
+    public void timeSeriesCountsRowsOfTheBucket() {
+        Assert.assertEquals("count(rid)", SqlStatement.build().getTimeSeriesAggregate());
+        Assert.assertEquals("count(rid)", SqlStatement.build().count().getTimeSeriesAggregate());
+        Assert.assertEquals("count(distinct id)", SqlStatement.build().countDistinct("id").getTimeSeriesAggregate());
+        Assert.assertEquals("coalesce(sum(balance), 0)", SqlStatement.build().sum("balance").getTimeSeriesAggregate());
+        Assert.assertEquals("avg(balance)", SqlStatement.build().avg("balance").getTimeSeriesAggregate());
+    }
+
+    @Test
+    public void seekByArsdAndRidFollowsSaveOrder() {
+        long arsd = 1476800000123L;
+        String token = Base64.getUrlEncoder()
+                .encodeToString(("ARSD_RID:77:" + arsd).getBytes(StandardCharsets.UTF_8));
+        WhereClause byUser = new WhereClause();
+        byUser.name = "euid";
+        byUser.value = "5";
+        byUser.valueDataType = Long.class;
+        SqlStatement statement = SqlStatement.build().where(byUser).seek(SqlStatement.Keyset.ARSD_RID, 20, token);
+
+        Assert.assertEquals(" WHERE (euid = 5) AND (arsd, rid) > ('" + new Timestamp(arsd) + "', 77)",
+                statement.getWhere());
+        Assert.assertEquals(" ORDER BY arsd, rid", statement.getOrderBy());
+        Assert.assertEquals(" LIMIT 21", statement.getLimit());
+    }
+}
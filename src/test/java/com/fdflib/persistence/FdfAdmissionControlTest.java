@@ -0,0 +1,84 @@
+package com.fdflib.persistence;
+
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the tenant limits and fair ordering of admission control, no database connection is needed.
+ */
+public class FdfAdmissionControlTest {
+
+    @After
+    public void tearDown() {
+        FdfSettings.DB_MAX_CONCURRENT_QUERIES = 0;
+        FdfSettings.TENANT_MAX_CONCURRENT_QUERIES = 4;
+        FdfSettings.ADMISSION_OVERFLOW = DatabaseUtil.AdmissionOverflow.WAIT;
+    }
+
+    @Test
+    public void rejectsOverTenantAndGlobalLimits() {
+        FdfSettings.DB_MAX_CONCURRENT_QUERIES = 2;
+        FdfSettings.TENANT_MAX_CONCURRENT_QUERIES = 1;
+        FdfSettings.ADMISSION_OVERFLOW = DatabaseUtil.AdmissionOverflow.REJECT;
+        FdfAdmissionControl admission = new FdfAdmissionControl();
+
+        FdfAdmissionControl.Lease first = admission.acquire(5);
+        assertRejected(admission, 5);
+        FdfAdmissionControl.Lease other = admission.acquire(6);
+        assertRejected(admission, 7);
+
+        first.close();
+        admission.acquire(7).close();
+        other.close();
+    }
+
+    @Test
+    public void idleTenantGoesBeforeTenantWithQueue() throws InterruptedException {
+        FdfSettings.DB_MAX_CONCURRENT_QUERIES = 1;
+        FdfAdmissionControl admission = new FdfAdmissionControl();
+        List<Long> order = Collections.synchronizedList(new ArrayList<>());
+
+        FdfAdmissionControl.Lease busy = admission.acquire(5);
+        Thread sameTenant = waitForTurn(admission, 5, order);
+        Thread otherTenant = waitForTurn(admission, 6, order);
+
+        busy.close();
+        sameTenant.join();
+        otherTenant.join();
+
+        // arrival order would have been 5 then 6
+        Assert.assertEquals(6L, (long) order.get(0));
+        Assert.assertEquals(5L, (long) order.get(1));
+    }
+
+    private static Thread waitForTurn(FdfAdmissionControl admission, long tenantId, List<Long> order)
+            throws InterruptedException {
+        int waiting = admission.getWaiting(tenantId);
+        Thread thread = new Thread(() -> {
+            try(FdfAdmissionControl.Lease lease = admission.acquire(tenantId)) {
+                order.add(tenantId);
+            }
+        });
+        thread.start();
+        while(admission.getWaiting(tenantId) == waiting) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+
+    private static void assertRejected(FdfAdmissionControl admission, long tenantId) {
+        try {
+            admission.acquire(tenantId);
+            Assert.fail("expected tenant " + tenantId + " to be rejected");
+        } catch (FdfOverloadedException e) {
+            Assert.assertEquals(tenantId, e.getTenantId());
+        }
+    }
+}
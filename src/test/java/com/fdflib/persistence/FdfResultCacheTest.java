@@ -0,0 +1,80 @@
+package com.fdflib.persistence;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Checks version invalidation of the result cache, no database connection is needed.
+ */
+public class FdfResultCacheTest {
+
+    private FdfResultCache cache;
+
+    @Before
+    public void setUp() {
+        FdfSettings.RESULT_CACHE_MAX_ENTRIES = 10;
+        cache = new FdfResultCache();
+    }
+
+    @After
+    public void tearDown() {
+        FdfSettings.RESULT_CACHE_MAX_ENTRIES = 0;
+    }
+
+    private static CommonState state(long id, boolean closed) {
+        CommonState state = new CommonState();
+        state.id = id;
+        state.cf = !closed;
+        state.ared = closed ? new Date(1000) : null;
+        return state;
+    }
+
+    @Test
+    public void writeInvalidatesCachedResult() {
+        SqlStatement statement = SqlStatement.build().select("id");
+        cache.put(CommonState.class, statement, cache.getVersion(CommonState.class),
+                Collections.singletonList(state(7, false)));
+
+        List<CommonState> cached = cache.get(CommonState.class, SqlStatement.build().select("id"));
+        Assert.assertEquals(7, cached.get(0).id);
+
+        // callers get copies
+        cached.get(0).id = 8;
+        Assert.assertEquals(7, cache.get(CommonState.class, statement).get(0).id);
+
+        cache.invalidate(CommonState.class);
+        Assert.assertNull(cache.get(CommonState.class, statement));
+    }
+
+    @Test
+    public void resultReadBeforeWriteIsNotCached() {
+        SqlStatement statement = SqlStatement.build().select("id");
+        long version = cache.getVersion(CommonState.class);
+        cache.invalidate(CommonState.class);
+        cache.put(CommonState.class, statement, version, Collections.singletonList(state(7, false)));
+
+        Assert.assertNull(cache.get(CommonState.class, statement));
+    }
+
+    @Test
+    public void closedPastSnapshotOutlivesWrites() {
+        SqlStatement statement = SqlStatement.build().select("id").asOf(new Date(500));
+        cache.put(CommonState.class, statement, cache.getVersion(CommonState.class),
+                Collections.singletonList(state(7, true)));
+
+        cache.invalidate(CommonState.class);
+        Assert.assertNotNull(cache.get(CommonState.class, statement));
+
+        cache.invalidateHistory(CommonState.class);
+        Assert.assertNull(cache.get(CommonState.class, statement));
+    }
+}
@@ -0,0 +1,79 @@
+package com.fdflib.persistence;
+
+import com.fdflib.persistence.connection.DbConnectionManager;
+import com.fdflib.persistence.impl.CorePersistenceImpl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Persistence layer for tests that answers from the functions it is given instead of a database and records every
+ * call made to it.  Methods without an answer return an empty list or map, 0, false or null.  install replaces the
+ * persistence FdfPersistence delegates to, uninstall puts the previous one back.
+ */
+public class StubPersistence implements InvocationHandler {
+
+    private final Map<String, Function<Object[], Object>> answers = new ConcurrentHashMap<>();
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+    private CorePersistenceImpl previous = null;
+
+    public StubPersistence answer(String method, Function<Object[], Object> answer) {
+        answers.put(method, answer);
+        return this;
+    }
+
+    public void install() {
+        // the facade sets up the configured persistence when it is first used
+        FdfPersistence.getInstance();
+        previous = DbConnectionManager.persistence;
+        DbConnectionManager.persistence = (CorePersistenceImpl) Proxy.newProxyInstance(
+                CorePersistenceImpl.class.getClassLoader(), new Class[] { CorePersistenceImpl.class }, this);
+    }
+
+    public void uninstall() {
+        DbConnectionManager.persistence = previous;
+    }
+
+    /**
+     * @return number of calls made to the method
+     */
+    public int count(String method) {
+        synchronized (calls) {
+            return (int) calls.stream().filter(method::equals).count();
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        calls.add(method.getName());
+        Function<Object[], Object> answer = answers.get(method.getName());
+        if (answer != null) {
+            return answer.apply(args);
+        }
+        Class<?> type = method.getReturnType();
+        if (type == List.class) {
+            return new ArrayList<>();
+        }
+        if (type == Map.class) {
+            return new HashMap<>();
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,79 @@
+package com.fdflib.persistence.connection;
+
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Checks read routing between the primary and the read replicas, no database connection is needed.
+ */
+public class FdfReadRouterTest {
+
+    @Before
+    public void setUp() {
+        FdfSettings.DB_READ_REPLICA_HOSTS = new ArrayList<>(Arrays.asList("replica-a", "replica-b"));
+        FdfSettings.READ_YOUR_WRITES_MS = 60000;
+    }
+
+    @After
+    public void tearDown() {
+        FdfSettings.DB_READ_REPLICA_HOSTS = new ArrayList<>();
+        FdfSettings.READ_YOUR_WRITES_MS = 5000;
+    }
+
+    @Test
+    public void readsAlternateBetweenReplicas() {
+        String first = FdfReadRouter.getInstance().getReadHost();
+        String second = FdfReadRouter.getInstance().getReadHost();
+
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertFalse(first.equals(second));
+    }
+
+    @Test
+    public void pinnedThreadReadsFromPrimary() {
+        try(FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) {
+            Assert.assertNull(FdfReadRouter.getInstance().getReadHost());
+        }
+        Assert.assertNotNull(FdfReadRouter.getInstance().getReadHost());
+    }
+
+    @Test
+    public void threadReadsItsOwnWritesFromPrimary() throws InterruptedException {
+        FdfReadRouter.getInstance().recordWrite();
+        Assert.assertNull(FdfReadRouter.getInstance().getReadHost());
+
+        // other threads are not affected
+        String[] otherThreadHost = new String[1];
+        Thread other = new Thread(() -> otherThreadHost[0] = FdfReadRouter.getInstance().getReadHost());
+        other.start();
+        other.join();
+        Assert.assertNotNull(otherThreadHost[0]);
+
+        FdfSettings.READ_YOUR_WRITES_MS = 0;
+        Assert.assertNotNull(FdfReadRouter.getInstance().getReadHost());
+    }
+
+    @Test
+    public void onlyPrimaryReadsAreReportedAsSuch() {
+        // decides whether FdfPersistence caches a result
+        Assert.assertFalse(FdfReadRouter.getInstance().readsFromPrimary());
+        try(FdfReadRouter.PrimaryPin pin = FdfReadRouter.getInstance().pinToPrimary()) {
+            Assert.assertTrue(FdfReadRouter.getInstance().readsFromPrimary());
+        }
+
+        FdfReadRouter.getInstance().recordWrite();
+        Assert.assertTrue(FdfReadRouter.getInstance().readsFromPrimary());
+        FdfSettings.READ_YOUR_WRITES_MS = 0;
+        Assert.assertFalse(FdfReadRouter.getInstance().readsFromPrimary());
+
+        FdfSettings.DB_READ_REPLICA_HOSTS = new ArrayList<>();
+        Assert.assertTrue(FdfReadRouter.getInstance().readsFromPrimary());
+    }
+}
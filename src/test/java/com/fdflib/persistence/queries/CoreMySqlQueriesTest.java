@@ -0,0 +1,66 @@
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.FdfTimeSeries;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.util.FdfSettings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Checks the LOAD DATA text encoding of the MySQL bulk load and the time series buckets, no database connection is
+ * needed.
+ */
+public class CoreMySqlQueriesTest {
+
+    public static class Item extends CommonState {
+        public String name;
+        public BigDecimal price;
+    }
+
+    private static String value(String field, Object value) throws IOException, NoSuchFieldException {
+        return CoreMySqlQueries.getLoadDataValue(Item.class.getField(field), value);
+    }
+
+    @Test
+    public void separatorsAndEscapesAreEscaped() throws Exception {
+        Assert.assertEquals("a\\tb\\nc\\\\d\\re", value("name", "a\tb\nc\\d\re"));
+        Assert.assertEquals("\\N", value("name", null));
+    }
+
+    @Test
+    public void valuesUseTheColumnRepresentation() throws Exception {
+        Assert.assertEquals("1", value("cf", true));
+        Assert.assertEquals("0", value("df", false));
+        Assert.assertEquals("42", value("id", 42L));
+        Assert.assertEquals("0.00000010", value("price", new BigDecimal("1.0E-7").setScale(8)));
+        Date arsd = Date.from(LocalDateTime.of(2016, 3, 4, 5, 6, 7).atZone(ZoneId.systemDefault()).toInstant());
+        Assert.assertEquals("2016-03-04 05:06:07", value("arsd", arsd));
+    }
+
+    private static Date date(int year, int month, int day) {
+        return Date.from(LocalDateTime.of(year, month, day, 0, 0).atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    @Test
+    public void timeSeriesBucketsAreSelectedAsADerivedTable() {
+        String sql = CoreMySqlQueries.getTimeSeriesSql(Item.class, SqlStatement.build(), FdfTimeSeries.Bucket.MONTH,
+                date(2016, 1, 31), date(2016, 4, 1));
+
+        // months are added to the previous bucket start, the same way generate_series steps
+        Assert.assertTrue(sql, sql.contains("FROM (SELECT TIMESTAMP '" + new Timestamp(date(2016, 1, 31).getTime())
+                + "' AS fdfbucket, TIMESTAMP '" + new Timestamp(date(2016, 2, 29).getTime()) + "' AS fdfbucketend"
+                + " UNION ALL SELECT TIMESTAMP '" + new Timestamp(date(2016, 2, 29).getTime()) + "'"));
+        Assert.assertTrue(sql, sql.contains(" UNION ALL SELECT TIMESTAMP '" + new Timestamp(date(2016, 3, 29).getTime())
+                + "' AS fdfbucket, TIMESTAMP '" + new Timestamp(date(2016, 4, 29).getTime()) + "' AS fdfbucketend)"));
+        Assert.assertTrue(sql, sql.contains(" LEFT JOIN " + FdfSettings.DB_NAME + ".Item ON arsd < "
+                + "fdfbuckets.fdfbucketend AND (ared IS NULL OR ared > fdfbuckets.fdfbucket) GROUP BY"));
+    }
+}
@@ -0,0 +1,113 @@
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.persistence.connection.FdfShardMap;
+import com.fdflib.persistence.database.DatabaseUtil;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Checks the statements built for exports across shards, partitioned tables and shard rid ranges, no database
+ * connection is needed.
+ */
+public class CorePostgreSqlQueriesTest {
+
+    @After
+    public void tearDown() {
+        FdfSettings.DB_SHARDS = new LinkedHashMap<>();
+        FdfSettings.HISTORY_STORAGE = DatabaseUtil.HistoryStorage.SINGLE_TABLE;
+        FdfSettings.HISTORY_PARTITION_INTERVAL = DatabaseUtil.PartitionInterval.MONTHLY;
+    }
+
+    @Test
+    public void csvHeaderIsOnlyWrittenByTheFirstShard() {
+        List<String> sql = CorePostgreSqlQueries.getExportSql(CommonState.class, SqlStatement.build().select("id"),
+                DatabaseUtil.ExportFormat.CSV, 3);
+
+        Assert.assertEquals(3, sql.size());
+        Assert.assertTrue(sql.get(0), sql.get(0).endsWith("TO STDOUT (FORMAT csv, HEADER true)"));
+        Assert.assertTrue(sql.get(1), sql.get(1).endsWith("TO STDOUT (FORMAT csv, HEADER false)"));
+        Assert.assertTrue(sql.get(2), sql.get(2).endsWith("TO STDOUT (FORMAT csv, HEADER false)"));
+    }
+
+    @Test
+    public void binaryExportReadsOneShard() {
+        List<String> sql = CorePostgreSqlQueries.getExportSql(CommonState.class, SqlStatement.build().select("id"),
+                DatabaseUtil.ExportFormat.BINARY, 1);
+        Assert.assertTrue(sql.get(0), sql.get(0).endsWith("TO STDOUT (FORMAT binary)"));
+
+        try {
+            CorePostgreSqlQueries.getExportSql(CommonState.class, SqlStatement.build().select("id"),
+                    DatabaseUtil.ExportFormat.BINARY, 2);
+            Assert.fail("binary export of two shards");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void binaryExportWithoutTenantIsRejectedWhenSharded() throws Exception {
+        FdfSettings.DB_SHARDS = new LinkedHashMap<>();
+        FdfSettings.DB_SHARDS.put("eu", "eu-db");
+
+        // rejected before any connection is made
+        CorePostgreSqlQueries.getInstance().export(CommonState.class, SqlStatement.build().select("id"),
+                DatabaseUtil.ExportFormat.BINARY, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void partitionedTableOnlyTakesCurrentStatesInTheDefaultPartition() {
+        FdfSettings.HISTORY_STORAGE = DatabaseUtil.HistoryStorage.PARTITIONED;
+        List<Field> fields = Arrays.asList(CommonState.class.getFields());
+
+        List<String> sql = CorePostgreSqlQueries.getCreateTableSql(CommonState.class, fields);
+
+        Assert.assertTrue(sql.get(0), sql.get(0).startsWith("CREATE TABLE \"commonstate\" ("));
+        Assert.assertTrue(sql.get(0), sql.get(0).endsWith(" PARTITION BY RANGE (ared);"));
+        Assert.assertFalse(sql.get(0), sql.get(0).contains("PRIMARY KEY"));
+        Assert.assertEquals("CREATE TABLE \"commonstate_current\" PARTITION OF \"commonstate\" (CONSTRAINT "
+                + "\"commonstate_current_ared_check\" CHECK (ared IS NULL)) DEFAULT;", sql.get(1));
+        // states closed before the table was created have a partition of their own
+        Assert.assertEquals("CREATE TABLE \"commonstate_hmin\" PARTITION OF \"commonstate\" "
+                + "FOR VALUES FROM (MINVALUE) TO ('" + LocalDate.now().withDayOfMonth(1) + "');", sql.get(2));
+    }
+
+    @Test
+    public void historyPartitionsAreNamedByTheirInterval() {
+        LocalDate february = LocalDate.of(2026, 2, 1);
+        Assert.assertEquals("CREATE TABLE IF NOT EXISTS \"item_h2026_02\" PARTITION OF \"item\" "
+                        + "FOR VALUES FROM ('2026-02-01') TO ('2026-03-01');",
+                CorePostgreSqlQueries.getCreatePartitionSql("item", february, february.plusMonths(1)));
+
+        FdfSettings.HISTORY_PARTITION_INTERVAL = DatabaseUtil.PartitionInterval.YEARLY;
+        LocalDate year = CorePostgreSqlQueries.getPartitionStart(LocalDate.of(2026, 7, 14));
+        Assert.assertEquals(LocalDate.of(2026, 1, 1), year);
+        Assert.assertEquals("CREATE TABLE IF NOT EXISTS \"item_h2026\" PARTITION OF \"item\" "
+                        + "FOR VALUES FROM ('2026-01-01') TO ('2027-01-01');",
+                CorePostgreSqlQueries.getCreatePartitionSql("item", year, year.plusYears(1)));
+    }
+
+    @Test
+    public void eachShardDrawsRidsFromItsOwnRange() {
+        FdfSettings.DB_SHARDS.put("eu", "eu-db");
+        FdfSettings.DB_SHARDS.put("us", "us-db");
+
+        Assert.assertEquals(0, FdfShardMap.getInstance().getRidRangeStart(FdfShardMap.DEFAULT_SHARD));
+        Assert.assertEquals(FdfShardMap.RID_RANGE, FdfShardMap.getInstance().getRidRangeStart("eu"));
+        Assert.assertEquals(2 * FdfShardMap.RID_RANGE, FdfShardMap.getInstance().getRidRangeStart("us"));
+
+        Assert.assertEquals("\"commonstate_rid_seq\"", CorePostgreSqlQueries.getRidSequence(CommonState.class));
+        FdfSettings.HISTORY_STORAGE = DatabaseUtil.HistoryStorage.SPLIT_TABLES;
+        Assert.assertEquals("\"commonstate_current_rid_seq\"", CorePostgreSqlQueries.getRidSequence(CommonState.class));
+    }
+}
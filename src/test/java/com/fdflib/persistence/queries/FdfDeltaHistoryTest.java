@@ -0,0 +1,136 @@
+package com.fdflib.persistence.queries;
+
+import com.fdflib.annotation.FdfDeltaHistory;
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.FdfTimeSeries;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.model.util.WhereClause;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks how states of FdfDeltaHistory classes are stored as deltas and rebuilt, no database connection is needed.
+ */
+public class FdfDeltaHistoryTest {
+
+    @FdfDeltaHistory(keyframeInterval = 3)
+    public static class Item extends CommonState {
+        public String name;
+        public BigDecimal price;
+        public Date due;
+    }
+
+    private static Item item(long rid, String name, String price, long due) {
+        Item item = new Item();
+        item.rid = rid;
+        item.id = 1;
+        item.tid = 1;
+        item.arsd = new Date(rid * 1000);
+        item.name = name;
+        item.price = price != null ? new BigDecimal(price) : null;
+        item.due = new Date(due);
+        return item;
+    }
+
+    private static WhereClause clause(String name, String value) {
+        WhereClause clause = new WhereClause();
+        clause.name = name;
+        clause.operator = WhereClause.Operators.EQUAL;
+        clause.value = value;
+        return clause;
+    }
+
+    @Test
+    public void unchangedFieldsAreLeftOutExceptOnKeyframes() throws IllegalAccessException {
+        Item closing = item(1, "a", "1.50", 1000);
+        // same price and due date, compared by value
+        Item next = item(2, "b", "1.5", 1000);
+        next.due = new Timestamp(1000);
+
+        Assert.assertEquals(Arrays.asList("price", "due"),
+                CorePostgreSqlQueries.getUnchangedFields(Item.class, closing, next, 0, 3));
+        // the third closed version is a keyframe
+        Assert.assertEquals(Collections.emptyList(),
+                CorePostgreSqlQueries.getUnchangedFields(Item.class, closing, next, 2, 3));
+    }
+
+    @Test
+    public void deltasAreRebuiltFromTheNewerVersions() {
+        Item current = item(3, "c", "2", 3000);
+        Item middle = item(2, "b", null, 3000);
+        Item oldest = item(1, null, null, 1000);
+        Map<Object, String> versionDeltas = new IdentityHashMap<>();
+        versionDeltas.put(middle, "price,due");
+        versionDeltas.put(oldest, "name,price");
+
+        // the state queried is a separate instance of the oldest version
+        Item queried = item(1, null, null, 1000);
+        Map<Object, String> deltas = new IdentityHashMap<>();
+        deltas.put(queried, "name,price");
+
+        CorePostgreSqlQueries.rebuildDeltas(Item.class, deltas, Arrays.asList(current, middle, oldest), versionDeltas);
+
+        Assert.assertEquals("b", queried.name);
+        Assert.assertEquals(new BigDecimal("2"), queried.price);
+        Assert.assertEquals(new Date(1000), queried.due);
+    }
+
+    @Test
+    public void reconstructionStopsAtTheNearestFullVersion() {
+        Item older = item(1, null, null, 1000);
+        Item newer = item(4, null, null, 1000);
+        List<Item> deltaStates = Arrays.asList(newer, older);
+
+        String sql = CorePostgreSqlQueries.getDeltaReconstructionSql(Item.class, deltaStates);
+
+        Assert.assertEquals(1, sql.split(" OR ").length);
+        Assert.assertTrue(sql, sql.contains("arsd >= '" + new Timestamp(1000) + "'"));
+        Assert.assertTrue(sql, sql.contains("k.arsd > '" + new Timestamp(4000) + "' AND k.fdfdelta IS NULL"));
+        Assert.assertTrue(sql, sql.endsWith("ORDER BY tid, id, arsd DESC;"));
+    }
+
+    @Test
+    public void dataFieldsCanOnlyBeQueriedOnCurrentStates() {
+        CorePostgreSqlQueries.checkDeltaHistory(Item.class, SqlStatement.build().where(clause("id", "1")));
+        CorePostgreSqlQueries.checkDeltaHistory(Item.class,
+                SqlStatement.build().where(clause("cf", "true")).where(clause("name", "a")).sum("price"));
+
+        try {
+            CorePostgreSqlQueries.checkDeltaHistory(Item.class, SqlStatement.build().where(clause("name", "a")));
+            Assert.fail("history filtered by a data field");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("name"));
+        }
+        try {
+            CorePostgreSqlQueries.checkDeltaHistory(Item.class, SqlStatement.build().sum("price"));
+            Assert.fail("history aggregated over a data field");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("price"));
+        }
+    }
+
+    @Test
+    public void timeSeriesCanOnlyAggregateCommonStateFields() {
+        Date start = new Date(0);
+        Date end = new Date(86400000);
+        Assert.assertNotNull(CorePostgreSqlQueries.getTimeSeriesSql(Item.class,
+                SqlStatement.build().countDistinct("id"), FdfTimeSeries.Bucket.HOUR, start, end));
+
+        try {
+            CorePostgreSqlQueries.getTimeSeriesSql(Item.class, SqlStatement.build().sum("price"),
+                    FdfTimeSeries.Bucket.HOUR, start, end);
+            Assert.fail("time series over a data field of delta history");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("price"));
+        }
+    }
+}
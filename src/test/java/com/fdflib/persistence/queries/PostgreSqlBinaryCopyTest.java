@@ -0,0 +1,58 @@
+package com.fdflib.persistence.queries;
+
+import com.fdflib.model.state.CommonState;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Checks the binary COPY encoding against the values postgresql itself sends for the same data.
+ */
+public class PostgreSqlBinaryCopyTest {
+
+    private static ByteBuffer numeric(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PostgreSqlBinaryCopy.writeNumeric(new DataOutputStream(bytes), new BigDecimal(value));
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static void assertNumeric(ByteBuffer actual, int weight, int sign, int scale, int... digits) {
+        Assert.assertEquals(digits.length, actual.getShort());
+        Assert.assertEquals(weight, actual.getShort());
+        Assert.assertEquals(sign, actual.getShort());
+        Assert.assertEquals(scale, actual.getShort());
+        for (int digit : digits) {
+            Assert.assertEquals(digit, actual.getShort());
+        }
+        Assert.assertFalse(actual.hasRemaining());
+    }
+
+    @Test
+    public void numericIsWrittenInBase10000() throws IOException {
+        assertNumeric(numeric("12345.6700"), 1, 0x0000, 4, 1, 2345, 6700);
+        assertNumeric(numeric("-0.0005"), -1, 0x4000, 4, 5);
+        assertNumeric(numeric("0.00"), 0, 0x0000, 2);
+        assertNumeric(numeric("10000"), 1, 0x0000, 0, 1);
+    }
+
+    @Test
+    public void timestampCountsMicrosecondsSince2000() {
+        Date date = Date.from(LocalDateTime.of(2000, 1, 2, 0, 0, 0, 5000000).atZone(ZoneId.systemDefault()).toInstant());
+        Assert.assertEquals(86400000000L + 5000L, PostgreSqlBinaryCopy.toTimestamp(date));
+    }
+
+    @Test
+    public void ridIsNotCopied() {
+        Assert.assertEquals("COPY \"commonstate\" (id, cf, df, arsd, ared, euid, esid, tid) FROM STDIN (FORMAT binary)",
+                PostgreSqlBinaryCopy.getCopySql("commonstate",
+                        PostgreSqlBinaryCopy.getCopyFields(CommonState.class)));
+    }
+}
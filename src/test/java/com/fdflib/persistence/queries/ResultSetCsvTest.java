@@ -0,0 +1,23 @@
+package com.fdflib.persistence.queries;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the CSV quoting of the MySQL and HSQL export against the output of the PostgreSQL COPY TO CSV format.
+ */
+public class ResultSetCsvTest {
+
+    @Test
+    public void fieldsAreOnlyQuotedWhenNeeded() {
+        Assert.assertEquals("plain text", ResultSetCsv.quote("plain text"));
+        Assert.assertEquals("\"a,b\"", ResultSetCsv.quote("a,b"));
+        Assert.assertEquals("\"say \"\"hi\"\"\"", ResultSetCsv.quote("say \"hi\""));
+        Assert.assertEquals("\"two\nlines\"", ResultSetCsv.quote("two\nlines"));
+    }
+
+    @Test
+    public void emptyStringIsQuotedToTellItFromNull() {
+        Assert.assertEquals("\"\"", ResultSetCsv.quote(""));
+    }
+}
@@ -0,0 +1,51 @@
+package com.fdflib.service;
+
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the salted password hashes, no database connection is needed.
+ */
+public class FdfSystemServicesTest {
+
+    private final FdfSystemServices systemServices = new FdfSystemServices();
+    private Integer iterations;
+
+    @Before
+    public void setUp() {
+        iterations = FdfSettings.PASSWORD_HASH_ITERATIONS;
+        FdfSettings.PASSWORD_HASH_ITERATIONS = 1000;
+    }
+
+    @After
+    public void tearDown() {
+        FdfSettings.PASSWORD_HASH_ITERATIONS = iterations;
+    }
+
+    @Test
+    public void saltedHashVerifiesOnlyItsPassword() {
+        String password = systemServices.hashPassword("secret");
+        String saltedHash = systemServices.hashPasswordSalted(password);
+
+        Assert.assertTrue(saltedHash.startsWith("pbkdf2$1000$"));
+        Assert.assertTrue(FdfSystemServices.verifySaltedHash(saltedHash, password));
+        Assert.assertFalse(FdfSystemServices.verifySaltedHash(saltedHash, systemServices.hashPassword("Secret")));
+    }
+
+    @Test
+    public void samePasswordGetsADifferentSalt() {
+        String password = systemServices.hashPassword("secret");
+
+        String first = systemServices.hashPasswordSalted(password);
+        Assert.assertFalse(first.equals(systemServices.hashPasswordSalted(password)));
+    }
+
+    @Test
+    public void malformedSaltedHashDoesNotVerify() {
+        Assert.assertFalse(FdfSystemServices.verifySaltedHash("pbkdf2$x$y", "abc"));
+        Assert.assertFalse(FdfSystemServices.verifySaltedHash("pbkdf2$many$c2FsdA==$aGFzaA==", "abc"));
+    }
+}
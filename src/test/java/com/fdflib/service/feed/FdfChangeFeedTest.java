@@ -0,0 +1,121 @@
+package com.fdflib.service.feed;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks delivery, batching and overflow of the change feed, no database connection is needed.
+ */
+public class FdfChangeFeedTest {
+
+    private FdfChangeFeed feed;
+    private final List<List<Long>> batches = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch firstBatchEntered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        feed = new FdfChangeFeed();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        FdfSettings.CHANGE_FEED_CAPACITY = 8192;
+        FdfSettings.CHANGE_FEED_BATCH_SIZE = 256;
+    }
+
+    private static FdfChangeEvent event(long id) {
+        return new FdfChangeEvent(CommonState.class, 1, id, -1, id, FdfChangeEvent.Type.CREATED, new Date());
+    }
+
+    /**
+     * Listener that records the ids of each batch and holds the delivery thread in its first batch until released,
+     * so the events published meanwhile wait in the buffer.
+     */
+    private CountDownLatch listen(int expectedEvents) {
+        CountDownLatch delivered = new CountDownLatch(expectedEvents);
+        feed.addListener(events -> {
+            List<Long> ids = new ArrayList<>();
+            for (FdfChangeEvent event : events) {
+                ids.add(event.id);
+            }
+            batches.add(ids);
+            for (int i = 0; i < ids.size(); i++) {
+                delivered.countDown();
+            }
+            firstBatchEntered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return delivered;
+    }
+
+    @Test
+    public void eventsAreDeliveredInOrderInBatches() throws InterruptedException {
+        FdfSettings.CHANGE_FEED_BATCH_SIZE = 3;
+        CountDownLatch delivered = listen(8);
+
+        feed.publish(event(0));
+        Assert.assertTrue(firstBatchEntered.await(5, TimeUnit.SECONDS));
+        for (long id = 1; id < 8; id++) {
+            feed.publish(event(id));
+        }
+        release.countDown();
+
+        Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(Collections.singletonList(0L), Arrays.asList(1L, 2L, 3L),
+                Arrays.asList(4L, 5L, 6L), Collections.singletonList(7L)), batches);
+        Assert.assertEquals(0, feed.getDroppedCount());
+    }
+
+    @Test
+    public void fullBufferDropsTheOldestEvents() throws InterruptedException {
+        FdfSettings.CHANGE_FEED_CAPACITY = 2;
+        CountDownLatch delivered = listen(3);
+
+        feed.publish(event(0));
+        Assert.assertTrue(firstBatchEntered.await(5, TimeUnit.SECONDS));
+        // publishing never blocks, events 1 and 2 make room for 3 and 4
+        for (long id = 1; id < 5; id++) {
+            feed.publish(event(id));
+        }
+        release.countDown();
+
+        Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        List<Long> ids = new ArrayList<>();
+        synchronized (batches) {
+            batches.forEach(ids::addAll);
+        }
+        Assert.assertEquals(Arrays.asList(0L, 3L, 4L), ids);
+        Assert.assertEquals(2, feed.getDroppedCount());
+    }
+
+    @Test
+    public void nothingIsBufferedWithoutListeners() {
+        feed.publish(event(0));
+        Assert.assertFalse(feed.hasListeners());
+
+        FdfChangeListener listener = events -> { };
+        feed.addListener(listener);
+        Assert.assertTrue(feed.hasListeners());
+        feed.removeListener(listener);
+        Assert.assertFalse(feed.hasListeners());
+        Assert.assertEquals(0, feed.getDroppedCount());
+    }
+}
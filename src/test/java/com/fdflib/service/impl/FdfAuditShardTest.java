@@ -0,0 +1,43 @@
+package com.fdflib.service.impl;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.service.feed.ChangeStream;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Checks that audits and change streams across tenants refuse to run when the tenants are sharded, no database
+ * connection is needed.
+ */
+public class FdfAuditShardTest {
+
+    @Before
+    public void setUp() {
+        FdfSettings.DB_SHARDS = new LinkedHashMap<>();
+        FdfSettings.DB_SHARDS.put("eu", "eu-db");
+    }
+
+    @After
+    public void tearDown() {
+        FdfSettings.DB_SHARDS = new LinkedHashMap<>();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void auditByUserAcrossShardsIsRejected() {
+        FdfCommonServices.auditByUser(CommonState.class, 5, null, null, 10, null);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void auditBySystemAcrossShardsIsRejected() {
+        FdfCommonServices.auditBySystem(CommonState.class, 5, null, null, 10, null);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void changeStreamAcrossShardsIsRejected() {
+        new ChangeStream<>(CommonState.class, 10).next();
+    }
+}
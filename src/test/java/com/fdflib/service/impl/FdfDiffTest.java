@@ -0,0 +1,71 @@
+package com.fdflib.service.impl;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.FdfDiff;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Checks how diffBetween classifies the states that started or ended between the two dates, no database connection
+ * is needed.
+ */
+public class FdfDiffTest {
+
+    public static class Item extends CommonState {
+        public String name;
+    }
+
+    private static final Date START = new Date(1000);
+    private static final Date END = new Date(2000);
+
+    private static Item item(long id, String name, long arsd, Long ared) {
+        Item item = new Item();
+        item.id = id;
+        item.name = name;
+        item.arsd = new Date(arsd);
+        item.ared = ared != null ? new Date(ared) : null;
+        item.cf = ared == null;
+        return item;
+    }
+
+    @Test
+    public void entitiesAreAddedChangedAndRemoved() {
+        Item changedBefore = item(1, "a", 500, 1500L);
+        Item changedAfter = item(1, "b", 1500, null);
+        Item added = item(2, "c", 1200, null);
+        Item removedBefore = item(3, "d", 100, 1800L);
+        Item removedAfter = item(3, "d", 1800, null);
+        removedAfter.df = true;
+
+        FdfDiff<Item> diff = FdfCommonServices.diffStates(Item.class,
+                Arrays.asList(changedBefore, changedAfter, added, removedBefore, removedAfter), START, END);
+
+        Assert.assertEquals(Collections.singletonList(added), diff.added);
+        Assert.assertEquals(Collections.singletonList(removedBefore), diff.removed);
+        Assert.assertEquals(1, diff.changed.size());
+        Assert.assertSame(changedBefore, diff.changed.get(0).before);
+        Assert.assertSame(changedAfter, diff.changed.get(0).after);
+    }
+
+    @Test
+    public void changeThatWasRevertedIsNotADiff() {
+        FdfDiff<Item> diff = FdfCommonServices.diffStates(Item.class, Arrays.asList(
+                item(1, "a", 500, 1200L), item(1, "b", 1200, 1600L), item(1, "a", 1600, null)), START, END);
+
+        Assert.assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void entityAddedAndRemovedInsideTheWindowIsNotADiff() {
+        Item created = item(4, "e", 1100, 1300L);
+        Item deleted = item(4, "e", 1300, null);
+        deleted.df = true;
+
+        Assert.assertTrue(FdfCommonServices.diffStates(Item.class, Arrays.asList(created, deleted), START, END)
+                .isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+package com.fdflib.service.impl;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.model.util.FdfTimeSeries;
+import com.fdflib.model.util.SqlStatement;
+import com.fdflib.persistence.StubPersistence;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Checks which fields getFieldSeries aggregates, against a stubbed persistence layer.
+ */
+public class FdfFieldSeriesTest {
+
+    public static class Item extends CommonState {
+        public String name;
+        public BigDecimal price;
+        public int quantity;
+    }
+
+    private StubPersistence persistence;
+
+    @Before
+    public void setUp() {
+        persistence = new StubPersistence();
+        persistence.install();
+    }
+
+    @After
+    public void tearDown() {
+        persistence.uninstall();
+    }
+
+    private static void fieldSeries(String field) {
+        FdfCommonServices.getFieldSeries(Item.class, field, SqlStatement.Aggregate.SUM, FdfTimeSeries.Bucket.DAY,
+                new Date(0), new Date(86400000), 1);
+    }
+
+    @Test
+    public void numericDataFieldsAreAggregated() {
+        fieldSeries("price");
+        fieldSeries("Quantity");
+        Assert.assertEquals(2, persistence.count("timeSeriesQuery"));
+    }
+
+    @Test
+    public void otherFieldsAreRejectedBeforeAnyQuery() {
+        for (String field : Arrays.asList("name", "rid", "missing", "price) FROM item; --")) {
+            try {
+                fieldSeries(field);
+                Assert.fail(field + " was aggregated");
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(field));
+            }
+        }
+        Assert.assertEquals(0, persistence.count("timeSeriesQuery"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.fdflib.service.impl;
+
+import com.fdflib.model.entity.FdfEntity;
+import com.fdflib.model.state.CommonState;
+import com.fdflib.persistence.FdfStaleStateException;
+import com.fdflib.persistence.StubPersistence;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the expected rid of saveIfCurrent and the conditional close of saves against a stubbed persistence layer, no
+ * database connection is needed.
+ */
+public class FdfSaveIfCurrentTest {
+
+    public static class Item extends CommonState {
+        public String name;
+    }
+
+    private StubPersistence persistence;
+    private final List<Item> closed = new ArrayList<>();
+
+    private static Item item(long id, long rid, String name) {
+        Item item = new Item();
+        item.id = id;
+        item.rid = rid;
+        item.tid = 1;
+        item.cf = true;
+        item.name = name;
+        return item;
+    }
+
+    @Before
+    public void setUp() {
+        // every query finds entity 5 with current state rid 7
+        persistence = new StubPersistence()
+                .answer("selectQuery", args -> Collections.singletonList(item(5, 7, "current")))
+                .answer("insertAndClose", args -> {
+                    closed.add((Item) args[1]);
+                    return 8L;
+                });
+        persistence.install();
+    }
+
+    @After
+    public void tearDown() {
+        persistence.uninstall();
+    }
+
+    @Test
+    public void expectedCurrentStateIsClosed() {
+        FdfEntity<Item> entity = FdfCommonServices.saveIfCurrent(Item.class, item(5, 0, "new"), 7, 1, 1, 1);
+
+        Assert.assertNotNull(entity.current);
+        Assert.assertEquals(1, persistence.count("insertAndClose"));
+        Assert.assertEquals(7, closed.get(0).rid);
+        Assert.assertFalse(closed.get(0).cf);
+    }
+
+    @Test
+    public void otherCurrentStateFailsBeforeAnyWrite() {
+        try {
+            FdfCommonServices.saveIfCurrent(Item.class, item(5, 0, "new"), 6, 1, 1, 1);
+            Assert.fail("saved over rid 7 expecting rid 6");
+        } catch (FdfStaleStateException e) {
+            Assert.assertEquals(6, e.getExpectedRid());
+        }
+        Assert.assertEquals(0, persistence.count("insertAndClose"));
+    }
+
+    @Test
+    public void newEntityWithExpectedRidFailsBeforeAnyQuery() {
+        try {
+            FdfCommonServices.saveIfCurrent(Item.class, item(0, 0, "new"), 3, 1, 1, 1);
+            Assert.fail("new entity saved expecting rid 3");
+        } catch (FdfStaleStateException e) {
+            Assert.assertEquals(3, e.getExpectedRid());
+        }
+        Assert.assertEquals(0, persistence.count("selectQuery"));
+        Assert.assertEquals(0, persistence.count("insertAndClose"));
+    }
+
+    @Test
+    public void lostCloseIsNotRetriedWithAnExpectedRid() {
+        persistence.answer("insertAndClose", args -> {
+            throw new FdfStaleStateException(Item.class, 5, 7);
+        });
+
+        try {
+            FdfCommonServices.saveIfCurrent(Item.class, item(5, 0, "new"), 7, 1, 1, 1);
+            Assert.fail("another writer closed rid 7 first");
+        } catch (FdfStaleStateException e) {
+            // expected
+        }
+        Assert.assertEquals(1, persistence.count("insertAndClose"));
+    }
+
+    @Test
+    public void lostCloseIsRetriedByPlainSave() {
+        persistence.answer("insertAndClose", args -> {
+            if (closed.add((Item) args[1]) && closed.size() == 1) {
+                throw new FdfStaleStateException(Item.class, 5, 7);
+            }
+            return 9L;
+        });
+
+        FdfEntity<Item> entity = FdfCommonServices.save(Item.class, item(5, 0, "new"), 1, 1, 1);
+
+        Assert.assertNotNull(entity.current);
+        Assert.assertEquals(2, persistence.count("insertAndClose"));
+        // the retry closes the current state read again after the conflict
+        Assert.assertNotSame(closed.get(0), closed.get(1));
+    }
+}
@@ -0,0 +1,151 @@
+package com.fdflib.service.impl;
+
+import com.fdflib.model.state.CommonState;
+import com.fdflib.persistence.FdfStaleStateException;
+import com.fdflib.persistence.StubPersistence;
+import com.fdflib.util.FdfSettings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Checks batching, coalescing, rollbacks and conflict retries of the write-behind queue against a stubbed persistence
+ * layer, no database connection is needed.  The queue is flushed by the test, its own thread waits far longer.
+ */
+public class FdfWriteBehindQueueTest {
+
+    public static class Item extends CommonState {
+        public String name;
+    }
+
+    private FdfWriteBehindQueue queue;
+    private StubPersistence persistence;
+    // names of the states written by each insertAndCloseBatch call
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    private static Item item(long id, String name) {
+        Item item = new Item();
+        item.id = id;
+        item.tid = 1;
+        item.name = name;
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> write(Object[] args) {
+        List<Long> rids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (Item state : (List<Item>) args[2]) {
+            names.add(state.name);
+            rids.add(100L + batches.size());
+        }
+        batches.add(names);
+        return rids;
+    }
+
+    @Before
+    public void setUp() {
+        FdfSettings.WRITE_BEHIND_MAX_DELAY_MS = 60000;
+        // entity 5 has a current state
+        persistence = new StubPersistence()
+                .answer("selectQuery", args -> Collections.singletonList(item(5, "current")))
+                .answer("insertAndCloseBatch", this::write);
+        persistence.install();
+        queue = new FdfWriteBehindQueue();
+    }
+
+    @After
+    public void tearDown() {
+        persistence.uninstall();
+        FdfSettings.WRITE_BEHIND_MAX_DELAY_MS = 20;
+        FdfSettings.WRITE_BEHIND_COALESCE = false;
+        FdfSettings.SAVE_CONFLICT_RETRIES = 3;
+    }
+
+    @Test
+    public void secondSaveOfAnEntityGoesIntoTheNextBatch() throws Exception {
+        CompletableFuture<Item> first = queue.enqueue(Item.class, item(5, "a"), 1, 1, 1);
+        CompletableFuture<Item> other = queue.enqueue(Item.class, item(6, "other"), 1, 1, 1);
+        CompletableFuture<Item> second = queue.enqueue(Item.class, item(5, "b"), 1, 1, 1);
+        queue.flush();
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a", "other"), Collections.singletonList("b")), batches);
+        Assert.assertEquals("a", first.get().name);
+        Assert.assertEquals("other", other.get().name);
+        Assert.assertEquals("b", second.get().name);
+        Assert.assertEquals(101, second.get().rid);
+    }
+
+    @Test
+    public void coalescedSavesWriteOnlyTheLastState() throws Exception {
+        FdfSettings.WRITE_BEHIND_COALESCE = true;
+        CompletableFuture<Item> first = queue.enqueue(Item.class, item(5, "a"), 1, 1, 1);
+        CompletableFuture<Item> second = queue.enqueue(Item.class, item(5, "b"), 1, 1, 1);
+        queue.flush();
+
+        Assert.assertEquals(Collections.singletonList(Collections.singletonList("b")), batches);
+        Assert.assertEquals("b", first.get().name);
+        Assert.assertSame(first.get(), second.get());
+    }
+
+    @Test
+    public void rolledBackBatchFailsItsFutures() throws Exception {
+        // no rids back means the transaction was rolled back
+        persistence.answer("insertAndCloseBatch", args -> new ArrayList<Long>());
+        CompletableFuture<Item> first = queue.enqueue(Item.class, item(5, "a"), 1, 1, 1);
+        CompletableFuture<Item> second = queue.enqueue(Item.class, item(6, "b"), 1, 1, 1);
+        queue.flush();
+
+        for (CompletableFuture<Item> future : Arrays.asList(first, second)) {
+            try {
+                future.get();
+                Assert.fail("future of a rolled back save completed");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    @Test
+    public void conflictingBatchIsRetried() throws Exception {
+        persistence.answer("insertAndCloseBatch", args -> {
+            if (persistence.count("insertAndCloseBatch") == 1) {
+                throw new FdfStaleStateException(Item.class, 5, 0);
+            }
+            return write(args);
+        });
+        CompletableFuture<Item> future = queue.enqueue(Item.class, item(5, "a"), 1, 1, 1);
+        queue.flush();
+
+        Assert.assertEquals("a", future.get().name);
+        Assert.assertEquals(2, persistence.count("insertAndCloseBatch"));
+        // the current states are looked up again for the retry
+        Assert.assertEquals(2, persistence.count("selectQuery"));
+    }
+
+    @Test
+    public void conflictsBeyondTheRetriesFailTheFutures() throws Exception {
+        FdfSettings.SAVE_CONFLICT_RETRIES = 1;
+        persistence.answer("insertAndCloseBatch", args -> {
+            throw new FdfStaleStateException(Item.class, 5, 0);
+        });
+        CompletableFuture<Item> future = queue.enqueue(Item.class, item(5, "a"), 1, 1, 1);
+        queue.flush();
+
+        try {
+            future.get();
+            Assert.fail("future of a conflicting save completed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof FdfStaleStateException);
+        }
+        Assert.assertEquals(2, persistence.count("insertAndCloseBatch"));
+    }
+}
@@ -0,0 +1,99 @@
+package com.fdflib.util;
+
+import com.fdflib.annotation.FdfIgnore;
+import com.fdflib.model.state.CommonState;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Checks the change detection used to skip saves of unchanged states.
+ */
+public class FdfUtilTest {
+
+    public static class Reading extends CommonState {
+        public String sensor;
+        public double value;
+        public int[] samples;
+        @FdfIgnore
+        public String scratch;
+    }
+
+    private static Reading reading(double value) {
+        Reading reading = new Reading();
+        reading.sensor = "north";
+        reading.value = value;
+        reading.samples = new int[] {1, 2, 3};
+        return reading;
+    }
+
+    @Test
+    public void dataFieldsExcludeMetaAndIgnoredFields() {
+        Assert.assertEquals(3, FdfUtil.getDataFields(Reading.class).size());
+    }
+
+    @Test
+    public void metaFieldsDoNotCountAsChanges() {
+        Reading current = reading(4.5);
+        current.rid = 10;
+        current.arsd = new Date(0);
+        current.euid = 3;
+        Reading incoming = reading(4.5);
+        incoming.scratch = "not persisted";
+
+        Assert.assertTrue(FdfUtil.hasSameData(Reading.class, current, incoming));
+    }
+
+    @Test
+    public void dataOrDeleteFlagChangesAreDetected() {
+        Assert.assertFalse(FdfUtil.hasSameData(Reading.class, reading(4.5), reading(4.6)));
+
+        Reading deleted = reading(4.5);
+        deleted.df = true;
+        Assert.assertFalse(FdfUtil.hasSameData(Reading.class, reading(4.5), deleted));
+    }
+
+    public static class Payment extends CommonState {
+        public Date due;
+        public BigDecimal amount;
+    }
+
+    @Test
+    public void valuesReadBackFromTheDatabaseMatchTheSavedOnes() {
+        Payment saved = new Payment();
+        saved.due = new Date(1476800000123L);
+        saved.amount = new BigDecimal("12.5");
+        // what a select returns for the same row
+        Payment read = new Payment();
+        read.due = new Timestamp(1476800000123L);
+        read.amount = new BigDecimal("12.5000");
+
+        Assert.assertTrue(FdfUtil.hasSameData(Payment.class, read, saved));
+        Assert.assertTrue(FdfUtil.hasSameData(Payment.class, saved, read));
+
+        read.due = new Timestamp(1476800000124L);
+        Assert.assertFalse(FdfUtil.hasSameData(Payment.class, read, saved));
+        read.due = new Timestamp(1476800000123L);
+        read.amount = new BigDecimal("12.5001");
+        Assert.assertFalse(FdfUtil.hasSameData(Payment.class, read, saved));
+    }
+
+    public static class Wider extends CommonState {
+        public String sensor;
+    }
+
+    @Test
+    public void fingerprintIgnoresOrderAndDuplicatesButNotFields() {
+        String fingerprint = FdfUtil.getModelFingerprint(Arrays.asList(Reading.class, Wider.class));
+
+        Assert.assertEquals(fingerprint, FdfUtil.getModelFingerprint(Arrays.asList(Wider.class, Reading.class,
+                Wider.class)));
+        Assert.assertFalse(fingerprint.equals(FdfUtil.getModelFingerprint(Collections.singletonList(Reading.class))));
+        Assert.assertEquals(64, fingerprint.length());
+    }
+}